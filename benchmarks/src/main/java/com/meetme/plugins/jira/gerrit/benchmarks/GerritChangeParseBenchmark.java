@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.benchmarks;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning one query's results into {@link GerritChange}s, as
+ * {@code IssueReviewsImpl.getReviewsFromGerrit} does after every cache miss. One operation parses
+ * every change in the result set.
+ * <p>
+ * Run with the GC profiler to see the allocation rate per operation:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar GerritChangeParseBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GerritChangeParseBenchmark {
+    @Param({ "ssh", "http" })
+    public String connectionType;
+
+    @Param({ "1", "50", "500" })
+    public int changes;
+
+    private List<JSONObject> results;
+
+    @Setup
+    public void setUp() {
+        // The HTTP parser adds an "approvals" element to each result; it replaces the previous
+        // one, so parsing the same objects repeatedly does the same work every time.
+        results = QueryFixtures.query(connectionType, changes);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (JSONObject obj : results) {
+            blackhole.consume(new GerritChange(obj, connectionType));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(GerritChangeParseBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.benchmarks;
+
+import com.google.common.io.Resources;
+import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Query results of realistic shape and size, for benchmarks.
+ * <p>
+ * Each format has a single change recorded from a real Gerrit query (<tt>gerrit query
+ * --format=JSON --current-patch-set</tt> over SSH; <tt>/changes/?o=CURRENT_REVISION&amp;
+ * o=CURRENT_COMMIT&amp;o=DETAILED_LABELS&amp;o=DETAILED_ACCOUNTS</tt> over HTTP), which is copied
+ * with varying numbers, statuses and votes to build larger result sets. The output is
+ * deterministic, so runs can be compared.
+ */
+public final class QueryFixtures {
+    private static final String[] REVIEWERS = { "sreviewer", "apeer", "mlead", "kqa", "rarchitect", "tintern" };
+
+    private QueryFixtures() {
+    }
+
+    /**
+     * @param connectionType {@link GerritEventKeys#CONNECTION_TYPE_SSH} or
+     *            {@link GerritEventKeys#CONNECTION_TYPE_HTTP}
+     * @param size the number of changes
+     * @return the query results, as returned by the query handler (without the stats row)
+     */
+    public static List<JSONObject> query(String connectionType, int size) {
+        boolean http = GerritEventKeys.CONNECTION_TYPE_HTTP.equals(connectionType);
+        String template = load(http ? "fixtures/http-change.json" : "fixtures/ssh-change.json");
+        Random random = new Random(size);
+        List<JSONObject> results = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            JSONObject change = JSONObject.fromObject(template);
+            int number = 48231 + i;
+            String changeId = String.format("I%040x", number * 2654435761L);
+            String revision = String.format("%040x", number * 40503L);
+            boolean open = random.nextInt(10) < 8;
+            int votes = random.nextInt(REVIEWERS.length + 1);
+
+            if (http) {
+                mutateHttp(change, number, changeId, revision, open, votes, random);
+            } else {
+                mutateSsh(change, number, changeId, revision, open, votes, random);
+            }
+
+            results.add(change);
+        }
+
+        return results;
+    }
+
+    private static void mutateSsh(JSONObject change, int number, String changeId, String revision, boolean open, int votes,
+            Random random) {
+        change.element("number", Integer.toString(number));
+        change.element("id", changeId);
+        change.element("url", "https://gerrit.example.com/" + number);
+        change.element("open", open);
+        change.element("status", open ? "NEW" : "MERGED");
+
+        JSONObject patchSet = change.getJSONObject("currentPatchSet");
+        patchSet.element("revision", revision);
+        patchSet.element("ref", "refs/changes/" + number % 100 + "/" + number + "/" + patchSet.getString("number"));
+
+        JSONArray approvals = new JSONArray();
+        approvals.add(patchSet.getJSONArray("approvals").getJSONObject(0));
+
+        for (int i = 0; i < votes; i++) {
+            JSONObject approval = JSONObject.fromObject(patchSet.getJSONArray("approvals").getJSONObject(1));
+            approval.element("value", Integer.toString(random.nextInt(5) - 2));
+            approval.getJSONObject("by").element("username", REVIEWERS[i]).element("email", REVIEWERS[i] + "@example.com");
+            approvals.add(approval);
+        }
+
+        patchSet.element("approvals", approvals);
+    }
+
+    private static void mutateHttp(JSONObject change, int number, String changeId, String revision, boolean open, int votes,
+            Random random) {
+        change.element("_number", number);
+        change.element("change_id", changeId);
+        change.element("id", "platform%2Fframeworks%2Fbase~master~" + changeId);
+        change.element("status", open ? "NEW" : "MERGED");
+
+        String recordedRevision = change.getString("current_revision");
+        JSONObject revisionJson = change.getJSONObject("revisions").getJSONObject(recordedRevision);
+        revisionJson.element("ref", "refs/changes/" + number % 100 + "/" + number + "/" + revisionJson.getString("_number"));
+        change.element("revisions", new JSONObject().element(revision, revisionJson));
+        change.element("current_revision", revision);
+
+        JSONObject codeReview = change.getJSONObject("labels").getJSONObject("Code-Review");
+        JSONObject vote = codeReview.getJSONArray("all").getJSONObject(0);
+        JSONArray all = new JSONArray();
+
+        for (int i = 0; i < votes; i++) {
+            JSONObject reviewer = JSONObject.fromObject(vote);
+            reviewer.element("value", random.nextInt(5) - 2);
+            reviewer.element("username", REVIEWERS[i]).element("email", REVIEWERS[i] + "@example.com");
+            reviewer.element("_account_id", 1000100 + i);
+            all.add(reviewer);
+        }
+
+        codeReview.element("all", all);
+    }
+
+    private static String load(String resource) {
+        try {
+            return Resources.toString(Resources.getResource(QueryFixtures.class, "/" + resource), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
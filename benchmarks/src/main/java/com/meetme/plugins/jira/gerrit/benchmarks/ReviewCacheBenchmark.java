@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.benchmarks;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.meetme.plugins.jira.gerrit.data.ReviewCaches;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Drives the review cache the way concurrent page views do: look up an issue's reviews, and load
+ * them from "Gerrit" on a miss.
+ * <p>
+ * Keys are drawn from a Zipf distribution over as many hot issues as fit in the cache; a
+ * {@code 1 - hitRatio} share of the lookups instead goes to issues that are never viewed again,
+ * and always misses. The effective hit ratio is lower than configured, since those one-off misses
+ * also push hot issues out. Compare the <tt>loads</tt> counter against the operation count to
+ * see it.
+ * <p>
+ * {@code main} runs every combination from 1 to 64 threads; the JMH command line accepts
+ * <tt>-t</tt> for a single thread count. Throughput is reported along with the sampled latency
+ * distribution (including p99) of a lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReviewCacheBenchmark {
+    private static final List<GerritChange> REVIEWS = Collections.emptyList();
+
+    private static final long EXPIRATION = 30000;
+
+    /** The cache implementation: the plugin's synchronized TimedCache, or a Guava cache */
+    @Param({ "timedCache", "guava" })
+    public String implementation;
+
+    @Param({ "30", "500" })
+    public int capacity;
+
+    /** Share of lookups that go to hot issues, rather than one-off ones */
+    @Param({ "0.9", "0.99" })
+    public double hitRatio;
+
+    /** Simulated Gerrit query latency on a miss, in microseconds */
+    @Param({ "0", "1000" })
+    public long loaderLatencyMicros;
+
+    @Param({ "1.0" })
+    public double zipfExponent;
+
+    private CacheUnderTest cache;
+    private ZipfGenerator hotKeys;
+    private final AtomicLong coldKeys = new AtomicLong();
+
+    /**
+     * Counts loader invocations per thread; JMH sums them up.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Loads {
+        public long loads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            loads = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hotKeys = new ZipfGenerator(capacity, zipfExponent);
+
+        switch (implementation) {
+            case "timedCache":
+                cache = new MapCache(ReviewCaches.newTimedCache(capacity, EXPIRATION));
+                break;
+            case "guava":
+                cache = new GuavaCache(capacity, EXPIRATION);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        }
+    }
+
+    @Benchmark
+    public List<GerritChange> getReviews(final Loads loads) {
+        String key = ThreadLocalRandom.current().nextDouble() < hitRatio ? "HOT-" + hotKeys.next() : "COLD-" + coldKeys.incrementAndGet();
+
+        return cache.get(key, k -> {
+            loads.loads++;
+
+            if (loaderLatencyMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(loaderLatencyMicros));
+            }
+
+            return REVIEWS;
+        });
+    }
+
+    /**
+     * What the benchmark needs from a review cache implementation.
+     */
+    public interface CacheUnderTest {
+        List<GerritChange> get(String key, Function<String, List<GerritChange>> loader);
+    }
+
+    /**
+     * A cache that only offers the {@link Map} interface, used the way {@code IssueReviewsImpl}
+     * does: check, then load and store on a miss. Concurrent misses for the same key all load.
+     */
+    static class MapCache implements CacheUnderTest {
+        private final Map<String, List<GerritChange>> map;
+
+        MapCache(Map<String, List<GerritChange>> map) {
+            this.map = map;
+        }
+
+        @Override
+        public List<GerritChange> get(String key, Function<String, List<GerritChange>> loader) {
+            if (map.containsKey(key)) {
+                List<GerritChange> value = map.get(key);
+
+                if (value != null) {
+                    return value;
+                }
+            }
+
+            List<GerritChange> value = loader.apply(key);
+            map.put(key, value);
+            return value;
+        }
+    }
+
+    /**
+     * Guava cache with the same bounds; concurrent misses for the same key share one load.
+     */
+    static class GuavaCache implements CacheUnderTest {
+        private final Cache<String, List<GerritChange>> cache;
+
+        GuavaCache(int capacity, long expiration) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumSize(capacity)
+                    .expireAfterWrite(expiration, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+
+        @Override
+        public List<GerritChange> get(String key, Function<String, List<GerritChange>> loader) {
+            try {
+                return cache.get(key, () -> loader.apply(key));
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] { 1, 4, 16, 64 }) {
+            Options options = new OptionsBuilder()
+                    .include(ReviewCacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.benchmarks;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.meetme.plugins.jira.gerrit.data.ReviewCaches;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hit ratio of the review cache under issue page views mixed with scans.
+ * <p>
+ * Each round is {@link #ROUND_VIEWS} lookups drawn from a Zipf distribution over ten times as many
+ * issues as fit in the cache, followed by a scan of {@code scanLength} issues that are never
+ * viewed again (like a bulk workflow transition, or a board load). A miss stores the issue.
+ * <p>
+ * The <tt>hits</tt> and <tt>misses</tt> counters give the hit ratio; the plugin's cache is
+ * compared with a plain LRU {@link LinkedHashMap}, which is what it used to be, and a Guava cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class ReviewCacheHitRatioBenchmark {
+    /** Number of Zipf-distributed lookups between scans */
+    private static final int ROUND_VIEWS = 2000;
+
+    /** Long enough that nothing expires during the run */
+    private static final long EXPIRATION = TimeUnit.HOURS.toMillis(1);
+
+    /** The cache implementation: the plugin's TimedCache, a plain LRU map, or a Guava cache */
+    @Param({ "timedCache", "lru", "guava" })
+    public String implementation;
+
+    @Param({ "100", "500" })
+    public int capacity;
+
+    /** Number of one-off issues looked up after each round of page views */
+    @Param({ "0", "200", "1000" })
+    public int scanLength;
+
+    @Param({ "1.0" })
+    public double zipfExponent;
+
+    private Map<String, String> cache;
+    private ZipfGenerator hotKeys;
+    private int position;
+    private long coldKeys;
+
+    /**
+     * Counts the hits and misses; JMH reports them per iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Lookups {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hotKeys = new ZipfGenerator(capacity * 10, zipfExponent);
+
+        switch (implementation) {
+            case "timedCache":
+                cache = ReviewCaches.newTimedCache(capacity, EXPIRATION);
+                break;
+            case "lru":
+                cache = new LinkedHashMap<String, String>(capacity + 1, 1.0f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > capacity;
+                    }
+                };
+                break;
+            case "guava":
+                Cache<String, String> guava = CacheBuilder.newBuilder()
+                        .maximumSize(capacity)
+                        .expireAfterWrite(EXPIRATION, TimeUnit.MILLISECONDS)
+                        .build();
+                cache = guava.asMap();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        }
+    }
+
+    @Benchmark
+    public String getReviews(final Lookups lookups) {
+        String key = position < ROUND_VIEWS ? "HOT-" + hotKeys.next() : "COLD-" + coldKeys++;
+        position = (position + 1) % (ROUND_VIEWS + scanLength);
+
+        String value = cache.get(key);
+
+        if (value != null) {
+            lookups.hits++;
+            return value;
+        }
+
+        lookups.misses++;
+        cache.put(key, key);
+        return key;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ReviewCacheHitRatioBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws ranks from a Zipf distribution, where rank 0 is the most popular. Models issue page views:
+ * a few issues everyone is working on, and a long tail of issues viewed once in a while.
+ */
+public final class ZipfGenerator {
+    private final double[] cumulative;
+
+    /**
+     * @param size the number of distinct ranks
+     * @param exponent the skew; 0 is uniform, around 1 is typical for page views
+     */
+    public ZipfGenerator(int size, double exponent) {
+        cumulative = new double[size];
+        double sum = 0;
+
+        for (int i = 0; i < size; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    public int next() {
+        double value = ThreadLocalRandom.current().nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (cumulative[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
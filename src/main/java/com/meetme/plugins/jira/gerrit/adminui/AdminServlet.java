@@ -23,6 +23,7 @@ import com.atlassian.templaterenderer.TemplateRenderer;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandler;
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandlerHttp;
@@ -65,6 +66,9 @@ public class AdminServlet extends HttpServlet {
     private static final String ACTION_TEST_SSH = "testSsh";
     private static final String ACTION_TEST_HTTP = "testHttp";
 
+    /** Max number of request URLs listed on the admin page */
+    private static final int MAX_REQUEST_OFFENDERS = 20;
+
     private static String TEMPLATE_ADMIN = "templates/admin.vm";
 
     private final UserManager userManager;
@@ -126,6 +130,15 @@ public class AdminServlet extends HttpServlet {
         map.put(GerritConfiguration.FIELD_USE_GERRIT_PROJECT_WHITELIST, String.valueOf(config
                 .getUseGerritProjectWhitelist()));
         map.put(GerritConfiguration.FIELD_CACHE_TIMEOUT, config.getCacheTimeout());
+        map.put(GerritConfiguration.FIELD_GERRIT_SERVERS, config.getGerritServersConfig());
+        map.put(GerritConfiguration.FIELD_REQUEST_QUERY_THRESHOLD, config.getRequestQueryThreshold());
+        map.put(GerritConfiguration.FIELD_PREFETCH_INTERVAL, config.getPrefetchInterval());
+        map.put(GerritConfiguration.FIELD_CACHE_MEMORY, config.getCacheMemory());
+        map.put(GerritConfiguration.FIELD_CACHE_JITTER, config.getCacheJitter());
+        map.put(GerritConfiguration.FIELD_OFF_HEAP_CACHE_MEMORY, config.getOffHeapCacheMemory());
+        map.put(GerritConfiguration.FIELD_CACHE_RETENTION, config.getCacheRetention());
+        map.put("metrics", GerritMetrics.getInstance());
+        map.put("requestOffenders", GerritMetrics.getInstance().getRequestOffenders().getTop(MAX_REQUEST_OFFENDERS));
         return map;
     }
 
@@ -290,6 +303,27 @@ public class AdminServlet extends HttpServlet {
                 case GerritConfiguration.FIELD_CACHE_TIMEOUT:
                     configurationManager.setCacheTimeout(Integer.parseInt(item.getString()));
                     break;
+                case GerritConfiguration.FIELD_REQUEST_QUERY_THRESHOLD:
+                    configurationManager.setRequestQueryThreshold(Integer.parseInt(item.getString()));
+                    break;
+                case GerritConfiguration.FIELD_PREFETCH_INTERVAL:
+                    configurationManager.setPrefetchInterval(Integer.parseInt(item.getString()));
+                    break;
+                case GerritConfiguration.FIELD_CACHE_MEMORY:
+                    configurationManager.setCacheMemory(Integer.parseInt(item.getString()));
+                    break;
+                case GerritConfiguration.FIELD_CACHE_JITTER:
+                    configurationManager.setCacheJitter(Integer.parseInt(item.getString()));
+                    break;
+                case GerritConfiguration.FIELD_OFF_HEAP_CACHE_MEMORY:
+                    configurationManager.setOffHeapCacheMemory(Integer.parseInt(item.getString()));
+                    break;
+                case GerritConfiguration.FIELD_CACHE_RETENTION:
+                    configurationManager.setCacheRetention(Integer.parseInt(item.getString()));
+                    break;
+                case GerritConfiguration.FIELD_GERRIT_SERVERS:
+                    configurationManager.setGerritServersConfig(item.getString());
+                    break;
             }
         }
 
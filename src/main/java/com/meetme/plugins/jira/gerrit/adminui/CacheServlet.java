@@ -0,0 +1,232 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.adminui;
+
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.meetme.plugins.jira.gerrit.data.PrewarmProgress;
+import com.meetme.plugins.jira.gerrit.data.ReviewCacheAdmin;
+import com.meetme.plugins.jira.gerrit.data.ReviewCacheEntry;
+import com.meetme.plugins.jira.gerrit.metrics.CacheStats;
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
+import com.meetme.plugins.jira.gerrit.metrics.LatencyHistogram;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * JSON API behind the cache section of the admin page, for system administrators only:
+ * <ul>
+ * <li><tt>GET /gerrit/cache</tt>: the cache statistics, the top entries and the prewarm
+ * progress</li>
+ * <li><tt>DELETE /gerrit/cache</tt>: flushes the caches</li>
+ * <li><tt>DELETE /gerrit/cache/issues/{issueKey}</tt>: evicts an issue</li>
+ * <li><tt>POST /gerrit/cache/prewarm</tt> with a <tt>jql</tt> or <tt>project</tt> parameter:
+ * starts prewarming the caches with the reviews of those issues</li>
+ * <li><tt>GET /gerrit/cache/prewarm</tt>: the prewarm progress</li>
+ * </ul>
+ * Requests that change anything must have the <tt>X-Atlassian-Token: no-check</tt> header, which
+ * a cross-site form can't send.
+ */
+public class CacheServlet extends HttpServlet {
+    private static final long serialVersionUID = 2637846231796853042L;
+
+    private static final String CONTENT_TYPE = "application/json;charset=utf-8";
+
+    private static final String PATH_ISSUES = "/issues/";
+    private static final String PATH_PREWARM = "/prewarm";
+
+    private static final String XSRF_HEADER = "X-Atlassian-Token";
+    private static final String XSRF_NO_CHECK = "no-check";
+
+    /** Number of entries listed by default */
+    private static final int DEFAULT_TOP_ENTRIES = 20;
+    private static final int MAX_TOP_ENTRIES = 200;
+
+    private final UserManager userManager;
+    private final ReviewCacheAdmin cacheAdmin;
+
+    public CacheServlet(final UserManager userManager, final ReviewCacheAdmin cacheAdmin) {
+        this.userManager = userManager;
+        this.cacheAdmin = cacheAdmin;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        if (!checkAccess(req, resp, false)) {
+            return;
+        }
+
+        String path = StringUtils.defaultString(req.getPathInfo());
+
+        if (path.isEmpty() || "/".equals(path)) {
+            int limit = Math.min(MAX_TOP_ENTRIES, parseInt(req.getParameter("limit"), DEFAULT_TOP_ENTRIES));
+            send(resp, HttpServletResponse.SC_OK, toJson(limit));
+        } else if (PATH_PREWARM.equals(path)) {
+            send(resp, HttpServletResponse.SC_OK, toJson(cacheAdmin.getPrewarmProgress()));
+        } else {
+            sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Not found: " + path);
+        }
+    }
+
+    @Override
+    protected void doDelete(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        if (!checkAccess(req, resp, true)) {
+            return;
+        }
+
+        String path = StringUtils.defaultString(req.getPathInfo());
+
+        if (path.isEmpty() || "/".equals(path)) {
+            cacheAdmin.flush();
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else if (path.startsWith(PATH_ISSUES) && path.length() > PATH_ISSUES.length()) {
+            cacheAdmin.evict(path.substring(PATH_ISSUES.length()));
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else {
+            sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Not found: " + path);
+        }
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        if (!checkAccess(req, resp, true)) {
+            return;
+        }
+
+        if (!PATH_PREWARM.equals(req.getPathInfo())) {
+            sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Not found: " + req.getPathInfo());
+            return;
+        }
+
+        String jql = req.getParameter("jql");
+        String project = req.getParameter("project");
+
+        try {
+            PrewarmProgress progress;
+
+            if (StringUtils.isNotBlank(jql)) {
+                progress = cacheAdmin.prewarmQuery(jql);
+            } else if (StringUtils.isNotBlank(project)) {
+                progress = cacheAdmin.prewarmProject(project);
+            } else {
+                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Either jql or project is required");
+                return;
+            }
+
+            send(resp, HttpServletResponse.SC_ACCEPTED, toJson(progress));
+        } catch (IllegalArgumentException e) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            sendError(resp, HttpServletResponse.SC_CONFLICT, e.getMessage());
+        }
+    }
+
+    private boolean checkAccess(HttpServletRequest req, HttpServletResponse resp, boolean modifies) throws IOException {
+        UserKey user = userManager.getRemoteUserKey(req);
+
+        if (user == null) {
+            sendError(resp, HttpServletResponse.SC_UNAUTHORIZED, "Not logged in");
+            return false;
+        }
+
+        if (!userManager.isSystemAdmin(user)) {
+            sendError(resp, HttpServletResponse.SC_FORBIDDEN, "Only system administrators may manage the review caches");
+            return false;
+        }
+
+        if (modifies && !XSRF_NO_CHECK.equals(req.getHeader(XSRF_HEADER))) {
+            sendError(resp, HttpServletResponse.SC_FORBIDDEN, "Missing " + XSRF_HEADER + " header");
+            return false;
+        }
+
+        return true;
+    }
+
+    private JSONObject toJson(int limit) {
+        GerritMetrics metrics = GerritMetrics.getInstance();
+        CacheStats stats = metrics.getReviewsCache();
+        LatencyHistogram loadTime = metrics.getReviewsLoadTime();
+
+        JSONArray top = new JSONArray();
+        for (ReviewCacheEntry entry : cacheAdmin.getTopEntries(limit)) {
+            top.add(new JSONObject()
+                    .element("key", entry.getCacheKey())
+                    .element("changes", entry.getChangeCount())
+                    .element("hits", entry.getHits())
+                    .element("weight", entry.getWeight())
+                    .element("loadedAt", entry.getLoadedAt()));
+        }
+
+        return new JSONObject()
+                .element("issues", cacheAdmin.getCachedIssueCount())
+                .element("changes", cacheAdmin.getCachedChangeCount())
+                .element("offHeapIssues", cacheAdmin.getOffHeapIssueCount())
+                .element("existence", cacheAdmin.getExistenceCount())
+                .element("prefetchedProjects", cacheAdmin.getPrefetchedProjectCount())
+                .element("weight", stats.getWeight())
+                .element("maxWeight", stats.getMaxWeight())
+                .element("hits", stats.getHits())
+                .element("misses", stats.getMisses())
+                .element("hitRatio", stats.getHitRatio())
+                .element("evictions", stats.getEvictions())
+                .element("loadTime", new JSONObject()
+                        .element("count", loadTime.getCount())
+                        .element("meanMillis", loadTime.getMeanMillis())
+                        .element("p95Millis", loadTime.get95thPercentileMillis())
+                        .element("maxMillis", loadTime.getMaxMillis()))
+                .element("top", top)
+                .element("prewarm", toJson(cacheAdmin.getPrewarmProgress()));
+    }
+
+    private static JSONObject toJson(PrewarmProgress progress) {
+        if (progress == null) {
+            return new JSONObject(true);
+        }
+
+        return new JSONObject()
+                .element("selection", progress.getSelection())
+                .element("total", progress.getTotal())
+                .element("completed", progress.getCompleted())
+                .element("failed", progress.getFailed())
+                .element("percent", progress.getPercent())
+                .element("running", progress.isRunning())
+                .element("startedAt", progress.getStartedAt())
+                .element("finishedAt", progress.getFinishedAt());
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void send(HttpServletResponse resp, int status, JSONObject json) throws IOException {
+        resp.setStatus(status);
+        resp.setContentType(CONTENT_TYPE);
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().write(json.toString());
+    }
+
+    private static void sendError(HttpServletResponse resp, int status, String message) throws IOException {
+        send(resp, status, new JSONObject().element("error", message));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.dto.ChangeInterner;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The second level of the reviews cache: a single, shared {@link GerritChange} per change, which
+ * the issue level refers to by {@link #getChangeKey(GerritChange) change key}. A change mentioned
+ * by several issues (or by several keys of the same issue) is only kept once, and refreshing it
+ * refreshes it for all of them.
+ * <p>
+ * Changes are reference counted: a change is forgotten once no cached issue refers to it anymore.
+ * Stored changes are {@link ChangeInterner#compact(GerritChange) compacted}, sharing the values
+ * that repeat across changes.
+ */
+final class ChangeStore {
+    private final Map<String, Entry> changes = new HashMap<>();
+    private final ChangeInterner interner = new ChangeInterner();
+
+    /**
+     * @return the key of the change, unique across servers
+     */
+    static String getChangeKey(GerritChange change) {
+        return change.getServer() == null ? change.getNumber() : change.getServer() + '|' + change.getNumber();
+    }
+
+    /**
+     * Adds a reference to each of the changes, replacing the stored ones with these unless they
+     * are older.
+     *
+     * @return the keys of the changes, in the same order, without duplicates
+     */
+    synchronized List<String> retain(List<GerritChange> loaded) {
+        Set<String> keys = new LinkedHashSet<>(loaded.size());
+
+        for (GerritChange change : loaded) {
+            String key = getChangeKey(change);
+
+            if (!keys.add(key)) {
+                continue;
+            }
+
+            Entry entry = changes.get(key);
+
+            if (entry == null) {
+                changes.put(key, new Entry(interner.compact(change)));
+            } else {
+                entry.update(interner.compact(change));
+                entry.references++;
+            }
+        }
+
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Removes a reference to each of the changes, forgetting those that are no longer referenced.
+     */
+    synchronized void release(List<String> keys) {
+        for (String key : keys) {
+            Entry entry = changes.get(key);
+
+            if (entry != null && --entry.references <= 0) {
+                changes.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the stored changes; a change that is no longer stored is left out
+     */
+    synchronized List<GerritChange> resolve(List<String> keys) {
+        List<GerritChange> resolved = new ArrayList<>(keys.size());
+
+        for (String key : keys) {
+            Entry entry = changes.get(key);
+
+            if (entry != null) {
+                resolved.add(entry.change);
+            }
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Replaces a stored change with a newer version of it, for every issue that refers to it.
+     *
+     * @return whether the change is stored (and was updated, unless the stored one is newer)
+     */
+    synchronized boolean update(GerritChange change) {
+        Entry entry = changes.get(getChangeKey(change));
+
+        if (entry == null) {
+            return false;
+        }
+
+        entry.update(interner.compact(change));
+        return true;
+    }
+
+    synchronized int size() {
+        return changes.size();
+    }
+
+    private static final class Entry {
+        GerritChange change;
+        int references = 1;
+
+        Entry(GerritChange change) {
+            this.change = change;
+        }
+
+        void update(GerritChange newer) {
+            // Results that were loaded earlier (e.g., restored from a snapshot) must not win
+            if (change.getLastUpdatedMillis() == GerritChange.NO_TIMESTAMP || newer.getLastUpdatedMillis() == GerritChange.NO_TIMESTAMP
+                    || newer.getLastUpdatedMillis() >= change.getLastUpdatedMillis()) {
+                change = newer;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+/**
+ * Stops sending requests to a Gerrit server that keeps failing, so that an unreachable server
+ * doesn't make every page wait for its connection timeout.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the breaker opens, and requests are refused
+ * for {@code openMillis}. After that a single trial request is let through: if it succeeds the
+ * breaker closes again, otherwise it stays open for another period.
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInProgress;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return whether a request may be sent now
+     */
+    public synchronized boolean allowRequest() {
+        if (consecutiveFailures < failureThreshold) {
+            return true;
+        }
+
+        if (trialInProgress || now() < openUntil) {
+            return false;
+        }
+
+        // Half open: let one request find out whether the server is back
+        trialInProgress = true;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInProgress = false;
+
+        if (consecutiveFailures >= failureThreshold) {
+            openUntil = now() + openMillis;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return consecutiveFailures >= failureThreshold;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+}
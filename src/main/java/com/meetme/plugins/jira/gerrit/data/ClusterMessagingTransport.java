@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.cluster.ClusterMessageConsumer;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+
+import java.util.function.Consumer;
+
+/**
+ * Sends the {@link ReviewCacheSync} messages through JIRA Data Center's cluster messaging. Outside
+ * of a cluster, messages simply go nowhere.
+ */
+public class ClusterMessagingTransport implements ReviewCacheTransport {
+    /** At most 20 characters, as required by JIRA */
+    static final String CHANNEL = "GerritReviewCache";
+
+    private final ClusterMessagingService messagingService;
+
+    /** JIRA only holds weak references to the listeners, so this one has to be kept here */
+    private ClusterMessageConsumer consumer;
+
+    public ClusterMessagingTransport(ClusterMessagingService messagingService) {
+        this.messagingService = messagingService;
+    }
+
+    @Override
+    public void publish(String message) {
+        messagingService.sendRemote(CHANNEL, message);
+    }
+
+    @Override
+    public synchronized void subscribe(Consumer<String> receiver) {
+        unsubscribe();
+        consumer = (channel, message, senderId) -> receiver.accept(message);
+        messagingService.registerListener(CHANNEL, consumer);
+    }
+
+    @Override
+    public synchronized void unsubscribe() {
+        if (consumer != null) {
+            messagingService.unregisterListener(CHANNEL, consumer);
+            consumer = null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+/**
+ * Estimates how often each key was accessed recently, in a fixed amount of memory (a count-min
+ * sketch of 4-bit counters, as in TinyLFU). The counters are halved every so often, so keys that
+ * were popular a long time ago don't stay popular forever.
+ * <p>
+ * The estimate may be too high when keys share counters, but never too low. Not thread-safe.
+ */
+final class FrequencySketch {
+    /** One seed per hash function; each picks one counter */
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Clears the bit each counter gets from its neighbor when a word is shifted right */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    static final int MAX_FREQUENCY = 15;
+
+    /** Sixteen 4-bit counters per word */
+    private final long[] table;
+    private final int tableMask;
+    /** Number of increments after which the counters are halved */
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries about the number of entries the cache holds
+     */
+    FrequencySketch(int expectedEntries) {
+        int entries = Math.max(16, Math.min(expectedEntries, 1 << 24));
+        int size = Integer.highestOneBit(entries - 1) << 1;
+        table = new long[size];
+        tableMask = size - 1;
+        sampleSize = 10 * entries;
+    }
+
+    /**
+     * @return the estimated number of recent accesses to the key, up to {@link #MAX_FREQUENCY}
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = mix(hash, i);
+            frequency = Math.min(frequency, (int) ((table[indexOf(h)] >>> offsetOf(h)) & 0xfL));
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Records an access to the key.
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = mix(hash, i);
+            added |= incrementAt(indexOf(h), offsetOf(h));
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xfL << offset;
+
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+
+        additions /= 2;
+    }
+
+    private static long mix(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h + (h >>> 32);
+    }
+
+    private int indexOf(long h) {
+        return (int) h & tableMask;
+    }
+
+    private static int offsetOf(long h) {
+        return (int) ((h >>> 40) & 0xfL) << 2;
+    }
+
+    /**
+     * Spreads a poor hash code (such as that of similar issue keys) over all the bits.
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
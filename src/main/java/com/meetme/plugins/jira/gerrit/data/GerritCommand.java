@@ -28,15 +28,21 @@ import org.slf4j.LoggerFactory;
 
 import com.jcraft.jsch.ChannelExec;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
 
 public class GerritCommand {
     private static final Logger log = LoggerFactory.getLogger(GerritCommand.class);
     private final static String BASE_COMMAND = "gerrit review";
-    private GerritConfiguration config;
+    private GerritServer server;
     private ExtendedPreferences extendedPreferences;
 
-    public GerritCommand(GerritConfiguration config, ExtendedPreferences extendedPreferences) {
-        this.config = config;
+    /**
+     * @param server the Gerrit server to run the commands on
+     * @param extendedPreferences the user's preferences, which may hold their own SSH key for the
+     *            default server
+     */
+    public GerritCommand(GerritServer server, ExtendedPreferences extendedPreferences) {
+        this.server = server;
         this.extendedPreferences = extendedPreferences;
     }
 
@@ -74,8 +80,10 @@ public class GerritCommand {
         SshConnection ssh = null;
 
         try {
-            Authentication auth = getAuthentication();
-            ssh = SshConnectionFactory.getConnection(config.getSshHostname(), config.getSshPort(), auth);
+            Authentication auth = getAuthentication(server, extendedPreferences);
+            long connectStart = System.nanoTime();
+            ssh = SshConnectionFactory.getConnection(server.getSshHostname(), server.getSshPort(), auth);
+            GerritMetrics.getInstance().getSshConnectTime().recordSince(connectStart);
 
             for (String command : commands) {
                 if (!runCommand(ssh, command)) {
@@ -97,10 +105,28 @@ public class GerritCommand {
         return success;
     }
 
-    private Authentication getAuthentication() {
+    /**
+     * @param server the Gerrit server
+     * @param extendedPreferences the user's preferences; may be {@code null}
+     * @return the Gerrit username that reviews on the server are performed as, over either
+     *         connection type
+     */
+    public static String getReviewerUsername(GerritServer server, ExtendedPreferences extendedPreferences) {
+        if (server.isHttp()) {
+            return server.getHttpUsername();
+        }
+
+        return getAuthentication(server, extendedPreferences).getUsername();
+    }
+
+    /**
+     * @return the user's own SSH key, if they configured a readable one (only used for the default
+     *         server), or else the server's
+     */
+    private static Authentication getAuthentication(GerritServer server, ExtendedPreferences extendedPreferences) {
         Authentication auth = null;
 
-        if (extendedPreferences != null) {
+        if (extendedPreferences != null && server.isDefault()) {
             // Attempt to get a per-user authentication mechanism, so JIRA can act as the user.
             try {
                 String privateKey = extendedPreferences.getString("gerrit.privateKey");
@@ -120,7 +146,7 @@ public class GerritCommand {
         }
 
         if (auth == null) {
-            auth = new Authentication(config.getSshPrivateKey(), config.getSshUsername());
+            auth = new Authentication(server.getSshPrivateKey(), server.getSshUsername());
         }
 
         return auth;
@@ -129,6 +155,7 @@ public class GerritCommand {
     private boolean runCommand(SshConnection ssh, String command) throws IOException {
         boolean success = false;
         ChannelExec channel = null;
+        long start = GerritMetrics.getInstance().startCall();
 
         log.info("Running command: " + command);
 
@@ -164,7 +191,11 @@ public class GerritCommand {
             success = exitStatus == 0;
             log.info("Command exit status: " + exitStatus + ", success=" + success);
         } finally {
-            channel.disconnect();
+            GerritMetrics.getInstance().endReview(false, start, success);
+
+            if (channel != null) {
+                channel.disconnect();
+            }
         }
 
         return success;
@@ -49,6 +49,26 @@ public interface GerritConfiguration {
     long DEFAULT_CACHE_TIMEOUT = 30000;
     String FIELD_CACHE_TIMEOUT = "cacheTimeout";
 
+    String FIELD_GERRIT_SERVERS = "gerritServers";
+
+    int DEFAULT_REQUEST_QUERY_THRESHOLD = 10;
+    String FIELD_REQUEST_QUERY_THRESHOLD = "requestQueryThreshold";
+
+    int DEFAULT_PREFETCH_INTERVAL = 0;
+    String FIELD_PREFETCH_INTERVAL = "prefetchInterval";
+
+    int DEFAULT_CACHE_MEMORY = 4096;
+    String FIELD_CACHE_MEMORY = "cacheMemory";
+
+    int DEFAULT_CACHE_JITTER = 10;
+    String FIELD_CACHE_JITTER = "cacheJitter";
+
+    int DEFAULT_OFF_HEAP_CACHE_MEMORY = 0;
+    String FIELD_OFF_HEAP_CACHE_MEMORY = "offHeapCacheMemory";
+
+    int DEFAULT_CACHE_RETENTION = 10;
+    String FIELD_CACHE_RETENTION = "cacheRetention";
+
     String getConnectionType();
 
     URI getHttpBaseUrl();
@@ -101,12 +121,88 @@ public interface GerritConfiguration {
 
     void setCacheTimeout(long cacheTimeout);
 
+    /**
+     * @return the number of Gerrit calls a single page request may make before it is reported;
+     *         0 to never report
+     */
+    int getRequestQueryThreshold();
+
+    void setRequestQueryThreshold(int threshold);
+
+    /**
+     * @return the number of seconds between loading the reviews of each known Gerrit project with
+     *         the project search query; 0 to never do it
+     */
+    int getPrefetchInterval();
+
+    void setPrefetchInterval(int seconds);
+
+    /**
+     * @return the estimated memory, in kilobytes, the cached reviews may take on each node
+     */
+    int getCacheMemory();
+
+    void setCacheMemory(int kilobytes);
+
+    /**
+     * @return up to how much shorter than the cache period, in percent, each cache entry may
+     *         live, so that entries loaded together don't all expire together
+     */
+    int getCacheJitter();
+
+    void setCacheJitter(int percent);
+
+    /**
+     * @return the memory, in megabytes, that reviews pushed out of the cache may take outside of
+     *         the heap until they're needed again; 0 if they're simply dropped
+     */
+    int getOffHeapCacheMemory();
+
+    void setOffHeapCacheMemory(int megabytes);
+
+    /**
+     * @return how long, in minutes after they were loaded, reviews that left the cache may still
+     *         be used, e.g. after a restart; once back in the cache, they expire as usual
+     */
+    int getCacheRetention();
+
+    void setCacheRetention(int minutes);
+
     boolean isSshValid();
 
     boolean isHttpValid();
 
     boolean isGerritProject(final Issue issue);
 
+    /**
+     * @param projectId the JIRA project id
+     * @return whether the project is on the whitelist of projects that use Gerrit
+     */
+    boolean isGerritProject(long projectId);
+
+    /**
+     * @return the JSON configuration of the additional Gerrit servers, if any
+     * @see GerritServer#parseServers(String)
+     */
+    String getGerritServersConfig();
+
+    /**
+     * @param json the JSON configuration of the additional Gerrit servers
+     * @throws IllegalArgumentException if the configuration is not valid
+     */
+    void setGerritServersConfig(String json);
+
+    /**
+     * @return every configured Gerrit server, starting with the default one
+     */
+    List<GerritServer> getServers();
+
+    /**
+     * @param projectKey the JIRA project key
+     * @return the Gerrit servers that may hold reviews for issues in the project
+     */
+    List<GerritServer> getServersForProject(String projectKey);
+
     List<String> getIdsOfKnownGerritProjects();
     void setIdsOfKnownGerritProjects(List<String> idsOfSelectedGerritProjects);
 
@@ -16,15 +16,13 @@ package com.meetme.plugins.jira.gerrit.data;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
-import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import com.sonymobile.tools.gerrit.gerritevents.GerritDefaultValues;
 
 import java.io.File;
 import java.net.URI;
 import java.util.List;
-
-import static org.apache.commons.collections.CollectionUtils.isEmpty;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * {@link GerritConfiguration} implementation that uses {@link PluginSettings} to store
@@ -34,196 +32,324 @@ import static org.apache.commons.collections.CollectionUtils.isEmpty;
  */
 public class GerritConfigurationImpl implements GerritConfiguration {
     private static final String PLUGIN_STORAGE_KEY = "com.meetme.plugins.jira.gerrit.data";
+
+    /**
+     * Max number of milliseconds a snapshot is used for, so that changes made on another cluster
+     * node, or to the private key file, are eventually picked up: 1 minute
+     */
+    private static final long SNAPSHOT_MAX_AGE = 60000;
+
     private final PluginSettings settings;
 
+    /** Incremented on every change, so that snapshots loaded concurrently with a change are discarded */
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<GerritConfigurationSnapshot> snapshot = new AtomicReference<>();
+
     public GerritConfigurationImpl(PluginSettingsFactory pluginSettingsFactory) {
         this.settings = pluginSettingsFactory.createSettingsForKey(PLUGIN_STORAGE_KEY);
     }
 
+    /**
+     * Returns the current configuration snapshot, loading it from {@link PluginSettings} only if
+     * it was changed (or is too old). Reading an up-to-date snapshot doesn't lock.
+     */
+    GerritConfigurationSnapshot getSnapshot() {
+        GerritConfigurationSnapshot current = snapshot.get();
+
+        if (current != null && !current.isOlderThan(SNAPSHOT_MAX_AGE)) {
+            return current;
+        }
+
+        long loadingVersion = version.get();
+        GerritConfigurationSnapshot loaded = new GerritConfigurationSnapshot(settings, loadingVersion);
+
+        if (snapshot.compareAndSet(current, loaded) && version.get() != loadingVersion) {
+            // Changed while loading; don't keep serving what might be a half-saved configuration
+            snapshot.compareAndSet(loaded, null);
+        }
+
+        return loaded;
+    }
+
+    private void invalidate() {
+        version.incrementAndGet();
+        snapshot.set(null);
+    }
+
     @Override
     public String getConnectionType() {
-        return (String) settings.get(FIELD_CONNECTION_TYPE);
+        return getSnapshot().getConnectionType();
     }
 
     @Override
     public void setConnectionType(String connectionType) {
         settings.put(FIELD_CONNECTION_TYPE, connectionType);
+        invalidate();
     }
 
     @Override
     public URI getHttpBaseUrl() {
-        String uri = (String) settings.get(FIELD_HTTP_BASE_URL);
-        return uri == null ? null : URI.create(uri);
+        return getSnapshot().getHttpBaseUrl();
     }
 
     @Override
     public void setHttpBaseUrl(String httpBaseUrl) {
         settings.put(FIELD_HTTP_BASE_URL, httpBaseUrl == null ? null : URI.create(httpBaseUrl).toASCIIString());
+        invalidate();
     }
 
     @Override
     public String getHttpPassword() {
-        return (String) settings.get(FIELD_HTTP_PASSWORD);
+        return getSnapshot().getHttpPassword();
     }
 
     @Override
     public void setHttpPassword(String httpPassword) {
         settings.put(FIELD_HTTP_PASSWORD, httpPassword);
+        invalidate();
     }
 
     @Override
     public String getHttpUsername() {
-        return (String) settings.get(FIELD_HTTP_USERNAME);
+        return getSnapshot().getHttpUsername();
     }
 
     @Override
     public void setHttpUsername(String httpUsername) {
         settings.put(FIELD_HTTP_USERNAME, httpUsername);
+        invalidate();
     }
 
     @Override
     public String getIssueSearchQuery() {
-        String query = (String) settings.get(FIELD_QUERY_ISSUE);
-        return query == null ? DEFAULT_QUERY_ISSUE : query;
+        return getSnapshot().getIssueSearchQuery();
     }
 
     @Override
     public void setIssueSearchQuery(String query) {
         settings.put(FIELD_QUERY_ISSUE, query);
+        invalidate();
     }
 
     @Override
     public String getProjectSearchQuery() {
-        String query = (String) settings.get(FIELD_QUERY_PROJECT);
-        return query == null ? DEFAULT_QUERY_PROJECT : query;
+        return getSnapshot().getProjectSearchQuery();
     }
 
     @Override
     public void setProjectSearchQuery(String query) {
         settings.put(FIELD_QUERY_PROJECT, query);
+        invalidate();
     }
 
     @Override
     public String getSshHostname() {
-        return (String) settings.get(FIELD_SSH_HOSTNAME);
+        return getSnapshot().getSshHostname();
     }
 
     @Override
     public void setSshHostname(String hostname) {
         settings.put(FIELD_SSH_HOSTNAME, hostname);
+        invalidate();
     }
 
     @Override
     public int getSshPort() {
-        String port = (String) settings.get(FIELD_SSH_PORT);
-        return port == null ? DEFAULT_SSH_PORT : Integer.parseInt(port);
+        return getSnapshot().getSshPort();
     }
 
     @Override
     public void setSshPort(int port) {
         settings.put(FIELD_SSH_PORT, Integer.toString(port));
+        invalidate();
     }
 
     @Override
     public File getSshPrivateKey() {
-        String path = (String) settings.get(FIELD_SSH_PRIVATE_KEY);
-        return path == null ? null : new File(path);
+        return getSnapshot().getSshPrivateKey();
     }
 
     @Override
     public void setSshPrivateKey(File sshPrivateKey) {
         settings.put(FIELD_SSH_PRIVATE_KEY, sshPrivateKey == null ? null : sshPrivateKey.getPath());
+        invalidate();
     }
 
     @Override
     public String getSshUsername() {
-        return (String) settings.get(FIELD_SSH_USERNAME);
+        return getSnapshot().getSshUsername();
     }
 
     @Override
     public void setSshUsername(String username) {
         settings.put(FIELD_SSH_USERNAME, username);
+        invalidate();
     }
 
     @Override
     public int getConnectionTimeout() {
-        String timeout = (String) settings.get(FIELD_SSH_TIMEOUT);
-        return timeout == null ? DEFAULT_SSH_TIMEOUT : Integer.parseInt(timeout);
+        return getSnapshot().getConnectionTimeout();
     }
 
     @Override
     public void setConnectionTimeout(int connectionTimeout) {
         settings.put(FIELD_SSH_TIMEOUT, connectionTimeout < 0 ? GerritDefaultValues.DEFAULT_GERRIT_SSH_CONNECTION_TIMEOUT : Integer.toString(connectionTimeout));
+        invalidate();
     }
 
     @Override
     public long getCacheTimeout() {
-        String timeout = (String) settings.get(FIELD_CACHE_TIMEOUT);
-        return timeout == null ? DEFAULT_CACHE_TIMEOUT : Integer.parseInt(timeout);
+        return getSnapshot().getCacheTimeout();
     }
 
     @Override
     public void setCacheTimeout(long cacheTimeout) {
         settings.put(FIELD_CACHE_TIMEOUT, cacheTimeout < 0 ? DEFAULT_CACHE_TIMEOUT : Long.toString(cacheTimeout));
+        invalidate();
+    }
+
+
+    @Override
+    public int getRequestQueryThreshold() {
+        return getSnapshot().getRequestQueryThreshold();
+    }
+
+    @Override
+    public void setRequestQueryThreshold(int threshold) {
+        settings.put(FIELD_REQUEST_QUERY_THRESHOLD, Integer.toString(threshold < 0 ? DEFAULT_REQUEST_QUERY_THRESHOLD : threshold));
+        invalidate();
+    }
+
+    @Override
+    public int getPrefetchInterval() {
+        return getSnapshot().getPrefetchInterval();
+    }
+
+    @Override
+    public void setPrefetchInterval(int seconds) {
+        settings.put(FIELD_PREFETCH_INTERVAL, Integer.toString(seconds < 0 ? DEFAULT_PREFETCH_INTERVAL : seconds));
+        invalidate();
+    }
+
+    @Override
+    public int getCacheMemory() {
+        return getSnapshot().getCacheMemory();
+    }
+
+    @Override
+    public void setCacheMemory(int kilobytes) {
+        settings.put(FIELD_CACHE_MEMORY, Integer.toString(kilobytes <= 0 ? DEFAULT_CACHE_MEMORY : kilobytes));
+        invalidate();
     }
 
+    @Override
+    public int getCacheJitter() {
+        return getSnapshot().getCacheJitter();
+    }
+
+    @Override
+    public void setCacheJitter(int percent) {
+        settings.put(FIELD_CACHE_JITTER, Integer.toString(percent < 0 || percent > 100 ? DEFAULT_CACHE_JITTER : percent));
+        invalidate();
+    }
+
+    @Override
+    public int getOffHeapCacheMemory() {
+        return getSnapshot().getOffHeapCacheMemory();
+    }
+
+    @Override
+    public void setOffHeapCacheMemory(int megabytes) {
+        settings.put(FIELD_OFF_HEAP_CACHE_MEMORY, Integer.toString(megabytes < 0 ? DEFAULT_OFF_HEAP_CACHE_MEMORY : megabytes));
+        invalidate();
+    }
+
+    @Override
+    public int getCacheRetention() {
+        return getSnapshot().getCacheRetention();
+    }
+
+    @Override
+    public void setCacheRetention(int minutes) {
+        settings.put(FIELD_CACHE_RETENTION, Integer.toString(minutes < 0 ? DEFAULT_CACHE_RETENTION : minutes));
+        invalidate();
+    }
 
     @Override
     public boolean getShowsEmptyPanel() {
-        String shows = (String) settings.get(FIELD_SHOW_EMPTY_PANEL);
-        // if not already set, defaults to true
-        return shows == null || "true".equals(shows);
+        return getSnapshot().getShowsEmptyPanel();
     }
 
     @Override
     public void setShowEmptyPanel(boolean show) {
         settings.put(FIELD_SHOW_EMPTY_PANEL, String.valueOf(show));
+        invalidate();
     }
 
     @Override
     public boolean isSshValid() {
-        return !Strings.isNullOrEmpty(getSshHostname())
-                && !Strings.isNullOrEmpty(getSshUsername())
-                && getSshPrivateKey() != null
-                && getSshPrivateKey().exists();
+        return getSnapshot().isSshValid();
     }
 
     @Override
     public boolean isHttpValid() {
-        boolean username = Strings.isNullOrEmpty(getHttpUsername());
-        boolean password = Strings.isNullOrEmpty(getHttpPassword());
-        return (username && password) || (!username && !password);
+        return getSnapshot().isHttpValid();
     }
 
     @Override
     public boolean isGerritProject(final Issue issue) {
-        return issue.getProjectId() != null && !isEmpty(getIdsOfKnownGerritProjects()) && getIdsOfKnownGerritProjects().contains(issue.getProjectId().toString());
+        Long projectId = issue.getProjectId();
+        return projectId != null && isGerritProject(projectId.longValue());
+    }
+
+    @Override
+    public boolean isGerritProject(long projectId) {
+        return getSnapshot().isGerritProject(projectId);
+    }
+
+    @Override
+    public String getGerritServersConfig() {
+        return getSnapshot().getGerritServersConfig();
+    }
+
+    @Override
+    public void setGerritServersConfig(String json) {
+        // Fail before saving anything that can't be used
+        GerritServer.parseServers(json);
+        settings.put(FIELD_GERRIT_SERVERS, json == null || json.trim().isEmpty() ? null : json.trim());
+        invalidate();
+    }
+
+    @Override
+    public List<GerritServer> getServers() {
+        return getSnapshot().getServers();
+    }
+
+    @Override
+    public List<GerritServer> getServersForProject(String projectKey) {
+        return getSnapshot().getServersForProject(projectKey);
     }
 
     @Override
     public List<String> getIdsOfKnownGerritProjects() {
-        List<String> idsOfKnownGerritProjects = (List) settings.get(FIELD_KNOWN_GERRIT_PROJECTS);
-        return idsOfKnownGerritProjects != null ? idsOfKnownGerritProjects : Lists.newArrayList();
+        return getSnapshot().getIdsOfKnownGerritProjects();
     }
 
     @Override
     public void setIdsOfKnownGerritProjects(final List<String> idsOfSelectedGerritProjects) {
         settings.put(FIELD_KNOWN_GERRIT_PROJECTS, idsOfSelectedGerritProjects);
+        invalidate();
     }
 
     @Override
     public boolean getUseGerritProjectWhitelist() {
-        String useGerritProjectWhitelist = (String) settings.get(FIELD_USE_GERRIT_PROJECT_WHITELIST);
-        // Defaults to the behavior without whitelist:
-        if (useGerritProjectWhitelist == null || useGerritProjectWhitelist.isEmpty()){
-            return false;
-        }
-        return "true".equals(useGerritProjectWhitelist);
+        return getSnapshot().getUseGerritProjectWhitelist();
     }
 
     @Override
     public void setUseGerritProjectWhitelist(boolean useGerritProjectWhitelist) {
         settings.put(FIELD_USE_GERRIT_PROJECT_WHITELIST, String.valueOf(useGerritProjectWhitelist));
+        invalidate();
     }
 
     @Override
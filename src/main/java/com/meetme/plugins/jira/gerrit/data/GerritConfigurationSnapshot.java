@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+import static com.meetme.plugins.jira.gerrit.data.GerritConfiguration.*;
+
+/**
+ * Immutable copy of every {@link GerritConfiguration} value, read from {@link PluginSettings} in
+ * one go. Derived values (such as whether the SSH private key exists) are computed once per
+ * snapshot, rather than on every call.
+ */
+final class GerritConfigurationSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(GerritConfigurationSnapshot.class);
+
+    private final long version;
+    private final long loadedAt;
+
+    private final String connectionType;
+    private final URI httpBaseUrl;
+    private final String httpUsername;
+    private final String httpPassword;
+    private final String issueSearchQuery;
+    private final String projectSearchQuery;
+    private final String sshHostname;
+    private final int sshPort;
+    private final File sshPrivateKey;
+    private final String sshUsername;
+    private final int connectionTimeout;
+    private final long cacheTimeout;
+    private final int requestQueryThreshold;
+    private final int prefetchInterval;
+    private final int cacheMemory;
+    private final int cacheJitter;
+    private final int offHeapCacheMemory;
+    private final int cacheRetention;
+    private final boolean showsEmptyPanel;
+    private final List<String> idsOfKnownGerritProjects;
+    private final LongHashSet knownGerritProjects;
+    private final boolean useGerritProjectWhitelist;
+    private final String gerritServersConfig;
+    private final List<GerritServer> servers;
+
+    private final boolean sshValid;
+    private final boolean httpValid;
+
+    @SuppressWarnings("unchecked")
+    GerritConfigurationSnapshot(PluginSettings settings, long version) {
+        this.version = version;
+        this.loadedAt = System.currentTimeMillis();
+
+        connectionType = (String) settings.get(FIELD_CONNECTION_TYPE);
+
+        String uri = (String) settings.get(FIELD_HTTP_BASE_URL);
+        httpBaseUrl = uri == null ? null : URI.create(uri);
+        httpUsername = (String) settings.get(FIELD_HTTP_USERNAME);
+        httpPassword = (String) settings.get(FIELD_HTTP_PASSWORD);
+
+        String query = (String) settings.get(FIELD_QUERY_ISSUE);
+        issueSearchQuery = query == null ? DEFAULT_QUERY_ISSUE : query;
+        query = (String) settings.get(FIELD_QUERY_PROJECT);
+        projectSearchQuery = query == null ? DEFAULT_QUERY_PROJECT : query;
+
+        sshHostname = (String) settings.get(FIELD_SSH_HOSTNAME);
+        String port = (String) settings.get(FIELD_SSH_PORT);
+        sshPort = port == null ? DEFAULT_SSH_PORT : Integer.parseInt(port);
+        String path = (String) settings.get(FIELD_SSH_PRIVATE_KEY);
+        sshPrivateKey = path == null ? null : new File(path);
+        sshUsername = (String) settings.get(FIELD_SSH_USERNAME);
+
+        String timeout = (String) settings.get(FIELD_SSH_TIMEOUT);
+        connectionTimeout = timeout == null ? DEFAULT_SSH_TIMEOUT : Integer.parseInt(timeout);
+        timeout = (String) settings.get(FIELD_CACHE_TIMEOUT);
+        cacheTimeout = timeout == null ? DEFAULT_CACHE_TIMEOUT : Integer.parseInt(timeout);
+        String threshold = (String) settings.get(FIELD_REQUEST_QUERY_THRESHOLD);
+        requestQueryThreshold = threshold == null ? DEFAULT_REQUEST_QUERY_THRESHOLD : Integer.parseInt(threshold);
+        String interval = (String) settings.get(FIELD_PREFETCH_INTERVAL);
+        prefetchInterval = interval == null ? DEFAULT_PREFETCH_INTERVAL : Integer.parseInt(interval);
+        String memory = (String) settings.get(FIELD_CACHE_MEMORY);
+        cacheMemory = memory == null ? DEFAULT_CACHE_MEMORY : Integer.parseInt(memory);
+        String jitter = (String) settings.get(FIELD_CACHE_JITTER);
+        cacheJitter = jitter == null ? DEFAULT_CACHE_JITTER : Integer.parseInt(jitter);
+        String offHeapMemory = (String) settings.get(FIELD_OFF_HEAP_CACHE_MEMORY);
+        offHeapCacheMemory = offHeapMemory == null ? DEFAULT_OFF_HEAP_CACHE_MEMORY : Integer.parseInt(offHeapMemory);
+        String retention = (String) settings.get(FIELD_CACHE_RETENTION);
+        cacheRetention = retention == null ? DEFAULT_CACHE_RETENTION : Integer.parseInt(retention);
+
+        String shows = (String) settings.get(FIELD_SHOW_EMPTY_PANEL);
+        // if not already set, defaults to true
+        showsEmptyPanel = shows == null || "true".equals(shows);
+
+        List<String> ids = (List<String>) settings.get(FIELD_KNOWN_GERRIT_PROJECTS);
+        idsOfKnownGerritProjects = ids == null ? ImmutableList.of() : ImmutableList.copyOf(ids);
+        knownGerritProjects = LongHashSet.ofStrings(idsOfKnownGerritProjects);
+
+        // Defaults to the behavior without whitelist
+        useGerritProjectWhitelist = "true".equals(settings.get(FIELD_USE_GERRIT_PROJECT_WHITELIST));
+
+        GerritServer defaultServer = new GerritServer(GerritServer.DEFAULT_NAME, connectionType, sshHostname, sshPort, sshUsername,
+                sshPrivateKey, connectionTimeout, httpBaseUrl, httpUsername, httpPassword, null);
+        sshValid = defaultServer.isSshValid();
+        httpValid = defaultServer.isHttpValid();
+
+        gerritServersConfig = (String) settings.get(FIELD_GERRIT_SERVERS);
+        servers = loadServers(defaultServer, gerritServersConfig);
+    }
+
+    private static List<GerritServer> loadServers(GerritServer defaultServer, String json) {
+        ImmutableList.Builder<GerritServer> builder = ImmutableList.<GerritServer>builder().add(defaultServer);
+
+        try {
+            builder.addAll(GerritServer.parseServers(json));
+        } catch (IllegalArgumentException e) {
+            // Validated when saved, so this only happens if the stored value was edited by hand
+            log.warn("Ignoring additional Gerrit servers: " + e.getMessage());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return the configuration version this snapshot was loaded at
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return whether the snapshot was loaded more than {@code maxAge} milliseconds ago
+     */
+    boolean isOlderThan(long maxAge) {
+        return System.currentTimeMillis() - loadedAt > maxAge;
+    }
+
+    String getConnectionType() {
+        return connectionType;
+    }
+
+    URI getHttpBaseUrl() {
+        return httpBaseUrl;
+    }
+
+    String getHttpUsername() {
+        return httpUsername;
+    }
+
+    String getHttpPassword() {
+        return httpPassword;
+    }
+
+    String getIssueSearchQuery() {
+        return issueSearchQuery;
+    }
+
+    String getProjectSearchQuery() {
+        return projectSearchQuery;
+    }
+
+    String getSshHostname() {
+        return sshHostname;
+    }
+
+    int getSshPort() {
+        return sshPort;
+    }
+
+    File getSshPrivateKey() {
+        return sshPrivateKey;
+    }
+
+    String getSshUsername() {
+        return sshUsername;
+    }
+
+    int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    long getCacheTimeout() {
+        return cacheTimeout;
+    }
+
+    int getRequestQueryThreshold() {
+        return requestQueryThreshold;
+    }
+
+    int getPrefetchInterval() {
+        return prefetchInterval;
+    }
+
+    int getCacheMemory() {
+        return cacheMemory;
+    }
+
+    int getCacheJitter() {
+        return cacheJitter;
+    }
+
+    int getOffHeapCacheMemory() {
+        return offHeapCacheMemory;
+    }
+
+    int getCacheRetention() {
+        return cacheRetention;
+    }
+
+    boolean getShowsEmptyPanel() {
+        return showsEmptyPanel;
+    }
+
+    List<String> getIdsOfKnownGerritProjects() {
+        return idsOfKnownGerritProjects;
+    }
+
+    boolean isGerritProject(long projectId) {
+        return knownGerritProjects.contains(projectId);
+    }
+
+    boolean getUseGerritProjectWhitelist() {
+        return useGerritProjectWhitelist;
+    }
+
+    String getGerritServersConfig() {
+        return gerritServersConfig;
+    }
+
+    List<GerritServer> getServers() {
+        return servers;
+    }
+
+    List<GerritServer> getServersForProject(String projectKey) {
+        if (servers.size() == 1) {
+            return servers;
+        }
+
+        ImmutableList.Builder<GerritServer> builder = ImmutableList.builder();
+
+        for (GerritServer server : servers) {
+            if (server.servesProject(projectKey)) {
+                builder.add(server);
+            }
+        }
+
+        return builder.build();
+    }
+
+    boolean isSshValid() {
+        return sshValid;
+    }
+
+    boolean isHttpValid() {
+        return httpValid;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.google.common.base.Strings;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs Gerrit reviews over the REST API (<tt>POST /changes/{id}/revisions/{rev}/review</tt>),
+ * for installations that only configure HTTP access.
+ * <p>
+ * Requests go through {@link HttpURLConnection}, which keeps idle connections to the Gerrit host
+ * alive and reuses them across requests, as long as every response body is fully consumed.
+ */
+public class GerritHttpCommand {
+    private static final Logger log = LoggerFactory.getLogger(GerritHttpCommand.class);
+
+    /** Max number of changes reviewed concurrently */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /** Used when no connection timeout has been configured */
+    private static final int DEFAULT_TIMEOUT = 30000;
+
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+
+    /** Posts reviews for several changes at once; created when first needed */
+    private static ThreadPoolExecutor executor;
+
+    private final GerritServer server;
+
+    public GerritHttpCommand(GerritServer server) {
+        this.server = server;
+    }
+
+    public boolean doReview(GerritChange change, String args) throws IOException {
+        return doReview(change, GerritReviewInput.parse(args));
+    }
+
+    public boolean doReviews(List<GerritChange> changes, String args) throws IOException {
+        final GerritReviewInput input = GerritReviewInput.parse(args);
+
+        if (!input.getUnsupportedArgs().isEmpty()) {
+            log.warn("Ignoring arguments not supported over HTTP: " + input.getUnsupportedArgs());
+        }
+
+        List<Future<Boolean>> results = new ArrayList<>(changes.size());
+        ThreadPoolExecutor pool = getExecutor();
+
+        try {
+            for (final GerritChange change : changes) {
+                results.add(pool.submit(() -> doReview(change, input)));
+            }
+        } catch (RejectedExecutionException e) {
+            cancel(results);
+            throw new IOException("Reviews were stopped with the plugin", e);
+        }
+
+        boolean success = true;
+        IOException failure = null;
+
+        for (Future<Boolean> result : results) {
+            try {
+                success &= result.get();
+            } catch (ExecutionException e) {
+                success = false;
+
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                // Nobody is waiting for the rest anymore, so don't post them
+                cancel(results);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for reviews to complete", e);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.trace("doReviews " + changes.size() + " -> success = " + success);
+        }
+        return success;
+    }
+
+    private boolean doReview(GerritChange change, GerritReviewInput input) throws IOException {
+        GerritMetrics metrics = GerritMetrics.getInstance();
+        long start = metrics.startCall();
+        boolean success = false;
+
+        try {
+            success = postReview(change, input);
+            return success;
+        } finally {
+            metrics.endReview(true, start, success);
+        }
+    }
+
+    private static void cancel(List<Future<Boolean>> results) {
+        for (Future<Boolean> result : results) {
+            result.cancel(true);
+        }
+    }
+
+    /**
+     * Posts the review in the same order as <tt>gerrit review</tt> over SSH: a closed change is
+     * restored before it can be scored, and only abandoned or submitted once it has been.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean postReview(GerritChange change, GerritReviewInput input) throws IOException {
+        final String changePath = "changes/" + change.getNumber();
+        boolean success = true;
+
+        if (input.isRestore()) {
+            success = post(changePath + "/restore", new JSONObject());
+        }
+
+        if (success && input.hasReview()) {
+            success = post(changePath + "/revisions/" + change.getPatchSet().getNumber() + "/review", input.toReviewJson());
+        }
+
+        if (success && input.isAbandon()) {
+            success = post(changePath + "/abandon", new JSONObject());
+        }
+
+        if (success && input.isSubmit()) {
+            success = post(changePath + "/submit", new JSONObject());
+        }
+
+        return success;
+    }
+
+    private boolean post(String path, JSONObject body) throws IOException {
+        HttpURLConnection connection = openConnection(server, "POST", path);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", CONTENT_TYPE_JSON);
+
+        byte[] payload = body.toString().getBytes(StandardCharsets.UTF_8);
+        connection.setFixedLengthStreamingMode(payload.length);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(payload);
+        }
+
+        int status = connection.getResponseCode();
+        boolean success = status >= 200 && status < 300;
+        InputStream in = success ? connection.getInputStream() : connection.getErrorStream();
+
+        if (in != null) {
+            // Always drain the response, so the connection can go back into the keep-alive pool
+            try {
+                String response = IOUtils.toString(in, StandardCharsets.UTF_8.name());
+
+                if (!success) {
+                    log.warn("Error: " + response.trim());
+                } else {
+                    log.trace("Response: " + response);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        log.info("Request status: " + status + ", success=" + success);
+        return success;
+    }
+
+    /**
+     * Opens a REST API request to the server, authenticated with its HTTP credentials (if any).
+     *
+     * @param server the Gerrit server
+     * @param method the HTTP method
+     * @param path the path of the REST endpoint, e.g. <tt>changes/?q=...</tt>
+     */
+    static HttpURLConnection openConnection(GerritServer server, String method, String path) throws IOException {
+        URL url = new URL(getBaseUrl(server) + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int timeout = server.getConnectionTimeout() > 0 ? server.getConnectionTimeout() : DEFAULT_TIMEOUT;
+
+        log.info("Running request: " + method + " " + url);
+
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setRequestProperty("Accept", "application/json");
+
+        String authorization = getAuthorization(server);
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+
+        return connection;
+    }
+
+    private static String getBaseUrl(GerritServer server) {
+        String baseUrl = server.getHttpBaseUrl().toString();
+
+        if (!baseUrl.endsWith("/")) {
+            baseUrl += "/";
+        }
+
+        // Authenticated REST endpoints live under the "/a/" prefix
+        return getAuthorization(server) == null ? baseUrl : baseUrl + "a/";
+    }
+
+    private static String getAuthorization(GerritServer server) {
+        String username = server.getHttpUsername();
+        String password = server.getHttpPassword();
+
+        if (Strings.isNullOrEmpty(username) || Strings.isNullOrEmpty(password)) {
+            return null;
+        }
+
+        byte[] credentials = (username + ':' + password).getBytes(StandardCharsets.UTF_8);
+        return "Basic " + Base64.getEncoder().encodeToString(credentials);
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = createExecutor();
+        }
+
+        return executor;
+    }
+
+    /**
+     * Stops posting reviews, dropping any that haven't started yet. Called when the plugin stops.
+     */
+    static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "gerrit-http-review-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        // Don't hold on to idle threads between workflow transitions
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
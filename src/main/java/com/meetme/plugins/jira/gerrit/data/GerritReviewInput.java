@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed form of the <tt>gerrit review</tt> command line arguments configured on the approval
+ * workflow function (e.g., "--verified 1 --submit"), so the same arguments can be sent either over
+ * SSH, or as a REST <tt>ReviewInput</tt> over HTTP.
+ */
+public class GerritReviewInput {
+    private final Map<String, Integer> labels = new LinkedHashMap<>();
+    private final List<String> unsupported = new ArrayList<>();
+    private String message;
+    private boolean submit;
+    private boolean abandon;
+    private boolean restore;
+
+    private GerritReviewInput() {
+    }
+
+    /**
+     * Parses the <tt>gerrit review</tt> arguments.
+     *
+     * @param args the command line arguments, as configured in the workflow function
+     * @return the parsed arguments
+     */
+    public static GerritReviewInput parse(String args) {
+        GerritReviewInput input = new GerritReviewInput();
+        List<String> tokens = tokenize(args);
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            String next = i + 1 < tokens.size() ? tokens.get(i + 1) : null;
+
+            switch (token) {
+                case "-s":
+                case "--submit":
+                    input.submit = true;
+                    break;
+                case "--abandon":
+                    input.abandon = true;
+                    break;
+                case "--restore":
+                    input.restore = true;
+                    break;
+                case "-m":
+                case "--message":
+                    input.message = next;
+                    i++;
+                    break;
+                case "-l":
+                case "--label":
+                    if (next != null && next.indexOf('=') > 0 && input.putLabel(next.substring(0, next.indexOf('=')),
+                            next.substring(next.indexOf('=') + 1))) {
+                        i++;
+                    } else {
+                        input.unsupported.add(token);
+                    }
+                    break;
+                default:
+                    // Older Gerrit versions accept "--<label-name> N" for every label, e.g. "--code-review +2"
+                    if (token.startsWith("--") && next != null && input.putLabel(toLabelName(token.substring(2)), next)) {
+                        i++;
+                    } else {
+                        input.unsupported.add(token);
+                    }
+                    break;
+            }
+        }
+
+        return input;
+    }
+
+    private boolean putLabel(String label, String value) {
+        try {
+            labels.put(label, Integer.parseInt(value.trim(), 10));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts a command line label option (e.g., "code-review") to the label name (e.g.,
+     * "Code-Review").
+     */
+    static String toLabelName(String option) {
+        StringBuilder sb = new StringBuilder(option.length());
+        boolean upper = true;
+
+        for (char c : option.toCharArray()) {
+            sb.append(upper ? Character.toUpperCase(c) : c);
+            upper = c == '-';
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Splits the arguments on whitespace, honoring single and double quotes (as the shell on the
+     * Gerrit side would).
+     */
+    static List<String> tokenize(String args) {
+        List<String> tokens = new ArrayList<>();
+
+        if (args == null) {
+            return tokens;
+        }
+
+        StringBuilder current = null;
+        char quote = 0;
+
+        for (int i = 0; i < args.length(); i++) {
+            char c = args.charAt(i);
+
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < args.length()) {
+                    current.append(args.charAt(++i));
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                if (current == null) {
+                    current = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (current != null) {
+                    tokens.add(current.toString());
+                    current = null;
+                }
+            } else {
+                if (current == null) {
+                    current = new StringBuilder();
+                }
+                current.append(c);
+            }
+        }
+
+        if (current != null) {
+            tokens.add(current.toString());
+        }
+
+        return tokens;
+    }
+
+    /**
+     * @return the requested label scores, keyed by label name
+     */
+    public Map<String, Integer> getLabels() {
+        return Collections.unmodifiableMap(labels);
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSubmit() {
+        return submit;
+    }
+
+    public boolean isAbandon() {
+        return abandon;
+    }
+
+    public boolean isRestore() {
+        return restore;
+    }
+
+    /**
+     * @return any arguments that could not be translated to a REST request
+     */
+    public List<String> getUnsupportedArgs() {
+        return Collections.unmodifiableList(unsupported);
+    }
+
+    /**
+     * @return whether there is anything to send in a <tt>/review</tt> request
+     */
+    public boolean hasReview() {
+        return !labels.isEmpty() || message != null;
+    }
+
+    /**
+     * Determines whether performing this review on the change would not change anything, based on
+     * the change's (cached) status and current patch set approvals.
+     *
+     * @param change the Gerrit change
+     * @param username the Gerrit username the review would be performed as, or {@code null} if
+     *            unknown
+     * @return {@code true} if the review can safely be skipped for this change
+     */
+    public boolean isNoOp(GerritChange change, String username) {
+        if (!unsupported.isEmpty()) {
+            // Can't tell what those arguments would do, so don't skip anything.
+            return false;
+        }
+
+        if (!change.isOpen()) {
+            // A merged or abandoned change can't be scored or submitted anymore, only restored.
+            return !restore;
+        }
+
+        if (submit || abandon || message != null) {
+            return false;
+        }
+
+        for (Map.Entry<String, Integer> label : labels.entrySet()) {
+            if (username == null || getCurrentScore(change, label.getKey(), username) != label.getValue()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the score that {@code username} currently gives to {@code label} on the change's
+     *         current patch set; 0 if there is none
+     */
+    private static int getCurrentScore(GerritChange change, String label, String username) {
+        GerritPatchSet patchSet = change.getPatchSet();
+
+        if (patchSet != null && patchSet.getApprovals() != null) {
+            for (GerritApproval approval : patchSet.getApprovals()) {
+                if (label.equals(approval.getType()) && approval.getBy() != null && username.equals(approval.getBy().getUsername())) {
+                    return approval.getValueAsInt();
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Builds the REST <tt>ReviewInput</tt> entity.
+     *
+     * @return the JSON request body for <tt>POST /changes/{id}/revisions/{rev}/review</tt>
+     */
+    public JSONObject toReviewJson() {
+        JSONObject json = new JSONObject();
+
+        if (message != null) {
+            json.element("message", message);
+        }
+
+        if (!labels.isEmpty()) {
+            JSONObject jsonLabels = new JSONObject();
+
+            for (Map.Entry<String, Integer> label : labels.entrySet()) {
+                jsonLabels.element(label.getKey(), label.getValue().intValue());
+            }
+
+            json.element("labels", jsonLabels);
+        }
+
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return "GerritReviewInput[labels=" + labels + ", message=" + message + ", submit=" + submit + ", abandon=" + abandon
+                + ", restore=" + restore + ", unsupported=" + unsupported + "]";
+    }
+}
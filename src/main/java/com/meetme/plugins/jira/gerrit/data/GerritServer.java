@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.meetme.plugins.jira.gerrit.data.GerritConfiguration.*;
+
+/**
+ * Connection settings of a single Gerrit server. The server configured on the main admin page is
+ * the {@link #DEFAULT_NAME default} one; additional servers are configured as a JSON array, e.g.:
+ *
+ * <pre>
+ * [{"name": "android", "connectionType": "http", "httpBaseUrl": "https://android-review.example.com/",
+ *   "projects": ["DROID", "TV"]}]
+ * </pre>
+ *
+ * Each additional server accepts the same keys as the main configuration ({@code sshHostname},
+ * {@code sshPort}, {@code sshUsername}, {@code sshPrivateKey} (a path), {@code sshTimeout},
+ * {@code httpBaseUrl}, {@code httpUsername}, {@code httpPassword}), plus an optional list of the
+ * JIRA project keys it is queried for. A server without projects is queried for every project.
+ */
+public final class GerritServer {
+    public static final String DEFAULT_NAME = "default";
+
+    public static final String FIELD_NAME = "name";
+    public static final String FIELD_PROJECTS = "projects";
+
+    private final String name;
+    private final String connectionType;
+    private final String sshHostname;
+    private final int sshPort;
+    private final String sshUsername;
+    private final File sshPrivateKey;
+    private final int connectionTimeout;
+    private final URI httpBaseUrl;
+    private final String httpUsername;
+    private final String httpPassword;
+    private final Set<String> projectKeys;
+
+    private final boolean sshValid;
+    private final boolean httpValid;
+
+    public GerritServer(String name, String connectionType, String sshHostname, int sshPort, String sshUsername, File sshPrivateKey,
+            int connectionTimeout, URI httpBaseUrl, String httpUsername, String httpPassword, Collection<String> projectKeys) {
+        this.name = name;
+        this.connectionType = connectionType == null ? GerritEventKeys.CONNECTION_TYPE_SSH : connectionType;
+        this.sshHostname = sshHostname;
+        this.sshPort = sshPort;
+        this.sshUsername = sshUsername;
+        this.sshPrivateKey = sshPrivateKey;
+        this.connectionTimeout = connectionTimeout;
+        this.httpBaseUrl = httpBaseUrl;
+        this.httpUsername = httpUsername;
+        this.httpPassword = httpPassword;
+        this.projectKeys = projectKeys == null ? ImmutableSet.of() : ImmutableSet.copyOf(projectKeys);
+
+        sshValid = !Strings.isNullOrEmpty(sshHostname)
+                && !Strings.isNullOrEmpty(sshUsername)
+                && sshPrivateKey != null
+                && sshPrivateKey.exists();
+        httpValid = Strings.isNullOrEmpty(httpUsername) == Strings.isNullOrEmpty(httpPassword);
+    }
+
+    /**
+     * Parses the additional servers configuration.
+     *
+     * @param json the JSON array of server objects
+     * @return the servers
+     * @throws IllegalArgumentException if the configuration is not valid
+     */
+    public static List<GerritServer> parseServers(String json) {
+        if (Strings.isNullOrEmpty(json) || json.trim().isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<GerritServer> servers = ImmutableList.builder();
+
+        try {
+            JSONArray array = JSONArray.fromObject(json.trim());
+
+            for (int i = 0; i < array.size(); i++) {
+                servers.add(fromJson(array.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid Gerrit servers configuration: " + e.getMessage(), e);
+        }
+
+        return servers.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GerritServer fromJson(JSONObject json) {
+        String name = json.optString(FIELD_NAME, null);
+
+        if (Strings.isNullOrEmpty(name) || DEFAULT_NAME.equals(name)) {
+            throw new IllegalArgumentException("Every additional Gerrit server needs a unique name other than '" + DEFAULT_NAME + "'");
+        }
+
+        String privateKey = json.optString(FIELD_SSH_PRIVATE_KEY, null);
+        String baseUrl = json.optString(FIELD_HTTP_BASE_URL, null);
+        JSONArray projects = json.optJSONArray(FIELD_PROJECTS);
+
+        return new GerritServer(name,
+                json.optString(FIELD_CONNECTION_TYPE, null),
+                json.optString(FIELD_SSH_HOSTNAME, null),
+                json.optInt(FIELD_SSH_PORT, DEFAULT_SSH_PORT),
+                json.optString(FIELD_SSH_USERNAME, null),
+                privateKey == null ? null : new File(privateKey),
+                json.optInt(FIELD_SSH_TIMEOUT, DEFAULT_SSH_TIMEOUT),
+                baseUrl == null ? null : URI.create(baseUrl),
+                json.optString(FIELD_HTTP_USERNAME, null),
+                json.optString(FIELD_HTTP_PASSWORD, null),
+                projects == null ? null : (Collection<String>) JSONArray.toCollection(projects, String.class));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDefault() {
+        return DEFAULT_NAME.equals(name);
+    }
+
+    public String getConnectionType() {
+        return connectionType;
+    }
+
+    public boolean isHttp() {
+        return GerritEventKeys.CONNECTION_TYPE_HTTP.equals(connectionType);
+    }
+
+    public String getSshHostname() {
+        return sshHostname;
+    }
+
+    public int getSshPort() {
+        return sshPort;
+    }
+
+    public String getSshUsername() {
+        return sshUsername;
+    }
+
+    public File getSshPrivateKey() {
+        return sshPrivateKey;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public URI getHttpBaseUrl() {
+        return httpBaseUrl;
+    }
+
+    public String getHttpUsername() {
+        return httpUsername;
+    }
+
+    public String getHttpPassword() {
+        return httpPassword;
+    }
+
+    /**
+     * @return the JIRA project keys this server is queried for; empty for all projects
+     */
+    public Set<String> getProjectKeys() {
+        return projectKeys;
+    }
+
+    /**
+     * @param projectKey the JIRA project key, or {@code null} if unknown
+     * @return whether reviews for issues in the project may live on this server
+     */
+    public boolean servesProject(String projectKey) {
+        return projectKeys.isEmpty() || projectKey == null || projectKeys.contains(projectKey);
+    }
+
+    public boolean isSshValid() {
+        return sshValid;
+    }
+
+    public boolean isHttpValid() {
+        return httpValid;
+    }
+
+    /**
+     * Returns the key under which reviews from this server are cached for an issue, so that each
+     * server has its own partition of the cache. The default server keeps using the bare issue key.
+     *
+     * @param issueKey the JIRA issue key
+     * @return the cache key
+     */
+    public String getCacheKey(String issueKey) {
+        return isDefault() ? issueKey : name + '|' + issueKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        GerritServer that = (GerritServer) o;
+        return sshPort == that.sshPort
+                && connectionTimeout == that.connectionTimeout
+                && Objects.equals(name, that.name)
+                && Objects.equals(connectionType, that.connectionType)
+                && Objects.equals(sshHostname, that.sshHostname)
+                && Objects.equals(sshUsername, that.sshUsername)
+                && Objects.equals(sshPrivateKey, that.sshPrivateKey)
+                && Objects.equals(httpBaseUrl, that.httpBaseUrl)
+                && Objects.equals(httpUsername, that.httpUsername)
+                && Objects.equals(httpPassword, that.httpPassword)
+                && projectKeys.equals(that.projectKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, connectionType, sshHostname, sshPort, httpBaseUrl);
+    }
+
+    @Override
+    public String toString() {
+        return "GerritServer[" + name + ", " + connectionType + ", ssh://" + sshUsername + "@" + sshHostname + ":" + sshPort + "/, "
+                + httpBaseUrl + "]";
+    }
+}
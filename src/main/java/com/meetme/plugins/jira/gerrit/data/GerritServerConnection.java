@@ -0,0 +1,217 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryHandlerWithPersistedConnection;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
+import com.sonymobile.tools.gerrit.gerritevents.ssh.SshException;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queries a single {@link GerritServer}, keeping its SSH connection open between queries.
+ * <p>
+ * Each server has its own {@link CircuitBreaker}, so a server that is down only fails fast
+ * instead of holding up the results from the other servers.
+ */
+public class GerritServerConnection {
+    private static final Logger log = LoggerFactory.getLogger(GerritServerConnection.class);
+
+    /** Consecutive failures after which the server is no longer queried for a while */
+    private static final int FAILURE_THRESHOLD = 3;
+
+    /** How long a failing server is skipped for: 30 seconds */
+    private static final long OPEN_MILLIS = 30000;
+
+    /** Prefix of every REST API response, against cross-site script inclusion */
+    private static final String XSSI_PREFIX = ")]}'";
+
+    private final GerritServer server;
+    private final CircuitBreaker circuitBreaker;
+
+    private GerritQueryHandlerWithPersistedConnection queryHandler;
+
+    public GerritServerConnection(GerritServer server) {
+        this(server, new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS));
+    }
+
+    GerritServerConnection(GerritServer server, CircuitBreaker circuitBreaker) {
+        this.server = server;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public GerritServer getServer() {
+        return server;
+    }
+
+    /**
+     * @return whether queries are currently being refused because the server kept failing
+     */
+    public boolean isUnavailable() {
+        return circuitBreaker.isOpen();
+    }
+
+    /**
+     * Runs the query over the server's connection type, without commit messages where it can.
+     *
+     * @see #query(String, boolean, boolean)
+     */
+    public List<JSONObject> query(String searchQuery, boolean withDetails) throws GerritQueryException {
+        return query(searchQuery, withDetails, false);
+    }
+
+    /**
+     * Runs the query over the server's connection type.
+     * <p>
+     * Over SSH, <tt>gerrit query</tt> always includes the commit message, so
+     * <tt>withCommitMessage</tt> only makes a difference over HTTP.
+     *
+     * @param searchQuery the Gerrit query
+     * @param withDetails whether to include the current patch set and its approvals
+     * @param withCommitMessage whether to include the current patch set's commit message
+     * @return the raw query results, including the trailing stats row (if any)
+     * @throws GerritQueryException If any failure occurs while querying the Gerrit server, or if
+     *             the server is skipped because it kept failing.
+     */
+    public List<JSONObject> query(String searchQuery, boolean withDetails, boolean withCommitMessage) throws GerritQueryException {
+        if (server.isHttp() ? !server.isHttpValid() || server.getHttpBaseUrl() == null : !server.isSshValid()) {
+            throw new GerritConfiguration.NotConfiguredException("Gerrit server '" + server.getName() + "' is not configured for "
+                    + server.getConnectionType() + " access");
+        }
+
+        if (!circuitBreaker.allowRequest()) {
+            throw new GerritQueryException("Gerrit server '" + server.getName() + "' is unavailable; not querying it for a while.");
+        }
+
+        GerritMetrics metrics = GerritMetrics.getInstance();
+        long start = metrics.startCall();
+        boolean success = false;
+
+        try {
+            List<JSONObject> results = server.isHttp() ? queryHttp(searchQuery, withDetails, withCommitMessage)
+                    : querySsh(searchQuery, withDetails);
+            circuitBreaker.recordSuccess();
+            success = true;
+            return results;
+        } catch (GerritQueryException | RuntimeException e) {
+            circuitBreaker.recordFailure();
+
+            if (circuitBreaker.isOpen()) {
+                log.warn("Gerrit server '" + server.getName() + "' keeps failing, skipping it for " + OPEN_MILLIS + " ms: " + e.getMessage());
+            }
+
+            throw e;
+        } finally {
+            metrics.endQuery(server.isHttp(), start, success);
+        }
+    }
+
+    private List<JSONObject> querySsh(String searchQuery, boolean withDetails) throws GerritQueryException {
+        try {
+            return getQueryHandlerSsh().queryJava(searchQuery, false, withDetails, false);
+        } catch (SshException e) {
+            throw new GerritQueryException("An ssh error occurred while querying for reviews.", e);
+        } catch (IOException e) {
+            throw new GerritQueryException("An error occurred while querying for reviews.", e);
+        }
+    }
+
+    /**
+     * Queries <tt>GET /changes/</tt>, asking only for what the caller needs: the current revision
+     * and everyone's votes on it for details, and its commit only when that is asked for too.
+     */
+    private List<JSONObject> queryHttp(String searchQuery, boolean withDetails, boolean withCommitMessage)
+            throws GerritQueryException {
+        try {
+            StringBuilder path = new StringBuilder("changes/?q=").append(URLEncoder.encode(searchQuery, StandardCharsets.UTF_8.name()));
+
+            if (withDetails) {
+                path.append("&o=CURRENT_REVISION&o=DETAILED_LABELS&o=DETAILED_ACCOUNTS");
+
+                if (withCommitMessage) {
+                    path.append("&o=CURRENT_COMMIT");
+                }
+            }
+
+            HttpURLConnection connection = GerritHttpCommand.openConnection(server, "GET", path.toString());
+            int status = connection.getResponseCode();
+            boolean success = status >= 200 && status < 300;
+            InputStream in = success ? connection.getInputStream() : connection.getErrorStream();
+            String response = "";
+
+            if (in != null) {
+                // Always drain the response, so the connection can go back into the keep-alive pool
+                try {
+                    response = IOUtils.toString(in, StandardCharsets.UTF_8.name());
+                } finally {
+                    in.close();
+                }
+            }
+
+            if (!success) {
+                throw new GerritQueryException("Gerrit responded with status " + status + " to the query: " + response.trim());
+            }
+
+            if (response.startsWith(XSSI_PREFIX)) {
+                response = response.substring(XSSI_PREFIX.length());
+            }
+
+            JSONArray changes = JSONArray.fromObject(response.trim());
+            List<JSONObject> results = new ArrayList<>(changes.size());
+
+            for (int i = 0; i < changes.size(); i++) {
+                results.add(changes.getJSONObject(i));
+            }
+
+            return results;
+        } catch (IOException | JSONException e) {
+            throw new GerritQueryException("An error occurred while querying for reviews.", e);
+        }
+    }
+
+    private synchronized GerritQueryHandlerWithPersistedConnection getQueryHandlerSsh() {
+        if (queryHandler == null) {
+            Authentication auth = new Authentication(server.getSshPrivateKey(), server.getSshUsername());
+            queryHandler = new GerritQueryHandlerWithPersistedConnection(server.getSshHostname(), server.getSshPort(), null, auth,
+                    server.getConnectionTimeout());
+            log.debug("QueryHandler with a fresh SSH connection was created for " + server.getName());
+        }
+
+        return queryHandler;
+    }
+
+    /**
+     * Closes the SSH connection, if any; called when the server's configuration changed.
+     */
+    public synchronized void disconnect() {
+        if (queryHandler != null) {
+            queryHandler.disconnect();
+            queryHandler = null;
+        }
+    }
+}
@@ -1,51 +1,833 @@
 package com.meetme.plugins.jira.gerrit.data;
 
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.metrics.CacheStats;
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
+import static com.meetme.plugins.jira.gerrit.data.GerritConfiguration.DEFAULT_CACHE_JITTER;
+import static com.meetme.plugins.jira.gerrit.data.GerritConfiguration.DEFAULT_CACHE_MEMORY;
+import static com.meetme.plugins.jira.gerrit.data.GerritConfiguration.DEFAULT_CACHE_RETENTION;
 import static com.meetme.plugins.jira.gerrit.data.GerritConfiguration.DEFAULT_CACHE_TIMEOUT;
 
 /**
  * Created by jhansche on 9/2/16.
  */
 class IssueReviewsCache {
-    /** Max number of items to retain in the cache */
-    private static final int CACHE_CAPACITY = 30;
+    /** Estimated memory of a reviews entry besides its changes: the key, map entries, timestamp and list */
+    private static final int ENTRY_OVERHEAD = 200;
 
-    /** Number of milliseconds an item may stay in cache: 30 seconds */
+    /** Estimated memory of a commit message entry besides its characters */
+    private static final int COMMIT_MESSAGE_OVERHEAD = 120;
+
+    /** Memory the commit messages of the cached changes may take: 1 MB */
+    private static final long COMMIT_MESSAGE_MEMORY = 1024L * 1024;
+
+    /** Max number of review existence answers to retain; they are tiny, so keep more of them */
+    private static final int EXISTENCE_CACHE_CAPACITY = 500;
+
+    /** Number of milliseconds an item may stay in cache, until it is configured: 30 seconds */
     private static final long CACHE_EXPIRATION = DEFAULT_CACHE_TIMEOUT;
 
+    /** The {@link GerritConfiguration#getCacheTimeout() cache period}, in milliseconds */
+    private static volatile long expiration = CACHE_EXPIRATION;
+
+    /**
+     * The {@link GerritConfiguration#getCacheRetention() retention}, in milliseconds: how long
+     * after they were loaded entries restored from a snapshot or the off-heap tier may still be
+     * used
+     */
+    private static volatile long retention = TimeUnit.MINUTES.toMillis(DEFAULT_CACHE_RETENTION);
+
+    /** The changes the {@link #reviews} refer to, each kept once however many issues mention it */
+    private static final ChangeStore changeStore = new ChangeStore();
+
     /**
-     * LRU (least recently used) Cache object to avoid slamming the Gerrit server too many times.
+     * Cache to avoid slamming the Gerrit server too many times, which keeps the issues that are
+     * viewed most often rather than only the most recent ones (see {@link TimedCache}).
+     * Maps each issue key to the {@link ChangeStore#getChangeKey(GerritChange) keys} of its changes.
      * <p>
      * XXX: This might result in an issue using a stale cache for reviews that change often, but
      * corresponding issues viewed rarely! To account for that, we also have a cache expiration, so
      * that at least after the cache expires, it'll get back in sync.
      */
-    protected static final Map<String, List<GerritChange>> lruCache = Collections.synchronizedMap(new TimedCache(CACHE_CAPACITY, CACHE_EXPIRATION));
+    private static final TimedCache<List<String>> reviews = new TimedCache<>(1024L * DEFAULT_CACHE_MEMORY,
+            keys -> weigh(changeStore.resolve(keys)), changeStore::release, IssueReviewsCache::demote, CACHE_EXPIRATION,
+            GerritMetrics.getInstance().getReviewsCache());
+    protected static final Map<String, List<String>> lruCache = Collections.synchronizedMap(reviews);
+
+    /**
+     * Whether an issue key has any (open) reviews at all, for conditions that don't need the
+     * reviews themselves.
+     */
+    private static final TimedCache<Boolean> existence = new TimedCache<>(EXISTENCE_CACHE_CAPACITY, CACHE_EXPIRATION,
+            GerritMetrics.getInstance().getExistenceCache());
+    protected static final Map<String, Boolean> existenceCache = Collections.synchronizedMap(existence);
+
+    /**
+     * The commit messages of the cached changes, by {@link ChangeStore#getChangeKey(GerritChange)
+     * change key}. They're the heaviest part of a change, and only the issue tab panel shows them,
+     * so the cached changes go without them; once pushed out of here, they're loaded again when the
+     * tab panel needs them.
+     * <p>
+     * Queries return the messages along with the changes anyway (the project prefetch needs them
+     * to find the issue keys), so the messages of cached changes skip admission: turning them away
+     * would only mean querying them again for the tab panel.
+     */
+    private static final TimedCache<String> commitMessages = new TimedCache<>(COMMIT_MESSAGE_MEMORY,
+            message -> COMMIT_MESSAGE_OVERHEAD + 2L * message.length(), null, null, CACHE_EXPIRATION,
+            GerritMetrics.getInstance().getCommitMessageCache());
+
+    /**
+     * The reviews of whole projects, loaded in bulk by the prefetcher; keyed by the
+     * {@link GerritServer#getCacheKey(String) cache key} of the project key.
+     */
+    protected static final Map<String, PrefetchedReviews> prefetchedProjects = new ConcurrentHashMap<>();
+
+    /** Where reviews pushed out of the cache go, if enabled; {@code null} otherwise */
+    private static volatile OffHeapReviewStore offHeap;
+
+    /**
+     * Reviews pushed out of the cache, waiting to be stored in the off-heap tier once the cache's
+     * lock is released (see {@link #storeDemoted()}). Storing them is also synchronized on this.
+     */
+    private static final Queue<Demoted> demoted = new ConcurrentLinkedQueue<>();
+
+    /** Reviews persisted before the last restart, which are decoded the first time they're needed */
+    private static volatile ReviewCacheSnapshot snapshot;
+
+    /** Tells the other cluster nodes what changed in this node's caches; {@code null} until started */
+    private static volatile ReviewCacheSync sync;
 
     private static IssueReviewsCache sInstance;
 
-    public static synchronized Map<String, List<GerritChange>> getCache() {
+    public static synchronized Map<String, List<String>> getCache() {
         return lruCache;
     }
 
-    private static class TimedCache extends LinkedHashMap<String, List<GerritChange>> {
+    /**
+     * Gets an issue's cached reviews, moving them back from the off-heap tier if they were pushed
+     * out there.
+     *
+     * @param cacheKey the {@link GerritServer#getCacheKey(String) cache key} of the issue key
+     * @return the issue's cached reviews, or {@code null} if they aren't cached
+     */
+    static List<GerritChange> getReviews(String cacheKey) {
+        List<GerritChange> cached = getCachedReviews(cacheKey);
+        return cached != null ? cached : takeFromOffHeap(cacheKey);
+    }
+
+    private static List<GerritChange> getCachedReviews(String cacheKey) {
+        synchronized (lruCache) {
+            List<String> keys = lruCache.get(cacheKey);
+            return keys == null ? null : changeStore.resolve(keys);
+        }
+    }
+
+    /**
+     * Caches an issue's reviews. Changes that are already cached for other issues are replaced by
+     * these, unless these are older.
+     */
+    static void putReviews(String cacheKey, List<GerritChange> changes) {
+        putReviews(cacheKey, changes, false);
+    }
+
+    /**
+     * @param force whether to cache the reviews even if the cache is full of issues that were
+     *            viewed more often lately, e.g. because an admin prewarms the cache with them
+     */
+    static void putReviews(String cacheKey, List<GerritChange> changes, boolean force) {
+        long now = System.currentTimeMillis();
+        putReviews(cacheKey, changes, now, now, force);
+    }
+
+    /**
+     * @param timestamp when the reviews were loaded
+     * @param start when they start to expire
+     */
+    private static void putReviews(String cacheKey, List<GerritChange> changes, long timestamp, long start, boolean force) {
+        detachCommitMessages(changes);
+
+        synchronized (lruCache) {
+            reviews.put(cacheKey, changeStore.retain(changes), timestamp, start, force);
+        }
+
+        storeDemoted();
+    }
+
+    /**
+     * @return when entries loaded at {@code timestamp} start to expire once they are restored: now,
+     *         so they get another cache period, unless that would keep them past the retention
+     */
+    private static long getRestoredStart(long timestamp) {
+        return Math.min(System.currentTimeMillis(), timestamp + retention - expiration);
+    }
+
+    /**
+     * Refreshes a change for every issue whose cached reviews include it.
+     *
+     * @return whether any cached issue includes the change
+     */
+    static boolean updateChange(GerritChange change) {
+        String message = change.getCommitMessage();
+        change.setCommitMessage(null);
+        boolean stored = changeStore.update(change);
+
+        if (message != null) {
+            // The message of a change no cached issue includes has to earn its place
+            long now = System.currentTimeMillis();
+
+            synchronized (commitMessages) {
+                commitMessages.put(ChangeStore.getChangeKey(change), message, now, now, stored);
+            }
+        }
+
+        return stored;
+    }
+
+    /**
+     * Moves the commit messages of the changes to their own cache, leaving the changes without
+     * them.
+     */
+    private static void detachCommitMessages(List<GerritChange> changes) {
+        long now = System.currentTimeMillis();
+
+        synchronized (commitMessages) {
+            for (GerritChange change : changes) {
+                String message = change.getCommitMessage();
+
+                if (message != null) {
+                    commitMessages.put(ChangeStore.getChangeKey(change), message, now, now, true);
+                    change.setCommitMessage(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the cached commit messages of the changes.
+     *
+     * @param changeKeys the {@link ChangeStore#getChangeKey(GerritChange) change keys}
+     */
+    private static void forgetCommitMessages(Collection<String> changeKeys) {
+        synchronized (commitMessages) {
+            for (String changeKey : changeKeys) {
+                commitMessages.remove(changeKey);
+            }
+        }
+    }
+
+    /**
+     * @return the change's commit message, if it still has it or it is cached; {@code null}
+     *         otherwise
+     */
+    static String getCommitMessage(GerritChange change) {
+        String message = change.getCommitMessage();
+
+        if (message != null) {
+            return message;
+        }
+
+        synchronized (commitMessages) {
+            return commitMessages.get(ChangeStore.getChangeKey(change));
+        }
+    }
+
+    static ChangeStore getChangeStore() {
+        return changeStore;
+    }
+
+    /**
+     * @return the cached issues with the most hits since they were loaded, then the heaviest ones
+     */
+    static List<ReviewCacheEntry> getTopEntries(int limit) {
+        List<ReviewCacheEntry> top = new ArrayList<>();
+
+        synchronized (lruCache) {
+            for (Map.Entry<String, List<String>> entry : reviews.getTopEntries(limit)) {
+                String key = entry.getKey();
+                top.add(new ReviewCacheEntry(key, entry.getValue().size(), reviews.getHits(key), reviews.getWeight(key),
+                        reviews.getTimestamp(key)));
+            }
+        }
+
+        return top;
+    }
+
+    /**
+     * Forgets everything cached, on this node and on the other cluster nodes.
+     */
+    static void flush() {
+        clear();
+
+        ReviewCacheSync current = sync;
+        if (current != null) {
+            current.flushed();
+        }
+    }
+
+    /**
+     * Forgets everything cached on this node only.
+     */
+    static void clear() {
+        snapshot = null;
+        lruCache.clear();
+
+        synchronized (commitMessages) {
+            commitMessages.clear();
+        }
+
+        synchronized (demoted) {
+            demoted.clear();
+
+            OffHeapReviewStore store = offHeap;
+            if (store != null) {
+                store.clear();
+            }
+        }
+
+        existenceCache.clear();
+        prefetchedProjects.clear();
+    }
+
+    public static synchronized Map<String, Boolean> getExistenceCache() {
+        return existenceCache;
+    }
+
+    public static Map<String, PrefetchedReviews> getPrefetchedProjects() {
+        return prefetchedProjects;
+    }
+
+    static ReviewCacheSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Restores the snapshot's existence answers right away (they're tiny), and makes its reviews
+     * available to {@link #takeFromSnapshot(String)}. Entries older than the retention are left
+     * out. Restored entries are cached even if the cache is full, since the lookups that kept them
+     * cached before the restart aren't in the frequency sketch anymore.
+     */
+    static void restoreSnapshot(ReviewCacheSnapshot restored) {
+        synchronized (existenceCache) {
+            for (Map.Entry<String, Timed<Boolean>> entry : restored.getExistence(retention).entrySet()) {
+                long timestamp = entry.getValue().timestamp;
+                existence.put(entry.getKey(), entry.getValue().value, timestamp, getRestoredStart(timestamp), true);
+            }
+        }
+
+        snapshot = restored;
+    }
+
+    /**
+     * Moves an issue's reviews from the restored snapshot into the cache, with the time they were
+     * originally loaded, unless they are older than the retention.
+     *
+     * @param key the cache key
+     * @return the reviews, or {@code null} if the snapshot doesn't have (fresh) reviews for the key
+     */
+    static List<GerritChange> takeFromSnapshot(String key) {
+        ReviewCacheSnapshot current = snapshot;
+        Timed<List<GerritChange>> entry = current == null ? null : current.takeReviews(key, retention);
+
+        if (entry == null) {
+            return null;
+        }
+
+        putReviews(key, entry.value, entry.timestamp, getRestoredStart(entry.timestamp), true);
+        List<GerritChange> cached = getCachedReviews(key);
+
+        // Only not cached if they take more memory than all of the cache may
+        return cached != null ? cached : entry.value;
+    }
+
+    /**
+     * Moves an issue's reviews from the off-heap tier back into the cache, with the time they were
+     * originally loaded, for another cache period up to the retention. Changes that were
+     * refreshed in the meantime for other issues are replaced by their fresh copies.
+     *
+     * @return the reviews, or {@code null} if the off-heap tier doesn't have (fresh) reviews for the
+     *         key
+     */
+    private static List<GerritChange> takeFromOffHeap(String key) {
+        OffHeapReviewStore store = offHeap;
+        Timed<List<GerritChange>> entry = store == null ? null : store.take(key, System.currentTimeMillis());
+
+        if (entry == null) {
+            return null;
+        }
+
+        putReviews(key, entry.value, entry.timestamp, getRestoredStart(entry.timestamp), false);
+        List<GerritChange> cached = getCachedReviews(key);
+
+        // Not let back in (and pushed right back out) if the cache is full of issues viewed more often
+        return cached != null ? cached : entry.value;
+    }
+
+    /**
+     * Queues an issue's reviews that are pushed out of the cache for the off-heap tier, if enabled.
+     * Called with the cache locked, so they are only encoded later, by {@link #storeDemoted()}.
+     */
+    private static void demote(String cacheKey, Timed<List<String>> keys) {
+        if (offHeap != null) {
+            // Resolved now, since their changes are released right after
+            demoted.add(new Demoted(cacheKey, new Timed<>(changeStore.resolve(keys.value), keys.timestamp)));
+        }
+    }
+
+    /**
+     * Encodes the queued reviews into the off-heap tier; called after the cache's lock is released,
+     * so that lookups don't wait for it.
+     */
+    private static void storeDemoted() {
+        if (demoted.isEmpty()) {
+            return;
+        }
+
+        synchronized (demoted) {
+            Demoted entry;
+
+            while ((entry = demoted.poll()) != null) {
+                OffHeapReviewStore store = offHeap;
+
+                if (store != null) {
+                    store.put(entry.cacheKey, entry.reviews.value, entry.reviews.timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes how much memory the off-heap tier may take, dropping what it holds if that changes.
+     *
+     * @param bytes the memory; 0 to disable the off-heap tier
+     */
+    static synchronized void setOffHeapMemory(long bytes) {
+        OffHeapReviewStore current = offHeap;
+
+        if (bytes <= 0) {
+            offHeap = null;
+            GerritMetrics.getInstance().getOffHeapReviewsCache().recordWeight(0, 0);
+        } else if (current == null || current.getMaxBytes() != bytes) {
+            offHeap = new OffHeapReviewStore(bytes, retention, GerritMetrics.getInstance().getOffHeapReviewsCache());
+        }
+    }
+
+    /**
+     * @return the number of issues whose reviews are in the off-heap tier
+     */
+    static int getOffHeapSize() {
+        OffHeapReviewStore store = offHeap;
+        return store == null ? 0 : store.size();
+    }
+
+    /**
+     * @return the reviews that haven't expired, with the time each was loaded
+     */
+    static Map<String, Timed<List<GerritChange>>> copyReviews() {
+        Map<String, Timed<List<GerritChange>>> copy = new LinkedHashMap<>();
+
+        synchronized (lruCache) {
+            for (Map.Entry<String, Timed<List<String>>> entry : reviews.copyEntries().entrySet()) {
+                Timed<List<String>> keys = entry.getValue();
+                copy.put(entry.getKey(), new Timed<>(changeStore.resolve(keys.value), keys.timestamp));
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return the existence answers that haven't expired, with the time each was loaded
+     */
+    static Map<String, Timed<Boolean>> copyExistence() {
+        synchronized (existenceCache) {
+            return existence.copyEntries();
+        }
+    }
+
+    /**
+     * Changes how much memory the cached reviews may take, evicting the least recently used ones if
+     * they now take too much.
+     *
+     * @param bytes the estimated memory; ignored unless positive
+     */
+    static void setMaxWeight(long bytes) {
+        if (bytes > 0) {
+            synchronized (lruCache) {
+                reviews.setMaxWeight(bytes);
+            }
+
+            storeDemoted();
+        }
+    }
+
+    /**
+     * @return the estimated memory an issue's reviews take in the cache
+     */
+    static long weigh(List<GerritChange> changes) {
+        long weight = ENTRY_OVERHEAD;
+
+        for (GerritChange change : changes) {
+            weight += change.getEstimatedSize();
+        }
+
+        return weight;
+    }
+
+    /**
+     * Applies the cache settings of the configuration; see {@link ReviewCacheSweeper}.
+     */
+    static void applyConfiguration(GerritConfiguration configuration) {
+        setMaxWeight(1024L * configuration.getCacheMemory());
+        setExpiration(configuration.getCacheTimeout());
+        setRetention(TimeUnit.MINUTES.toMillis(configuration.getCacheRetention()));
+        setExpiryJitter(configuration.getCacheJitter());
+        setOffHeapMemory(1024L * 1024 * configuration.getOffHeapCacheMemory());
+    }
+
+    /**
+     * @return number of milliseconds the entries put from now on may stay in the caches
+     */
+    static long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * Changes how long the entries put from now on may stay in the caches.
+     *
+     * @param millis the cache period; ignored unless positive
+     */
+    static void setExpiration(long millis) {
+        if (millis <= 0 || millis == expiration) {
+            return;
+        }
+
+        expiration = millis;
+
+        synchronized (lruCache) {
+            reviews.setExpiration(millis);
+        }
+
+        synchronized (existenceCache) {
+            existence.setExpiration(millis);
+        }
+
+        synchronized (commitMessages) {
+            commitMessages.setExpiration(millis);
+        }
+    }
+
+    /**
+     * Changes how long after they were loaded restored entries, and the reviews in the off-heap
+     * tier, may still be used.
+     *
+     * @param millis the retention; 0 to not restore anything
+     */
+    static synchronized void setRetention(long millis) {
+        retention = Math.max(0, millis);
+
+        OffHeapReviewStore store = offHeap;
+        if (store != null) {
+            store.setExpiration(retention);
+        }
+    }
+
+    /**
+     * Changes up to how much earlier than the expiration, in percent, the entries put from now on
+     * may expire.
+     */
+    static void setExpiryJitter(int percent) {
+        synchronized (lruCache) {
+            reviews.setJitter(percent);
+        }
+
+        synchronized (existenceCache) {
+            existence.setJitter(percent);
+        }
+
+        synchronized (commitMessages) {
+            commitMessages.setJitter(percent);
+        }
+    }
+
+    /**
+     * Drops the expired entries and project prefetches, rather than waiting for them to be looked
+     * up (which rarely issues do) or pushed out.
+     *
+     * @return the number of entries dropped
+     */
+    static int sweep() {
+        return sweep(System.currentTimeMillis());
+    }
+
+    static int sweep(long now) {
+        int swept;
+
+        synchronized (lruCache) {
+            swept = reviews.sweep(now);
+        }
+
+        synchronized (existenceCache) {
+            swept += existence.sweep(now);
+        }
+
+        synchronized (commitMessages) {
+            swept += commitMessages.sweep(now);
+        }
+
+        prefetchedProjects.values().removeIf(PrefetchedReviews::isExpired);
+        return swept;
+    }
+
+    static void setSync(ReviewCacheSync current) {
+        sync = current;
+    }
+
+    /**
+     * Forgets everything cached about an issue, on this node and on the other cluster nodes.
+     *
+     * @param cacheKey the {@link GerritServer#getCacheKey(String) cache key} of the issue key
+     */
+    static void invalidate(String cacheKey) {
+        evict(cacheKey);
+
+        ReviewCacheSync current = sync;
+        if (current != null) {
+            current.invalidated(cacheKey);
+        }
+    }
+
+    /**
+     * Forgets everything cached about an issue on this node only: the reviews, the commit messages
+     * of their changes, the existence answers, and any copy in the off-heap tier, the restored
+     * snapshot or the project prefetch.
+     */
+    static void evict(String cacheKey) {
+        Set<String> changeKeys = new HashSet<>();
+        List<String> keys = lruCache.remove(cacheKey);
+
+        if (keys != null) {
+            changeKeys.addAll(keys);
+        }
+
+        synchronized (demoted) {
+            // Reviews pushed out just before are stored first, so they don't come back after this
+            storeDemoted();
+
+            OffHeapReviewStore store = offHeap;
+            if (store != null) {
+                for (GerritChange change : store.discard(cacheKey)) {
+                    changeKeys.add(ChangeStore.getChangeKey(change));
+                }
+            }
+        }
+
+        existenceCache.remove(getExistenceKey(cacheKey, true));
+        existenceCache.remove(getExistenceKey(cacheKey, false));
+
+        ReviewCacheSnapshot current = snapshot;
+        if (current != null) {
+            current.discard(cacheKey);
+        }
+
+        // "server|PROJ-1" belongs to the prefetch of "server|PROJ"
+        PrefetchedReviews prefetched = prefetchedProjects.get(getProjectKey(cacheKey));
+        if (prefetched != null) {
+            String issueKey = cacheKey.substring(cacheKey.lastIndexOf('|') + 1);
+            List<GerritChange> changes = prefetched.get(issueKey);
+
+            if (changes != null) {
+                for (GerritChange change : changes) {
+                    changeKeys.add(ChangeStore.getChangeKey(change));
+                }
+            }
+
+            prefetched.invalidate(issueKey);
+        }
+
+        forgetCommitMessages(changeKeys);
+    }
+
+    /**
+     * Shares what was just loaded from Gerrit about an issue with the other cluster nodes, so they
+     * can answer existence checks without querying Gerrit themselves.
+     *
+     * @param cacheKey the {@link GerritServer#getCacheKey(String) cache key} of the issue key
+     * @param any whether the issue has any reviews; or {@code null} if unknown
+     * @param open whether the issue has any open reviews; or {@code null} if unknown
+     * @param loadedAt when the query the answers come from was sent
+     */
+    static void refreshed(String cacheKey, Boolean any, Boolean open, long loadedAt) {
+        ReviewCacheSync current = sync;
+        if (current != null) {
+            current.refreshed(cacheKey, any, open, loadedAt);
+        }
+    }
+
+    static void putExistence(String existenceKey, boolean exists) {
+        existenceCache.put(existenceKey, exists);
+    }
+
+    static String getExistenceKey(String cacheKey, boolean openOnly) {
+        return cacheKey + (openOnly ? ":open" : ":any");
+    }
+
+    static String getProjectKey(String issueKey) {
+        int dash = issueKey.lastIndexOf('-');
+        return dash < 0 ? issueKey : issueKey.substring(0, dash);
+    }
+
+    /**
+     * Saves the caches, along with whatever is left of the restored snapshot, to {@code file}.
+     */
+    static void writeSnapshot(File file) throws IOException {
+        ReviewCacheSnapshot.write(file, copyReviews(), copyExistence(), snapshot, retention);
+    }
+
+    /**
+     * Creates a thread-safe cache of the kind used for reviews (see {@link ReviewCaches}).
+     *
+     * @param capacity max number of entries
+     * @param expiration number of milliseconds an entry may stay in the cache
+     * @param stats where evictions are counted
+     */
+    static <V> Map<String, V> newTimedCache(int capacity, long expiration, CacheStats stats) {
+        return Collections.synchronizedMap(new TimedCache<>(capacity, expiration, stats));
+    }
+
+    /**
+     * Creates a thread-safe cache of the kind used for reviews, bounded by the total weight of its
+     * entries.
+     *
+     * @param maxWeight max total weight of the entries
+     * @param weigher computes an entry's weight
+     * @param expiration number of milliseconds an entry may stay in the cache
+     * @param stats where evictions and the total weight are recorded
+     */
+    static <V> Map<String, V> newWeightedCache(long maxWeight, ToLongFunction<V> weigher, long expiration, CacheStats stats) {
+        return Collections.synchronizedMap(new TimedCache<>(maxWeight, weigher, null, null, expiration, stats));
+    }
+
+    /**
+     * Cache whose entries also expire, bounded either by entry count, or by the total weight
+     * (estimated memory) of its entries.
+     * <p>
+     * New entries start out on probation, and move to the protected segment when they are hit. The
+     * protected segment may take up to {@link #PROTECTED_SHARE} of the cache; past that, its least
+     * recently used entries go back on probation. To make room, the least recently used entries on
+     * probation go first (a segmented LRU).
+     * <p>
+     * A new entry is only let in if it was looked up at least as often lately as the entries it
+     * would push out, according to a {@link FrequencySketch} of the lookups (TinyLFU admission).
+     * That way, a one-off scan over many issues, like a bulk transition or a board load, doesn't
+     * push out the issues people keep viewing.
+     * <p>
+     * Each entry expires up to {@link #setJitter jitter} percent earlier than the expiration, at
+     * random, so that entries loaded together aren't all refreshed together. Expired entries are
+     * dropped when they are looked up, or by {@link #sweep(long)}, which only visits the entries
+     * that are due.
+     */
+    private static class TimedCache<V> extends LinkedHashMap<String, V> {
         private static final long serialVersionUID = 296909003142207307L;
 
+        /** Share of the cache the protected segment may take */
+        private static final double PROTECTED_SHARE = 0.8;
+
+        /** Typical weight of an entry, to size the frequency sketch of a weighted cache */
+        private static final long TYPICAL_ENTRY_WEIGHT = 512;
+
+        /** Granularity of the expiry buckets: 1 second */
+        private static final long BUCKET_MILLIS = 1000;
+
         private final int capacity;
         private final Map<String, Long> timestamps;
-        private final long expiration;
+        private long expiration;
+        /** When each entry expires, with jitter */
+        private final Map<String, Long> deadlines = new HashMap<>();
+        /** The entries by the second they expire in, so a sweep doesn't have to visit all of them */
+        private final TreeMap<Long, Set<String>> expiryBuckets = new TreeMap<>();
+        private int jitter = DEFAULT_CACHE_JITTER;
+        private final CacheStats stats;
 
-        public TimedCache(final int capacity, final long expiration) {
+        /** {@code null} when bounded by entry count */
+        private final ToLongFunction<V> weigher;
+        /** Told about every value that leaves the cache, however it leaves; may be {@code null} */
+        private final Consumer<V> removalListener;
+        /** Told about the entries pushed out to make room, before they leave; may be {@code null} */
+        private final BiConsumer<String, Timed<V>> demotionListener;
+        private final Map<String, Long> weights;
+        /** Number of hits of each entry since it was put */
+        private final Map<String, Integer> hits = new HashMap<>();
+        private long maxWeight;
+        private long totalWeight;
+
+        /** How often each key was looked up lately, whether it is cached or not */
+        private final FrequencySketch sketch;
+        /** Entries that weren't hit since they were put, least recently used first */
+        private final Set<String> probation = new LinkedHashSet<>();
+        /** Entries that were hit, least recently used first */
+        private final Set<String> protectedSegment = new LinkedHashSet<>();
+        private long protectedWeight;
+
+        public TimedCache(final int capacity, final long expiration, final CacheStats stats) {
             super(capacity + 1, 1.0f, true);
             this.capacity = capacity;
             this.timestamps = new LinkedHashMap<>(capacity + 1, 1.0f, true);
             this.expiration = expiration;
+            this.stats = stats;
+            this.weigher = null;
+            this.removalListener = null;
+            this.demotionListener = null;
+            this.weights = null;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        /**
+         * @param maxWeight max total weight of the entries
+         * @param weigher computes an entry's weight, once, when it is put
+         * @param removalListener told about every value that leaves the cache; may be {@code null}
+         * @param demotionListener told about the entries (that haven't expired) pushed out to make
+         *            room, or not let in, before they leave; may be {@code null}
+         */
+        public TimedCache(final long maxWeight, final ToLongFunction<V> weigher, final Consumer<V> removalListener,
+                final BiConsumer<String, Timed<V>> demotionListener, final long expiration, final CacheStats stats) {
+            super(16, 0.75f, true);
+            this.capacity = Integer.MAX_VALUE;
+            this.timestamps = new LinkedHashMap<>(16, 0.75f, true);
+            this.expiration = expiration;
+            this.stats = stats;
+            this.weigher = weigher;
+            this.removalListener = removalListener;
+            this.demotionListener = demotionListener;
+            this.weights = new HashMap<>();
+            this.maxWeight = maxWeight;
+            this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxWeight / TYPICAL_ENTRY_WEIGHT));
+            stats.recordWeight(0, maxWeight);
         }
 
         /**
@@ -55,17 +837,14 @@ class IssueReviewsCache {
          * @return whether the associated value exists and has expired
          */
         private boolean hasKeyExpired(Object key) {
-            if (!timestamps.containsKey(key)) {
-                return false;
-            }
-            Long lastUpdatedTimestamp = timestamps.get(key);
-            return lastUpdatedTimestamp <= System.currentTimeMillis() - expiration;
-
+            Long deadline = deadlines.get(key);
+            return deadline != null && deadline <= System.currentTimeMillis();
         }
 
         @Override
         public boolean containsKey(Object key) {
             if (hasKeyExpired(key)) {
+                stats.recordEviction();
                 this.remove(key);
                 return false;
             }
@@ -74,34 +853,434 @@ class IssueReviewsCache {
         }
 
         @Override
-        public List<GerritChange> get(Object key) {
+        public V get(Object key) {
+            sketch.increment(key);
+
             if (hasKeyExpired(key)) {
+                stats.recordEviction();
                 this.remove(key);
                 return null;
             }
 
-            return super.get(key);
+            V value = super.get(key);
+
+            if (value != null) {
+                hits.merge((String) key, 1, Integer::sum);
+                promote((String) key);
+            }
+
+            return value;
+        }
+
+        /**
+         * Moves a hit entry to the most recently used end of the protected segment, and moves
+         * the least recently used protected entries back on probation if it gets too big.
+         */
+        private void promote(String key) {
+            if (protectedSegment.remove(key)) {
+                protectedSegment.add(key);
+                return;
+            }
+
+            if (!probation.remove(key)) {
+                return;
+            }
+
+            protectedSegment.add(key);
+            protectedWeight += weightOf(key);
+
+            long maxProtectedWeight = (long) (getLimit() * PROTECTED_SHARE);
+            Iterator<String> eldest = protectedSegment.iterator();
+
+            while (protectedWeight > maxProtectedWeight && eldest.hasNext()) {
+                String demoted = eldest.next();
+                eldest.remove();
+                protectedWeight -= weightOf(demoted);
+                probation.add(demoted);
+            }
         }
 
         /**
-         * Removes the eldest entry from the cache if 1) it exceeds the max capacity, or 2) it has
-         * been in cache for too long.
+         * Removes the eldest entry from the cache if it has been in cache for too long. The size
+         * is bounded by {@link #admit} and {@link #trim} instead.
          */
         @Override
-        protected boolean removeEldestEntry(final Map.Entry<String, List<GerritChange>> eldest) {
-            return super.size() > capacity || timestamps.get(eldest.getKey()) <= System.currentTimeMillis() - expiration;
+        protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+            boolean evict = hasKeyExpired(eldest.getKey());
+
+            if (evict) {
+                stats.recordEviction();
+                // LinkedHashMap only removes the entry itself
+                forget(eldest.getKey());
+                removed(eldest.getValue());
+            }
+
+            return evict;
+        }
+
+        /**
+         * @param jitter up to how much earlier than the expiration, in percent, entries put from now
+         *            on may expire
+         */
+        void setJitter(int jitter) {
+            this.jitter = Math.max(0, Math.min(100, jitter));
+        }
+
+        /**
+         * @param expiration number of milliseconds entries put from now on may stay in the cache
+         */
+        void setExpiration(long expiration) {
+            this.expiration = expiration;
+        }
+
+        /**
+         * Drops the entries that have expired by {@code now}.
+         *
+         * @return the number of entries dropped
+         */
+        int sweep(long now) {
+            List<String> expired = new ArrayList<>();
+
+            for (Set<String> bucket : expiryBuckets.headMap(now / BUCKET_MILLIS, true).values()) {
+                for (String key : bucket) {
+                    if (deadlines.get(key) <= now) {
+                        expired.add(key);
+                    }
+                }
+            }
+
+            for (String key : expired) {
+                evict(key);
+            }
+
+            return expired.size();
+        }
+
+        private void schedule(String key, long deadline) {
+            unschedule(key);
+            deadlines.put(key, deadline);
+            expiryBuckets.computeIfAbsent(deadline / BUCKET_MILLIS, bucket -> new HashSet<>()).add(key);
+        }
+
+        private void unschedule(Object key) {
+            Long deadline = deadlines.remove(key);
+
+            if (deadline != null) {
+                Set<String> bucket = expiryBuckets.get(deadline / BUCKET_MILLIS);
+                bucket.remove(key);
+
+                if (bucket.isEmpty()) {
+                    expiryBuckets.remove(deadline / BUCKET_MILLIS);
+                }
+            }
+        }
+
+        void setMaxWeight(long maxWeight) {
+            if (weigher != null && maxWeight != this.maxWeight) {
+                this.maxWeight = maxWeight;
+                trim(null);
+            }
+        }
+
+        /**
+         * Makes room for a new entry, unless the entries it would push out were looked up more
+         * often lately than it was. Expired entries make room regardless.
+         *
+         * @return whether the entry may be put
+         */
+        private boolean admit(String key, long weight) {
+            long excess = getTotal() + weight - getLimit();
+
+            if (weight > getLimit()) {
+                return false;
+            } else if (excess <= 0) {
+                return true;
+            }
+
+            int frequency = sketch.frequency(key);
+            List<String> victims = new ArrayList<>();
+
+            for (Set<String> segment : Arrays.asList(probation, protectedSegment)) {
+                Iterator<String> keys = segment.iterator();
+
+                while (excess > 0 && keys.hasNext()) {
+                    String victim = keys.next();
+
+                    if (!hasKeyExpired(victim) && sketch.frequency(victim) > frequency) {
+                        return false;
+                    }
+
+                    victims.add(victim);
+                    excess -= weightOf(victim);
+                }
+            }
+
+            for (String victim : victims) {
+                pushOut(victim);
+            }
+
+            return true;
+        }
+
+        /**
+         * Evicts entries until the cache fits again, probation first; possibly even {@code keep},
+         * if it is heavier than all of the cache may be on its own.
+         *
+         * @param keep the entry to evict last; may be {@code null}
+         */
+        private void trim(String keep) {
+            while (getTotal() > getLimit()) {
+                String victim = nextVictim(keep);
+
+                if (victim == null) {
+                    break;
+                }
+
+                pushOut(victim);
+            }
+
+            if (weigher != null) {
+                stats.recordWeight(totalWeight, maxWeight);
+            }
+        }
+
+        private String nextVictim(String keep) {
+            for (Set<String> segment : Arrays.asList(probation, protectedSegment)) {
+                for (String key : segment) {
+                    if (!key.equals(keep)) {
+                        return key;
+                    }
+                }
+            }
+
+            return keep != null && super.containsKey(keep) ? keep : null;
+        }
+
+        private void evict(String key) {
+            remove(key);
+            stats.recordEviction();
+        }
+
+        /**
+         * Evicts an entry to make room, telling the {@link #demotionListener} about it first.
+         */
+        private void pushOut(String key) {
+            if (demotionListener != null && !hasKeyExpired(key)) {
+                demotionListener.accept(key, new Timed<>(super.get(key), timestamps.get(key)));
+            }
+
+            evict(key);
+        }
+
+        /**
+         * @return the max total weight, or the capacity when bounded by entry count
+         */
+        private long getLimit() {
+            return weigher == null ? capacity : maxWeight;
+        }
+
+        /**
+         * @return the total weight, or the number of entries when bounded by entry count
+         */
+        private long getTotal() {
+            return weigher == null ? super.size() : totalWeight;
+        }
+
+        /**
+         * @return the weight of a cached entry; 1 when bounded by entry count
+         */
+        private long weightOf(Object key) {
+            return weigher == null ? 1 : weights.getOrDefault(key, 0L);
+        }
+
+        /**
+         * Drops everything kept next to an entry that is being removed.
+         */
+        private void forget(Object key) {
+            if (!probation.remove(key) && protectedSegment.remove(key)) {
+                protectedWeight -= weightOf(key);
+            }
+
+            timestamps.remove(key);
+            unschedule(key);
+            hits.remove(key);
+            removeWeight(key);
+        }
+
+        private void removeWeight(Object key) {
+            if (weigher != null) {
+                Long weight = weights.remove(key);
+
+                if (weight != null) {
+                    totalWeight -= weight;
+                    stats.recordWeight(totalWeight, maxWeight);
+                }
+            }
+        }
+
+        private void removed(V value) {
+            if (removalListener != null && value != null) {
+                removalListener.accept(value);
+            }
         }
 
         @Override
-        public List<GerritChange> put(String key, List<GerritChange> value) {
-            timestamps.put(key, System.currentTimeMillis());
-            return super.put(key, value);
+        public V put(String key, V value) {
+            return put(key, value, System.currentTimeMillis());
+        }
+
+        /**
+         * @param timestamp when the value was loaded, which is when it starts to expire
+         */
+        V put(String key, V value, long timestamp) {
+            return put(key, value, timestamp, timestamp, false);
+        }
+
+        /**
+         * @param timestamp when the value was loaded
+         * @param start when it starts to expire; later than {@code timestamp} for values that come
+         *            back after they left the cache
+         * @param force whether to skip admission, and make room by pushing out the least recently
+         *            used entries however often they were looked up
+         */
+        V put(String key, V value, long timestamp, long start, boolean force) {
+            boolean resident = super.containsKey(key);
+            long weight = weigher == null ? 1 : weigher.applyAsLong(value);
+
+            if (!resident && !(force ? weight <= getLimit() : admit(key, weight))) {
+                // As if it was put, and evicted right away
+                stats.recordEviction();
+
+                if (demotionListener != null) {
+                    demotionListener.accept(key, new Timed<>(value, timestamp));
+                }
+
+                removed(value);
+                return null;
+            }
+
+            long maxJitter = expiration * jitter / 100;
+            timestamps.put(key, timestamp);
+            schedule(key, start + expiration - (maxJitter > 0 ? ThreadLocalRandom.current().nextLong(maxJitter + 1) : 0));
+            hits.remove(key);
+
+            if (weigher != null) {
+                if (protectedSegment.contains(key)) {
+                    protectedWeight += weight - weightOf(key);
+                }
+
+                removeWeight(key);
+                weights.put(key, weight);
+                totalWeight += weight;
+            }
+
+            if (!resident) {
+                probation.add(key);
+            }
+
+            V previous = super.put(key, value);
+            removed(previous);
+            trim(key);
+            return previous;
+        }
+
+        /**
+         * @return the entries with the most hits, then the heaviest ones, without counting as an
+         *         access
+         */
+        List<Map.Entry<String, V>> getTopEntries(int limit) {
+            List<Map.Entry<String, V>> entries = new ArrayList<>(entrySet());
+            Comparator<Map.Entry<String, V>> byHits = Comparator.comparing(entry -> getHits(entry.getKey()));
+            Comparator<Map.Entry<String, V>> byWeight = Comparator.comparing(entry -> getWeight(entry.getKey()));
+            entries.sort(byHits.thenComparing(byWeight).reversed());
+            return entries.subList(0, Math.min(limit, entries.size()));
+        }
+
+        int getHits(String key) {
+            return hits.getOrDefault(key, 0);
+        }
+
+        long getWeight(String key) {
+            return weights == null ? 0 : weights.getOrDefault(key, 0L);
+        }
+
+        long getTimestamp(String key) {
+            return timestamps.getOrDefault(key, 0L);
+        }
+
+        /**
+         * Copies the entries that haven't expired, without counting as an access.
+         */
+        Map<String, Timed<V>> copyEntries() {
+            Map<String, Timed<V>> copy = new LinkedHashMap<>();
+
+            for (Map.Entry<String, V> entry : entrySet()) {
+                Long timestamp = timestamps.get(entry.getKey());
+
+                if (timestamp != null && !hasKeyExpired(entry.getKey())) {
+                    copy.put(entry.getKey(), new Timed<>(entry.getValue(), timestamp));
+                }
+            }
+
+            return copy;
         }
 
         @Override
-        public List<GerritChange> remove(Object key) {
-            timestamps.remove(key);
-            return super.remove(key);
+        public void clear() {
+            if (removalListener != null) {
+                for (V value : values()) {
+                    removalListener.accept(value);
+                }
+            }
+
+            super.clear();
+            timestamps.clear();
+            deadlines.clear();
+            expiryBuckets.clear();
+            hits.clear();
+            probation.clear();
+            protectedSegment.clear();
+            protectedWeight = 0;
+
+            if (weigher != null) {
+                weights.clear();
+                totalWeight = 0;
+                stats.recordWeight(0, maxWeight);
+            }
+        }
+
+        @Override
+        public V remove(Object key) {
+            forget(key);
+            V removed = super.remove(key);
+            removed(removed);
+            return removed;
+        }
+    }
+
+    /**
+     * A cached value, with the time it was loaded.
+     */
+    static final class Timed<V> {
+        final V value;
+        final long timestamp;
+
+        Timed(V value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * An issue's reviews pushed out of the cache, on their way to the off-heap tier.
+     */
+    private static final class Demoted {
+        final String cacheKey;
+        final Timed<List<GerritChange>> reviews;
+
+        Demoted(String cacheKey, Timed<List<GerritChange>> reviews) {
+            this.cacheKey = cacheKey;
+            this.reviews = reviews;
         }
     }
 }
@@ -13,47 +13,109 @@
  */
 package com.meetme.plugins.jira.gerrit.data;
 
+import com.atlassian.jira.project.Project;
 import com.atlassian.jira.user.preferences.ExtendedPreferences;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.metrics.GerritMetrics;
+import com.meetme.plugins.jira.gerrit.metrics.RequestAccounting;
 
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
-import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
 import com.sonymobile.tools.gerrit.gerritevents.*;
-import com.sonymobile.tools.gerrit.gerritevents.http.HttpAuthentication;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.Authentication;
-import com.sonymobile.tools.gerrit.gerritevents.ssh.SshException;
 
 import net.sf.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-public class IssueReviewsImpl implements IssueReviewsManager {
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class IssueReviewsImpl implements IssueReviewsManager, LifecycleAware {
     private static final Logger log = LoggerFactory.getLogger(IssueReviewsImpl.class);
-    private final Map<String, List<GerritChange>> lruCache;
 
-    private GerritConfiguration configuration;
+    /** Max number of Gerrit servers queried concurrently */
+    private static final int MAX_CONCURRENT_QUERIES = 4;
 
-    private IssueManager jiraIssueManager;
+    /** Max number of server queries waiting for a thread; past that, the request thread runs them */
+    private static final int MAX_QUEUED_QUERIES = 32;
+
+    /** How long to wait for a server without a connection timeout of its own: 30 seconds */
+    private static final long DEFAULT_QUERY_TIMEOUT = 30000;
+
+    /** Number of changes requested per page of a project prefetch */
+    static final int PREFETCH_PAGE_SIZE = 500;
+
+    /** Max number of pages loaded per project prefetch, in case paging doesn't make progress */
+    private static final int MAX_PREFETCH_PAGES = 100;
+
+    /** Gerrit's query format for <tt>before:</tt> and similar operators */
+    private static final String QUERY_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss Z";
 
-    private GerritQueryHandlerHttp queryHandlerHttp;
+    private final Map<String, Boolean> existenceCache;
+    private final Map<String, PrefetchedReviews> prefetchedProjects;
 
-    private GerritQueryHandlerWithPersistedConnection queryHandler;
+    /** Open connections, keyed by server name */
+    private final Map<String, GerritServerConnection> connections = new HashMap<>();
 
-    private QueryHandlerConfig queryHandlerConfig;
+    /** The configured servers that {@link #connections} was last checked against */
+    private List<GerritServer> connectedServers;
+
+    private GerritConfiguration configuration;
+
+    private IssueManager jiraIssueManager;
+
+    /** Queries additional servers in parallel; created when first needed */
+    private ThreadPoolExecutor executor;
 
     public IssueReviewsImpl(GerritConfiguration configuration, IssueManager jiraIssueManager) {
         this.configuration = configuration;
         this.jiraIssueManager = jiraIssueManager;
-        this.lruCache = IssueReviewsCache.getCache();
+        this.existenceCache = IssueReviewsCache.getExistenceCache();
+        this.prefetchedProjects = IssueReviewsCache.getPrefetchedProjects();
+    }
+
+    @Override
+    public void onStart() {
+        // The executor is created when first needed
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        GerritHttpCommand.shutdown();
+
+        for (GerritServerConnection connection : connections.values()) {
+            connection.disconnect();
+        }
+
+        connections.clear();
+        connectedServers = null;
     }
 
     @Override
@@ -61,68 +123,481 @@ public class IssueReviewsImpl implements IssueReviewsManager {
         return jiraIssueManager.getAllIssueKeys(issue.getId());
     }
 
+    /**
+     * @return the Gerrit servers that may hold reviews for the issue
+     */
+    private List<GerritServer> getServers(Issue issue) {
+        Project project = issue.getProjectObject();
+        return configuration.getServersForProject(project == null ? null : project.getKey());
+    }
+
     @Override
     public List<GerritChange> getReviewsForIssue(Issue issue) throws GerritQueryException {
+        return getReviewsForIssue(issue, false);
+    }
+
+    @Override
+    public void prewarmReviews(Issue issue) throws GerritQueryException {
+        getReviewsForIssue(issue, true);
+    }
+
+    /**
+     * @param prewarm whether to cache the reviews loaded from Gerrit even if the cache is full of
+     *            issues that were viewed more often lately
+     */
+    private List<GerritChange> getReviewsForIssue(Issue issue, boolean prewarm) throws GerritQueryException {
+        final Set<String> allIssueKeys = getIssueKeys(issue);
+        List<GerritServer> servers = getServers(issue);
+        RequestAccounting.recordReviewLookup();
+
+        if (servers.size() == 1) {
+            return getReviewsForIssueKeys(servers.get(0), allIssueKeys, prewarm);
+        }
+
+        // Query every server at once, so the slowest one sets the pace instead of the sum of them
+        List<Future<List<GerritChange>>> results = new ArrayList<>(servers.size());
+        ThreadPoolExecutor pool = getExecutor();
+        long timeout = 0;
+
+        for (final GerritServer server : servers) {
+            results.add(pool.submit(RequestAccounting.wrap(() -> getReviewsForIssueKeys(server, allIssueKeys, prewarm))));
+            timeout = Math.max(timeout, server.getConnectionTimeout() > 0 ? server.getConnectionTimeout() : DEFAULT_QUERY_TIMEOUT);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
         List<GerritChange> gerritChanges = new ArrayList<>();
+        GerritQueryException failure = null;
+        int failures = 0;
+
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                gerritChanges.addAll(results.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                // Don't hold up the page any longer; the other servers' results are still shown
+                results.get(i).cancel(true);
+                log.warn("Timed out querying Gerrit server '" + servers.get(i).getName() + "' after " + timeout + " ms");
+                failures++;
+
+                if (failure == null) {
+                    failure = new GerritQueryException("Timed out while querying for reviews.", e);
+                }
+            } catch (ExecutionException e) {
+                // Still show what the other servers have
+                log.warn("Error querying Gerrit server '" + servers.get(i).getName() + "': " + e.getCause().getMessage());
+                failures++;
+
+                if (failure == null) {
+                    failure = e.getCause() instanceof GerritQueryException ? (GerritQueryException) e.getCause()
+                            : new GerritQueryException("An error occurred while querying for reviews.", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                for (Future<List<GerritChange>> result : results) {
+                    result.cancel(true);
+                }
+
+                throw new GerritQueryException("Interrupted while querying for reviews.", e);
+            }
+        }
+
+        if (failures == servers.size() && failure != null) {
+            throw failure;
+        }
+
+        return gerritChanges;
+    }
+
+    private List<GerritChange> getReviewsForIssueKeys(GerritServer server, Set<String> issueKeys, boolean prewarm)
+            throws GerritQueryException {
+        // A change that mentions several of the issue's keys is only listed once
+        Map<String, GerritChange> gerritChanges = new LinkedHashMap<>();
 
-        Set<String> allIssueKeys = getIssueKeys(issue);
-        for (String key : allIssueKeys) {
+        for (String key : issueKeys) {
+            String cacheKey = server.getCacheKey(key);
             List<GerritChange> changes;
 
-            if (lruCache.containsKey(key)) {
+            if ((changes = IssueReviewsCache.getReviews(cacheKey)) != null) {
                 log.debug("Getting issues from cache");
-                changes = lruCache.get(key);
+                GerritMetrics.getInstance().getReviewsCache().recordHit();
+                RequestAccounting.recordCacheHit();
+            } else if ((changes = IssueReviewsCache.takeFromSnapshot(cacheKey)) != null) {
+                log.debug("Getting issues from the cache snapshot");
+                GerritMetrics.getInstance().getReviewsCache().recordHit();
+                RequestAccounting.recordCacheHit();
+            } else if ((changes = getPrefetchedReviews(server, key)) != null) {
+                log.debug("Getting issues from the project prefetch");
+                GerritMetrics.getInstance().getReviewsCache().recordHit();
+                RequestAccounting.recordCacheHit();
             } else {
                 log.debug("Getting issues from Gerrit");
-                changes = getReviewsFromGerrit(String.format(configuration.getIssueSearchQuery(), key));
-                lruCache.put(key, changes);
+                GerritMetrics.getInstance().getReviewsCache().recordMiss();
+                long loadedAt = System.currentTimeMillis();
+                long loadStart = System.nanoTime();
+                // Only the summary; the issue tab loads commit messages through getCommitMessages
+                changes = getReviewsFromGerrit(server, String.format(configuration.getIssueSearchQuery(), key), false);
+                GerritMetrics.getInstance().getReviewsLoadTime().recordSince(loadStart);
+                IssueReviewsCache.putReviews(cacheKey, changes, prewarm);
+                GerritMetrics.getInstance().getReviewsCache().recordLoad();
+                IssueReviewsCache.refreshed(cacheKey, !changes.isEmpty(), hasOpenChange(changes), loadedAt);
             }
 
-            gerritChanges.addAll(changes);
+            for (GerritChange change : changes) {
+                gerritChanges.putIfAbsent(ChangeStore.getChangeKey(change), change);
+            }
         }
 
-        return gerritChanges;
+        return new ArrayList<>(gerritChanges.values());
     }
 
-    protected List<GerritChange> getReviewsFromGerrit(String searchQuery) throws GerritQueryException {
-        List<GerritChange> changes;
+    @Override
+    public boolean hasReviews(Issue issue, boolean openOnly) throws GerritQueryException {
+        List<GerritServer> servers = getServers(issue);
+        Set<String> issueKeys = getIssueKeys(issue);
+        RequestAccounting.recordReviewLookup();
+        Exception failure = null;
+        int failures = 0;
 
-        String connectionType = configuration.getConnectionType();
-        List<JSONObject> reviews;
+        for (GerritServer server : servers) {
+            try {
+                if (hasReviews(server, issueKeys, openOnly)) {
+                    return true;
+                }
+            } catch (GerritQueryException | GerritConfiguration.NotConfiguredException e) {
+                if (servers.size() > 1) {
+                    log.warn("Error querying Gerrit server '" + server.getName() + "': " + e.getMessage());
+                }
+
+                failures++;
+                failure = failure == null ? e : failure;
+            }
+        }
 
-        if(connectionType.equals(GerritEventKeys.CONNECTION_TYPE_SSH)) {
+        // Only fail if none of the servers could answer
+        if (failure != null && failures == servers.size()) {
+            if (failure instanceof GerritQueryException) {
+                throw (GerritQueryException) failure;
+            }
 
-            if (!configuration.isSshValid()) {
-                throw new GerritConfiguration.NotConfiguredException("Not configured for SSH access");
+            throw (RuntimeException) failure;
+        }
+
+        return false;
+    }
+
+    private boolean hasReviews(GerritServer server, Set<String> issueKeys, boolean openOnly) throws GerritQueryException {
+        for (String key : issueKeys) {
+            String cacheKey = server.getCacheKey(key);
+            List<GerritChange> changes = IssueReviewsCache.getReviews(cacheKey);
+
+            if (changes == null) {
+                changes = IssueReviewsCache.takeFromSnapshot(cacheKey);
+            }
+
+            if (changes == null) {
+                changes = getPrefetchedReviews(server, key);
+            }
+
+            if (changes != null) {
+                // Already have the full list, might as well use it
+                RequestAccounting.recordCacheHit();
+
+                for (GerritChange change : changes) {
+                    if (!openOnly || change.isOpen()) {
+                        return true;
+                    }
+                }
+
+                continue;
             }
 
+            String existenceKey = IssueReviewsCache.getExistenceKey(cacheKey, openOnly);
+            Boolean exists = existenceCache.get(existenceKey);
+
+            if (exists == null) {
+                log.debug("Checking for reviews in Gerrit");
+                GerritMetrics.getInstance().getExistenceCache().recordMiss();
+                long loadedAt = System.currentTimeMillis();
+                exists = countReviewsFromGerrit(server, getExistenceQuery(key, openOnly)) > 0;
+                existenceCache.put(existenceKey, exists);
+                GerritMetrics.getInstance().getExistenceCache().recordLoad();
+
+                // An open review is also a review, and no reviews means no open ones either
+                Boolean any = null;
+                Boolean open = null;
+
+                if (openOnly) {
+                    open = exists;
+                    any = exists ? Boolean.TRUE : null;
+                } else {
+                    any = exists;
+                    open = exists ? null : Boolean.FALSE;
+                }
+
+                IssueReviewsCache.refreshed(cacheKey, any, open, loadedAt);
+            } else {
+                GerritMetrics.getInstance().getExistenceCache().recordHit();
+                RequestAccounting.recordCacheHit();
+            }
+
+            if (exists) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the issue search query, narrowed down to a single (open) change. The configured
+     *         query is parenthesized, so that the qualifiers apply to all of it, even if it has an
+     *         <tt>OR</tt> (e.g., <tt>tr:%s OR message:%s</tt>).
+     */
+    String getExistenceQuery(String issueKey, boolean openOnly) {
+        String searchQuery = String.format(configuration.getIssueSearchQuery(), issueKey);
+        return "(" + searchQuery + ")" + (openOnly ? " status:open" : "") + " limit:1";
+    }
+
+    private static boolean hasOpenChange(List<GerritChange> changes) {
+        for (GerritChange change : changes) {
+            if (change.isOpen()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the issue's reviews from the latest prefetch of its project, or {@code null} if there
+     *         is no usable prefetch
+     */
+    private List<GerritChange> getPrefetchedReviews(GerritServer server, String issueKey) {
+        if (prefetchedProjects.isEmpty() || !isPrefetchable()) {
+            return null;
+        }
+
+        PrefetchedReviews prefetched = prefetchedProjects.get(server.getCacheKey(IssueReviewsCache.getProjectKey(issueKey)));
+        return prefetched == null ? null : prefetched.get(issueKey);
+    }
+
+    /**
+     * The prefetch groups changes by the issue keys mentioned in their subject and commit message.
+     * That only stands in for the issue search query as long as it's the default, which matches
+     * the tracking ids Gerrit takes from the commit message; any other query may find changes the
+     * grouping doesn't, or the other way around.
+     */
+    private boolean isPrefetchable() {
+        return GerritConfiguration.DEFAULT_QUERY_ISSUE.equals(configuration.getIssueSearchQuery());
+    }
+
+    @Override
+    public int prefetchReviews(String projectKey) throws GerritQueryException {
+        if (!isPrefetchable()) {
+            log.debug("Not prefetching reviews of " + projectKey + ", since the issue search query was changed");
+            return 0;
+        }
+
+        List<GerritServer> servers = configuration.getServersForProject(projectKey);
+        long maxAge = 2 * TimeUnit.SECONDS.toMillis(configuration.getPrefetchInterval());
+        GerritQueryException failure = null;
+        int issues = 0;
+
+        for (GerritServer server : servers) {
             try {
-                GerritQueryHandler querySsh = getQueryHandlerSsh(configuration);
-                reviews = querySsh.queryJava(searchQuery, false, true, false);
-            } catch (SshException e) {
-                throw new GerritQueryException("An ssh error occurred while querying for reviews.", e);
-            } catch (IOException e) {
-                throw new GerritQueryException("An error occurred while querying for reviews.", e);
+                PrefetchedReviews prefetched = prefetchReviews(server, projectKey, maxAge);
+                prefetchedProjects.put(server.getCacheKey(projectKey), prefetched);
+                issues += prefetched.size();
+
+                // Cached issues that mention these changes see the fresh copies right away
+                for (List<GerritChange> changes : prefetched.getChanges()) {
+                    for (GerritChange change : changes) {
+                        IssueReviewsCache.updateChange(change);
+                    }
+                }
+            } catch (GerritQueryException | GerritConfiguration.NotConfiguredException e) {
+                log.warn("Error prefetching reviews of " + projectKey + " from Gerrit server '" + server.getName() + "': " + e.getMessage());
+                prefetchedProjects.remove(server.getCacheKey(projectKey));
+
+                if (failure == null) {
+                    failure = e instanceof GerritQueryException ? (GerritQueryException) e
+                            : new GerritQueryException("Gerrit server '" + server.getName() + "' is not configured", e);
+                }
             }
         }
-        else {
 
-            if(!configuration.isHttpValid()) {
-                throw new GerritConfiguration.NotConfiguredException("Not configured for HTTP access");
+        if (failure != null) {
+            throw failure;
+        }
+
+        return issues;
+    }
+
+    /**
+     * Runs the project search query page by page, newest changes first, and groups the changes by
+     * the project's issue keys they mention as it goes.
+     * <p>
+     * Pages are chained with <tt>before:</tt> the last update of the oldest change seen so far.
+     * That bound is inclusive, so a change may come up twice and is then skipped. Paging stops
+     * early if it doesn't make progress, in which case the results are incomplete.
+     *
+     * @param maxAge number of milliseconds the results may be used for
+     * @return the changes, keyed by issue key
+     */
+    PrefetchedReviews prefetchReviews(GerritServer server, String projectKey, long maxAge) throws GerritQueryException {
+        String searchQuery = String.format(configuration.getProjectSearchQuery(), projectKey);
+        Pattern issueKeyPattern = Pattern.compile("(?<![A-Za-z0-9_])" + Pattern.quote(projectKey) + "-[0-9]+");
+        SimpleDateFormat dateFormat = new SimpleDateFormat(QUERY_DATE_FORMAT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Map<String, List<GerritChange>> changesByIssue = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        String before = null;
+        boolean complete = false;
+
+        for (int page = 0; page < MAX_PREFETCH_PAGES; page++) {
+            String pageQuery = searchQuery + (before == null ? "" : " before:{" + before + "}") + " limit:" + PREFETCH_PAGE_SIZE;
+            // Issue keys are looked for in the commit messages, so those are needed here
+            List<GerritChange> changes = getReviewsFromGerrit(server, pageQuery, true);
+            Date oldest = null;
+            int added = 0;
+
+            for (GerritChange change : changes) {
+                if (change.getLastUpdated() != null && (oldest == null || change.getLastUpdated().before(oldest))) {
+                    oldest = change.getLastUpdated();
+                }
+
+                if (!seen.add(change.getNumber())) {
+                    continue;
+                }
+
+                added++;
+                Set<String> issueKeys = new HashSet<>();
+                findIssueKeys(issueKeyPattern, change.getSubject(), issueKeys);
+                findIssueKeys(issueKeyPattern, change.getCommitMessage(), issueKeys);
+
+                for (String issueKey : issueKeys) {
+                    changesByIssue.computeIfAbsent(issueKey, k -> new ArrayList<>()).add(change);
+                }
+            }
+
+            if (changes.size() < PREFETCH_PAGE_SIZE) {
+                complete = true;
+                break;
+            } else if (added == 0 || oldest == null) {
+                break;
             }
 
+            before = dateFormat.format(oldest);
+        }
+
+        for (List<GerritChange> changes : changesByIssue.values()) {
+            Collections.sort(changes);
+        }
+
+        if (complete) {
+            log.debug("Prefetched " + seen.size() + " changes for " + changesByIssue.size() + " issues of " + projectKey);
+        } else {
+            log.warn("Prefetch of " + projectKey + " from Gerrit server '" + server.getName() + "' stopped after " + seen.size()
+                    + " changes; issues without reviews in it are queried one by one");
+        }
+
+        return new PrefetchedReviews(changesByIssue, complete, maxAge);
+    }
+
+    @Override
+    public List<String> getCommitMessages(List<GerritChange> changes) {
+        Map<String, String> messages = new HashMap<>();
+        // Change numbers whose commit message isn't cached, by server name
+        Map<String, List<String>> missing = new LinkedHashMap<>();
+
+        for (GerritChange change : changes) {
+            String message = IssueReviewsCache.getCommitMessage(change);
+
+            if (message != null) {
+                GerritMetrics.getInstance().getCommitMessageCache().recordHit();
+                messages.put(ChangeStore.getChangeKey(change), message);
+            } else {
+                GerritMetrics.getInstance().getCommitMessageCache().recordMiss();
+                String name = change.getServer() == null ? GerritServer.DEFAULT_NAME : change.getServer();
+                missing.computeIfAbsent(name, k -> new ArrayList<>()).add(change.getNumber());
+            }
+        }
+
+        for (Map.Entry<String, List<String>> numbers : missing.entrySet()) {
             try {
-                GerritQueryHandlerHttp queryHttp = getQueryHandlerHttp(configuration);
-                reviews = queryHttp.queryJava(searchQuery, true, true, true);
-            } catch(IOException e) {
-                throw new GerritQueryException("An error occurred while querying for reviews.", e);
+                GerritServer server = getServer(numbers.getKey());
+
+                for (GerritChange loaded : getReviewsFromGerrit(server, "change:" + String.join(" OR change:", numbers.getValue()), true)) {
+                    if (loaded.getCommitMessage() != null) {
+                        messages.put(ChangeStore.getChangeKey(loaded), loaded.getCommitMessage());
+                    }
+
+                    // Refreshes the cached change while at it, and caches its commit message again
+                    IssueReviewsCache.updateChange(loaded);
+                }
+
+                GerritMetrics.getInstance().getCommitMessageCache().recordLoad();
+            } catch (GerritQueryException | GerritConfiguration.NotConfiguredException e) {
+                log.warn("Error loading commit messages from Gerrit server '" + numbers.getKey() + "': " + e.getMessage());
+            }
+        }
+
+        List<String> ordered = new ArrayList<>(changes.size());
+
+        for (GerritChange change : changes) {
+            ordered.add(messages.get(ChangeStore.getChangeKey(change)));
+        }
+
+        return ordered;
+    }
+
+    private static void findIssueKeys(Pattern pattern, String text, Set<String> issueKeys) {
+        if (text != null) {
+            Matcher matcher = pattern.matcher(text);
+
+            while (matcher.find()) {
+                issueKeys.add(matcher.group());
             }
         }
+    }
+
+    /**
+     * Counts the changes matching the query, without parsing them.
+     *
+     * @param server the Gerrit server to query
+     * @param searchQuery the Gerrit query
+     * @return the number of matching changes (subject to any <tt>limit:</tt> in the query)
+     * @throws GerritQueryException If any failure occurs while querying the Gerrit server.
+     */
+    protected int countReviewsFromGerrit(GerritServer server, String searchQuery) throws GerritQueryException {
+        int count = 0;
+
+        for (JSONObject obj : getConnection(server).query(searchQuery, false)) {
+            if (!isStats(obj)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @param withCommitMessages whether the commit messages are needed; over SSH, they always
+     *            come with the changes
+     */
+    protected List<GerritChange> getReviewsFromGerrit(GerritServer server, String searchQuery, boolean withCommitMessages)
+            throws GerritQueryException {
+        List<GerritChange> changes;
+
+        String connectionType = server.getConnectionType();
+        List<JSONObject> reviews = getConnection(server).query(searchQuery, true, withCommitMessages);
+        long parseStart = System.nanoTime();
 
         changes = new ArrayList<>(reviews.size());
 
         for (JSONObject obj : reviews) {
-            if (obj.has("type") && "stats".equalsIgnoreCase(obj.getString("type"))) {
+            if (isStats(obj)) {
                 // The final JSON object in the query results is just a set of statistics
                 if (log.isDebugEnabled()) {
                     log.trace("Results from QUERY: " + obj.optString("rowCount", "(unknown)") + " rows; runtime: "
@@ -131,102 +606,166 @@ public class IssueReviewsImpl implements IssueReviewsManager {
                 continue;
             }
 
-            if(connectionType.equals(GerritEventKeys.CONNECTION_TYPE_HTTP)) {
-                obj.element("url", configuration.getHttpBaseUrl());
+            if (server.isHttp()) {
+                obj.element("url", server.getHttpBaseUrl());
+            }
+
+            GerritChange change = new GerritChange(obj, connectionType);
+
+            if (!server.isDefault()) {
+                change.setServer(server.getName());
             }
-            changes.add(new GerritChange(obj, connectionType));
+
+            changes.add(change);
         }
 
         Collections.sort(changes);
+        GerritMetrics.getInstance().getParseTime().recordSince(parseStart);
         return changes;
     }
 
-    private GerritQueryHandlerHttp getQueryHandlerHttp(GerritConfiguration configuration) {
-        HttpAuthentication httpAuth = new HttpAuthentication(configuration.getHttpUsername(), configuration.getHttpPassword());
-        this.queryHandlerHttp = new GerritQueryHandlerHttp(configuration.getHttpBaseUrl().toString(), httpAuth);
-        return queryHandlerHttp;
+    /**
+     * @return whether the query result row is the final set of statistics, rather than a change
+     */
+    private static boolean isStats(JSONObject obj) {
+        return obj.has("type") && "stats".equalsIgnoreCase(obj.getString("type"));
     }
 
-    private GerritQueryHandler getQueryHandlerSsh(GerritConfiguration configuration) {
-        QueryHandlerConfig config = new QueryHandlerConfig(configuration.getSshPrivateKey(),
-                configuration.getSshUsername(), configuration.getSshHostname(),
-                configuration.getSshPort(), configuration.getConnectionTimeout());
-        boolean configChanged = !config.equals(queryHandlerConfig);
+    /**
+     * Returns the connection to the server, replacing it with a fresh one if the server's
+     * configuration has changed.
+     */
+    private synchronized GerritServerConnection getConnection(GerritServer server) {
+        dropRemovedConnections();
+
+        GerritServerConnection connection = connections.get(server.getName());
 
-        if (queryHandler == null || configChanged) {
-            if (queryHandler != null) {
+        if (connection == null || !connection.getServer().equals(server)) {
+            if (connection != null) {
                 log.debug("QueryHandler configuration has changed, creating a fresh connection.");
-                queryHandler.disconnect();
+                connection.disconnect();
             }
-            Authentication auth = new Authentication(configuration.getSshPrivateKey(), configuration.getSshUsername());
-            queryHandler = new GerritQueryHandlerWithPersistedConnection(configuration.getSshHostname(), configuration.getSshPort(),
-                    null, auth, configuration.getConnectionTimeout());
-            queryHandlerConfig = config;
-            log.debug("QueryHandler with a fresh SSH connection was created.");
+
+            connection = new GerritServerConnection(server);
+            connections.put(server.getName(), connection);
         }
-        return queryHandler;
+
+        return connection;
+    }
+
+    /**
+     * Disconnects from servers that have been removed from the configuration since the last check.
+     */
+    private void dropRemovedConnections() {
+        List<GerritServer> servers = configuration.getServers();
+
+        if (servers == connectedServers) {
+            // The configuration snapshot hasn't changed
+            return;
+        }
+
+        Set<String> names = new HashSet<>();
+
+        for (GerritServer configured : servers) {
+            names.add(configured.getName());
+        }
+
+        for (Iterator<Map.Entry<String, GerritServerConnection>> it = connections.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, GerritServerConnection> entry = it.next();
+
+            if (!names.contains(entry.getKey())) {
+                log.debug("Gerrit server '" + entry.getKey() + "' is no longer configured, closing its connection.");
+                entry.getValue().disconnect();
+                it.remove();
+            }
+        }
+
+        connectedServers = servers;
     }
 
     @Override
     public boolean doApprovals(Issue issue, List<GerritChange> changes, String args, ExtendedPreferences prefs) throws IOException {
         Set<String> issueKeys = getIssueKeys(issue);
 
+        if (changes.isEmpty()) {
+            // Don't open a connection just to send nothing
+            return true;
+        }
+
+        // Each change can only be reviewed on the server it came from
+        Map<String, List<GerritChange>> changesByServer = new LinkedHashMap<>();
+
+        for (GerritChange change : changes) {
+            String name = change.getServer() == null ? GerritServer.DEFAULT_NAME : change.getServer();
+            changesByServer.computeIfAbsent(name, k -> new ArrayList<>()).add(change);
+        }
+
         boolean result = true;
-        for (String issueKey : issueKeys) {
-            GerritCommand command = new GerritCommand(configuration,prefs);
 
-            boolean commandResult = command.doReviews(changes, args);
-            result &= commandResult;
+        // The same changes are shared by all of the issue's keys, so they only need to be reviewed once
+        for (Map.Entry<String, List<GerritChange>> entry : changesByServer.entrySet()) {
+            result &= doReviews(getServer(entry.getKey()), entry.getValue(), args, prefs);
+        }
 
-            if (log.isDebugEnabled()) {
-                log.trace("doApprovals " + issueKey + ", " + changes + ", " + args + "; result=" + commandResult);
-            }
+        if (log.isDebugEnabled()) {
+            log.trace("doApprovals " + issueKeys + ", " + changes + ", " + args + "; result=" + result);
+        }
 
-            // Something probably changed!
-            lruCache.remove(issueKey);
+        for (GerritServer server : configuration.getServers()) {
+            for (String issueKey : issueKeys) {
+                // Something probably changed! On the other nodes, too.
+                IssueReviewsCache.invalidate(server.getCacheKey(issueKey));
+            }
         }
 
         return result;
     }
 
-    private static class QueryHandlerConfig {
-        File currentSshPrivateKey;
-        String currentSshUsername;
-        String currentSshHostname;
-        int currentSshPort;
-        int currentConnectionTimeout;
+    private boolean doReviews(GerritServer server, List<GerritChange> changes, String args, ExtendedPreferences prefs)
+            throws IOException {
+        if (server.isHttp()) {
+            if (!server.isHttpValid() || server.getHttpBaseUrl() == null) {
+                throw new GerritConfiguration.NotConfiguredException("Not configured for HTTP access");
+            }
 
-        QueryHandlerConfig(File currentSshPrivateKey, String currentSshUsername, String currentSshHostname,
-                           int currentSshPort, int currentConnectionTimeout) {
-            this.currentSshPrivateKey = currentSshPrivateKey;
-            this.currentSshUsername = currentSshUsername;
-            this.currentSshHostname = currentSshHostname;
-            this.currentSshPort = currentSshPort;
-            this.currentConnectionTimeout = currentConnectionTimeout;
+            return new GerritHttpCommand(server).doReviews(changes, args);
+        } else {
+            return new GerritCommand(server, prefs).doReviews(changes, args);
         }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
+    private GerritServer getServer(String name) {
+        for (GerritServer server : configuration.getServers()) {
+            if (server.getName().equals(name)) {
+                return server;
             }
+        }
 
-            QueryHandlerConfig that = (QueryHandlerConfig) o;
+        throw new GerritConfiguration.NotConfiguredException("Gerrit server '" + name + "' is no longer configured");
+    }
 
-            if (currentSshPort != that.currentSshPort) return false;
-            if (currentConnectionTimeout != that.currentConnectionTimeout) return false;
-            if (!currentSshPrivateKey.equals(that.currentSshPrivateKey)) return false;
-            if (!currentSshUsername.equals(that.currentSshUsername)) return false;
-            return currentSshHostname.equals(that.currentSshHostname);
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = createExecutor();
         }
 
-        // we don't care about hashcode
-        @Override
-        public int hashCode() {
-            return 0;
-        }
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "gerrit-query-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        // When Gerrit is slow and the queue fills up, the request thread queries the server itself,
+        // rather than queueing up more work than the pool will ever get to
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONCURRENT_QUERIES, MAX_CONCURRENT_QUERIES, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_QUERIES), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        // Don't hold on to idle threads between page views
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 }
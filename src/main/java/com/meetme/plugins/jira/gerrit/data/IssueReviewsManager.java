@@ -45,6 +45,49 @@ public interface IssueReviewsManager {
      */
     List<GerritChange> getReviewsForIssue(Issue issue) throws GerritQueryException;
 
+    /**
+     * Loads the reviews of the issue into the cache, as {@link #getReviewsForIssue(Issue)} does,
+     * except that they're cached even if the cache is full of issues that were viewed more often
+     * lately.
+     *
+     * @param issue the JIRA issue
+     * @throws GerritQueryException If any failure occurs while querying the Gerrit server.
+     */
+    void prewarmReviews(Issue issue) throws GerritQueryException;
+
+    /**
+     * Determines whether there are any Gerrit reviews related to the issue, without retrieving the
+     * reviews themselves (unless they are already cached).
+     *
+     * @param issue the JIRA issue
+     * @param openOnly {@code true} to only consider open reviews
+     * @return whether at least one matching review exists
+     * @throws GerritQueryException If any failure occurs while querying the Gerrit server.
+     */
+    boolean hasReviews(Issue issue, boolean openOnly) throws GerritQueryException;
+
+    /**
+     * Loads the reviews of every issue in the project at once, with the project search query, so
+     * that looking up the reviews of any of its issues doesn't need a query of its own until the
+     * next prefetch is due. Does nothing unless the issue search query is the default, which the
+     * project-wide results can stand in for.
+     *
+     * @param projectKey the JIRA project key
+     * @return the number of issues that have reviews
+     * @throws GerritQueryException If any failure occurs while querying a Gerrit server.
+     */
+    int prefetchReviews(String projectKey) throws GerritQueryException;
+
+    /**
+     * Gets the commit messages of the changes, which the cached changes go without. Those that
+     * aren't cached anymore are loaded from Gerrit, with a single query per server.
+     *
+     * @param changes the Gerrit changes, as returned by {@link #getReviewsForIssue(Issue)}
+     * @return the commit message of each change, in the same order; {@code null} for those that
+     *         couldn't be loaded
+     */
+    List<String> getCommitMessages(List<GerritChange> changes);
+
     /**
      * Performs approvals/reviews of all changes.
      *
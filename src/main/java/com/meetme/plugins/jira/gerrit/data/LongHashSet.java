@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import java.util.Collection;
+
+/**
+ * Minimal immutable set of primitive {@code long}s, using open addressing, so that membership
+ * checks neither box nor allocate.
+ */
+final class LongHashSet {
+    /** Marks an empty slot; the value 0 itself is tracked separately */
+    private static final long EMPTY = 0L;
+
+    private final long[] table;
+    private final int mask;
+    private final boolean containsZero;
+    private final int size;
+
+    private LongHashSet(long[] values, int count) {
+        // Keep the table at most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        long[] table = new long[capacity];
+        boolean zero = false;
+        int size = 0;
+
+        for (int i = 0; i < count; i++) {
+            long value = values[i];
+
+            if (value == EMPTY) {
+                size += zero ? 0 : 1;
+                zero = true;
+                continue;
+            }
+
+            int slot = hash(value) & (capacity - 1);
+
+            while (table[slot] != EMPTY && table[slot] != value) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+
+            if (table[slot] == EMPTY) {
+                table[slot] = value;
+                size++;
+            }
+        }
+
+        this.table = table;
+        this.mask = capacity - 1;
+        this.containsZero = zero;
+        this.size = size;
+    }
+
+    /**
+     * Builds the set from the decimal string form of the values (as stored in plugin settings).
+     * Anything that isn't a number is ignored.
+     */
+    static LongHashSet ofStrings(Collection<String> values) {
+        long[] parsed = new long[values.size()];
+        int count = 0;
+
+        for (String value : values) {
+            try {
+                parsed[count] = Long.parseLong(value.trim());
+                count++;
+            } catch (NumberFormatException | NullPointerException e) {
+                // not a project id
+            }
+        }
+
+        return new LongHashSet(parsed, count);
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+
+        int slot = hash(value) & mask;
+        long current;
+
+        while ((current = table[slot]) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
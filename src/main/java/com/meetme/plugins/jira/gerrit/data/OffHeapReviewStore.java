@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsCache.Timed;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.metrics.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Second tier of the reviews cache, for reviews pushed out of it to make room: they're kept
+ * {@link ReviewCodec encoded}, in direct buffers outside of the heap, and go back into the cache the
+ * next time they're looked up. Only a small slot per issue stays on the heap.
+ * <p>
+ * The memory is split into segments that are filled one after the other, like a ring: once the last
+ * one is full, the first one is reused, and the reviews it held are dropped. So there's no
+ * fragmentation and no allocation per entry; reviews that are taken or replaced just leave a hole
+ * until their segment is reused.
+ */
+final class OffHeapReviewStore {
+    private static final Logger log = LoggerFactory.getLogger(OffHeapReviewStore.class);
+
+    /** Size of each segment: 4 MB */
+    static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private final long maxBytes;
+    private final int segmentSize;
+    /** Allocated when first written to */
+    private final ByteBuffer[] segments;
+    /** The keys written to each segment since it was last reused, some of which may be gone */
+    private final List<List<String>> segmentKeys;
+    private final Map<String, Slot> slots = new HashMap<>();
+    private volatile long expiration;
+    private final CacheStats stats;
+
+    /** The segment being written to, and where */
+    private int current;
+    private int position;
+    /** Bytes taken by the reviews that are still kept */
+    private long liveBytes;
+
+    /**
+     * @param maxBytes memory the segments may take; rounded down to whole segments
+     * @param expiration number of milliseconds reviews may be kept after they were loaded
+     * @param stats where hits, misses, dropped reviews and memory are recorded
+     */
+    OffHeapReviewStore(long maxBytes, long expiration, CacheStats stats) {
+        this(maxBytes, (int) Math.min(DEFAULT_SEGMENT_SIZE, maxBytes), expiration, stats);
+    }
+
+    OffHeapReviewStore(long maxBytes, int segmentSize, long expiration, CacheStats stats) {
+        int count = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / segmentSize));
+
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        this.segments = new ByteBuffer[count];
+        this.segmentKeys = new ArrayList<>(count);
+        this.expiration = expiration;
+        this.stats = stats;
+
+        for (int i = 0; i < count; i++) {
+            segmentKeys.add(new ArrayList<>());
+        }
+
+        stats.recordWeight(0, getCapacity());
+    }
+
+    /**
+     * @param expiration number of milliseconds reviews may be kept after they were loaded, from
+     *            now on; also applies to the reviews already kept
+     */
+    void setExpiration(long expiration) {
+        this.expiration = expiration;
+    }
+
+    /**
+     * @return the memory this store was created with
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the memory the segments take once they're all written to
+     */
+    long getCapacity() {
+        return (long) segments.length * segmentSize;
+    }
+
+    /**
+     * Keeps an issue's reviews, replacing any it had, unless they've expired already or don't fit
+     * in a segment.
+     *
+     * @param timestamp when the reviews were loaded
+     * @return whether the reviews are kept
+     */
+    synchronized boolean put(String key, List<GerritChange> changes, long timestamp) {
+        discard(key);
+
+        if (timestamp + expiration <= System.currentTimeMillis()) {
+            return false;
+        }
+
+        byte[] data = ReviewCodec.encode(changes);
+
+        if (data.length > segmentSize) {
+            stats.recordEviction();
+            return false;
+        }
+
+        if (position + data.length > segmentSize) {
+            advance();
+        }
+
+        if (segments[current] == null) {
+            segments[current] = ByteBuffer.allocateDirect(segmentSize);
+        }
+
+        ByteBuffer target = segments[current].duplicate();
+        target.position(position);
+        target.put(data);
+
+        slots.put(key, new Slot(current, position, data.length, timestamp));
+        segmentKeys.get(current).add(key);
+        position += data.length;
+        liveBytes += data.length;
+        stats.recordWeight(liveBytes, getCapacity());
+        return true;
+    }
+
+    /**
+     * Moves on to the next segment, dropping the reviews that are still kept in it.
+     */
+    private void advance() {
+        current = (current + 1) % segments.length;
+        position = 0;
+
+        for (String key : segmentKeys.get(current)) {
+            Slot slot = slots.get(key);
+
+            if (slot != null && slot.segment == current) {
+                slots.remove(key);
+                liveBytes -= slot.length;
+                stats.recordEviction();
+            }
+        }
+
+        segmentKeys.get(current).clear();
+    }
+
+    /**
+     * Removes an issue's reviews from the store.
+     *
+     * @param now the current time, to tell whether the reviews have expired
+     * @return the reviews, with the time they were loaded; or {@code null} if they aren't kept, have
+     *         expired, or can't be read
+     */
+    Timed<List<GerritChange>> take(String key, long now) {
+        Slot slot;
+        byte[] data;
+
+        synchronized (this) {
+            slot = slots.remove(key);
+
+            if (slot == null) {
+                stats.recordMiss();
+                return null;
+            }
+
+            liveBytes -= slot.length;
+            stats.recordWeight(liveBytes, getCapacity());
+
+            if (slot.timestamp + expiration <= now) {
+                stats.recordEviction();
+                stats.recordMiss();
+                return null;
+            }
+
+            data = read(slot);
+        }
+
+        try {
+            List<GerritChange> changes = ReviewCodec.decode(data, 0, data.length);
+            stats.recordHit();
+            return new Timed<>(changes, slot.timestamp);
+        } catch (IOException e) {
+            log.warn("Dropping unreadable off-heap reviews of " + key + ": " + e.getMessage());
+            stats.recordMiss();
+            return null;
+        }
+    }
+
+    /**
+     * Forgets an issue's reviews, if they're kept.
+     *
+     * @return the reviews that were kept, whether they have expired or not; empty if there were
+     *         none, or they can't be read
+     */
+    List<GerritChange> discard(String key) {
+        byte[] data;
+
+        synchronized (this) {
+            Slot slot = slots.remove(key);
+
+            if (slot == null) {
+                return Collections.emptyList();
+            }
+
+            liveBytes -= slot.length;
+            stats.recordWeight(liveBytes, getCapacity());
+            data = read(slot);
+        }
+
+        try {
+            return ReviewCodec.decode(data, 0, data.length);
+        } catch (IOException e) {
+            log.warn("Dropping unreadable off-heap reviews of " + key + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return a copy of the bytes of the slot
+     */
+    private byte[] read(Slot slot) {
+        byte[] data = new byte[slot.length];
+        ByteBuffer source = segments[slot.segment].duplicate();
+        source.position(slot.offset);
+        source.get(data);
+        return data;
+    }
+
+    /**
+     * Forgets all the reviews; the segments are kept for reuse.
+     */
+    synchronized void clear() {
+        slots.clear();
+
+        for (List<String> keys : segmentKeys) {
+            keys.clear();
+        }
+
+        current = 0;
+        position = 0;
+        liveBytes = 0;
+        stats.recordWeight(0, getCapacity());
+    }
+
+    /**
+     * @return the number of issues whose reviews are kept
+     */
+    synchronized int size() {
+        return slots.size();
+    }
+
+    private static final class Slot {
+        final int segment;
+        final int offset;
+        final int length;
+        final long timestamp;
+
+        Slot(int segment, int offset, int length, long timestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The reviews of every issue in a project, as loaded by a single project-wide query.
+ * <p>
+ * When every page of the results was loaded, an issue without any reviews in them has none, so
+ * unlike the per-issue caches, this also answers for issues that were never looked up. Otherwise
+ * it only answers for the issues it found reviews for.
+ */
+final class PrefetchedReviews {
+    private final Map<String, List<GerritChange>> changesByIssue;
+    private final boolean complete;
+    private final Set<String> invalidated = ConcurrentHashMap.newKeySet();
+    private final long expiresAt;
+
+    /**
+     * @param changesByIssue the changes, keyed by issue key
+     * @param complete whether the results were loaded up to the last page
+     * @param maxAge number of milliseconds the results may be used for
+     */
+    PrefetchedReviews(Map<String, List<GerritChange>> changesByIssue, boolean complete, long maxAge) {
+        this.changesByIssue = changesByIssue;
+        this.complete = complete;
+        this.expiresAt = System.currentTimeMillis() + maxAge;
+    }
+
+    /**
+     * @return the issue's reviews (empty if it has none), or {@code null} if they have to be
+     *         queried after all
+     */
+    List<GerritChange> get(String issueKey) {
+        if (isExpired() || invalidated.contains(issueKey)) {
+            return null;
+        }
+
+        List<GerritChange> changes = changesByIssue.get(issueKey);
+
+        if (changes == null) {
+            // The issue's reviews may be on a page that was never loaded
+            return complete ? Collections.emptyList() : null;
+        }
+
+        return changes;
+    }
+
+    /**
+     * @return the changes of each issue that has any
+     */
+    Collection<List<GerritChange>> getChanges() {
+        return changesByIssue.values();
+    }
+
+    /**
+     * Stops answering for the issue, e.g. because its reviews were just changed.
+     */
+    void invalidate(String issueKey) {
+        invalidated.add(issueKey);
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    /**
+     * @return the number of issues that have any reviews
+     */
+    int size() {
+        return changesByIssue.size();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How far a {@link ReviewCacheAdmin#prewarm prewarm} has come.
+ */
+public final class PrewarmProgress {
+    private final String selection;
+    private final int total;
+    private final long startedAt;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile long finishedAt;
+
+    PrewarmProgress(String selection, int total) {
+        this.selection = selection;
+        this.total = total;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    void completed(boolean success) {
+        completed.incrementAndGet();
+
+        if (!success) {
+            failed.incrementAndGet();
+        }
+    }
+
+    void finished() {
+        finishedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the JQL query or project key whose issues are prewarmed
+     */
+    public String getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return the number of issues to prewarm
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of issues done so far, including the failed ones
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of issues whose reviews could not be loaded
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getPercent() {
+        return total == 0 ? 100 : getCompleted() * 100 / total;
+    }
+
+    public boolean isRunning() {
+        return finishedAt == 0;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return when the prewarm finished or was stopped; 0 while it is running
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+}
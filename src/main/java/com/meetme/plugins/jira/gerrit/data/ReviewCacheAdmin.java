@@ -0,0 +1,259 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
+import org.ofbiz.core.entity.GenericEntityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Administration of the review caches: what they hold, forgetting an issue or everything, and
+ * prewarming them with the reviews of a selection of issues before users view them.
+ * <p>
+ * Evicting and flushing also apply to the other nodes of a cluster (see {@link ReviewCacheSync}),
+ * while a prewarm only loads the reviews into this node's caches.
+ */
+public class ReviewCacheAdmin implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCacheAdmin.class);
+
+    /** Max number of issues loaded per prewarm, so a broad query can't keep querying Gerrit for hours */
+    static final int MAX_PREWARM_ISSUES = 1000;
+
+    private final GerritConfiguration configuration;
+    private final IssueReviewsManager reviewsManager;
+    private final IssueManager issueManager;
+    private final ProjectManager projectManager;
+    private final SearchService searchService;
+    private final JiraAuthenticationContext authenticationContext;
+
+    private ExecutorService executor;
+    private volatile PrewarmProgress progress;
+
+    public ReviewCacheAdmin(GerritConfiguration configuration, IssueReviewsManager reviewsManager, IssueManager issueManager,
+                            ProjectManager projectManager, SearchService searchService, JiraAuthenticationContext authenticationContext) {
+        this.configuration = configuration;
+        this.reviewsManager = reviewsManager;
+        this.issueManager = issueManager;
+        this.projectManager = projectManager;
+        this.searchService = searchService;
+        this.authenticationContext = authenticationContext;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "gerrit-prewarm");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the number of issues whose reviews are cached
+     */
+    public int getCachedIssueCount() {
+        return IssueReviewsCache.getCache().size();
+    }
+
+    /**
+     * @return the number of issues whose reviews were pushed out to the off-heap tier
+     */
+    public int getOffHeapIssueCount() {
+        return IssueReviewsCache.getOffHeapSize();
+    }
+
+    /**
+     * @return the number of distinct changes the cached reviews refer to
+     */
+    public int getCachedChangeCount() {
+        return IssueReviewsCache.getChangeStore().size();
+    }
+
+    /**
+     * @return the number of cached answers to whether an issue has any (open) reviews
+     */
+    public int getExistenceCount() {
+        return IssueReviewsCache.getExistenceCache().size();
+    }
+
+    /**
+     * @return the number of projects whose reviews were prefetched
+     */
+    public int getPrefetchedProjectCount() {
+        return IssueReviewsCache.getPrefetchedProjects().size();
+    }
+
+    /**
+     * @return the cached issues with the most hits, then the heaviest ones
+     */
+    public List<ReviewCacheEntry> getTopEntries(int limit) {
+        return IssueReviewsCache.getTopEntries(limit);
+    }
+
+    /**
+     * Forgets everything cached about an issue, for every Gerrit server.
+     *
+     * @param issueKey the JIRA issue key
+     */
+    public void evict(String issueKey) {
+        String key = issueKey.trim().toUpperCase();
+
+        for (GerritServer server : configuration.getServers()) {
+            IssueReviewsCache.invalidate(server.getCacheKey(key));
+        }
+
+        log.info("Evicted the cached reviews of " + key);
+    }
+
+    /**
+     * Forgets everything cached.
+     */
+    public void flush() {
+        IssueReviewsCache.flush();
+        log.info("Flushed the review caches");
+    }
+
+    /**
+     * @return the progress of the running or last prewarm; {@code null} if there was none
+     */
+    public PrewarmProgress getPrewarmProgress() {
+        return progress;
+    }
+
+    /**
+     * Starts loading the reviews of the issues a JQL query finds, as the current user sees them.
+     *
+     * @throws IllegalArgumentException if the query is not valid
+     * @throws IllegalStateException if a prewarm is already running
+     */
+    public PrewarmProgress prewarmQuery(String jql) {
+        SearchService.ParseResult parsed = searchService.parseQuery(authenticationContext.getLoggedInUser(), jql);
+
+        if (!parsed.isValid()) {
+            throw new IllegalArgumentException("Invalid query: " + parsed.getErrors().getErrorMessages());
+        }
+
+        List<Long> issueIds = new ArrayList<>();
+
+        try {
+            for (Issue issue : searchService.search(authenticationContext.getLoggedInUser(), parsed.getQuery(),
+                    new PagerFilter<>(MAX_PREWARM_ISSUES)).getIssues()) {
+                issueIds.add(issue.getId());
+            }
+        } catch (SearchException e) {
+            throw new IllegalStateException("Could not search for issues: " + e.getMessage(), e);
+        }
+
+        return prewarm(jql, issueIds);
+    }
+
+    /**
+     * Starts loading the reviews of the issues of a project.
+     *
+     * @throws IllegalArgumentException if there is no such project
+     * @throws IllegalStateException if a prewarm is already running
+     */
+    public PrewarmProgress prewarmProject(String projectKey) {
+        Project project = projectManager.getProjectObjByKey(projectKey.trim().toUpperCase());
+
+        if (project == null) {
+            throw new IllegalArgumentException("No such project: " + projectKey);
+        }
+
+        List<Long> issueIds = new ArrayList<>();
+
+        try {
+            for (Long issueId : issueManager.getIssueIdsForProject(project.getId())) {
+                if (issueIds.size() == MAX_PREWARM_ISSUES) {
+                    break;
+                }
+
+                issueIds.add(issueId);
+            }
+        } catch (GenericEntityException e) {
+            throw new IllegalStateException("Could not list the issues of " + project.getKey() + ": " + e.getMessage(), e);
+        }
+
+        return prewarm(project.getKey(), issueIds);
+    }
+
+    private synchronized PrewarmProgress prewarm(String selection, List<Long> issueIds) {
+        if (executor == null) {
+            throw new IllegalStateException("Not started");
+        }
+
+        if (progress != null && progress.isRunning()) {
+            throw new IllegalStateException("Already prewarming " + progress.getSelection());
+        }
+
+        final PrewarmProgress started = new PrewarmProgress(selection, issueIds.size());
+        progress = started;
+        executor.execute(() -> load(issueIds, started));
+        log.info("Prewarming the reviews of " + issueIds.size() + " issues for " + selection);
+        return started;
+    }
+
+    private void load(List<Long> issueIds, PrewarmProgress current) {
+        try {
+            for (Long issueId : issueIds) {
+                if (Thread.currentThread().isInterrupted()) {
+                    log.info("Stopped prewarming " + current.getSelection());
+                    return;
+                }
+
+                Issue issue = issueManager.getIssueObject(issueId);
+                boolean success = true;
+
+                try {
+                    if (issue != null) {
+                        reviewsManager.prewarmReviews(issue);
+                    }
+                } catch (GerritQueryException | RuntimeException e) {
+                    log.debug("Could not prewarm the reviews of " + issue.getKey() + ": " + e.getMessage());
+                    success = false;
+                }
+
+                current.completed(success);
+            }
+
+            log.info("Prewarmed " + current.getSelection() + ": " + current.getCompleted() + " issues, " + current.getFailed()
+                    + " failed");
+        } finally {
+            current.finished();
+        }
+    }
+}
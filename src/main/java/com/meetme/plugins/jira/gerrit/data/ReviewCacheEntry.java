@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+/**
+ * What the reviews cache holds for an issue, as listed on the administration page.
+ */
+public final class ReviewCacheEntry {
+    private final String cacheKey;
+    private final int changeCount;
+    private final int hits;
+    private final long weight;
+    private final long loadedAt;
+
+    ReviewCacheEntry(String cacheKey, int changeCount, int hits, long weight, long loadedAt) {
+        this.cacheKey = cacheKey;
+        this.changeCount = changeCount;
+        this.hits = hits;
+        this.weight = weight;
+        this.loadedAt = loadedAt;
+    }
+
+    /**
+     * @return the {@link GerritServer#getCacheKey(String) cache key} of the issue key
+     */
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * @return the number of changes cached for the issue
+     */
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @return the number of times the entry was used since it was loaded
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the estimated memory the entry takes, in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return when the reviews were loaded, in milliseconds since the epoch
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.config.util.JiraHome;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the review caches to the JIRA data directory every minute, and once more when the plugin
+ * stops, and restores them when it starts, so that a restart doesn't send every issue view back
+ * to Gerrit at once.
+ * <p>
+ * Restored entries keep the time they were originally loaded. They get another cache period once
+ * restored, but are only used up to the {@link GerritConfiguration#getCacheRetention() retention}
+ * after they were loaded; anything older is dropped.
+ */
+public class ReviewCachePersister implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCachePersister.class);
+
+    private static final Object[] PACKAGE_PARTS = new String[]{"com", "meetme", "plugins", "jira", "gerrit"};
+
+    private static final String SNAPSHOT_FILE = "review-cache.snapshot";
+
+    /** How often the caches are saved: 1 minute */
+    private static final long SAVE_INTERVAL_SECONDS = 60;
+
+    private final JiraHome jiraHome;
+    private final GerritConfiguration configuration;
+
+    private ScheduledExecutorService scheduler;
+
+    public ReviewCachePersister(JiraHome jiraHome, GerritConfiguration configuration) {
+        this.jiraHome = jiraHome;
+        this.configuration = configuration;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        // The sweeper may not have started yet, and the retention decides what is restored
+        IssueReviewsCache.applyConfiguration(configuration);
+        load();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gerrit-cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        save();
+    }
+
+    private File getSnapshotFile() {
+        File dataDir = new File(jiraHome.getDataDirectory(), StringUtils.join(PACKAGE_PARTS, File.separatorChar));
+        return new File(dataDir, SNAPSHOT_FILE);
+    }
+
+    void load() {
+        File file = getSnapshotFile();
+
+        if (!file.isFile()) {
+            return;
+        }
+
+        try {
+            ReviewCacheSnapshot snapshot = ReviewCacheSnapshot.read(file);
+            IssueReviewsCache.restoreSnapshot(snapshot);
+            log.info("Restored the review cache snapshot: " + snapshot.getPendingCount() + " issues");
+        } catch (IOException e) {
+            log.warn("Ignoring the review cache snapshot: " + e.getMessage());
+        }
+    }
+
+    void save() {
+        File file = getSnapshotFile();
+
+        try {
+            File dataDir = file.getParentFile();
+
+            if (!dataDir.isDirectory() && !dataDir.mkdirs()) {
+                throw new IOException("Could not create " + dataDir);
+            }
+
+            IssueReviewsCache.writeSnapshot(file);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not save the review cache snapshot: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsCache.Timed;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The review caches as saved to disk, so that they survive a restart (or a plugin upgrade).
+ * <p>
+ * The whole file is read at once, but each issue's reviews are only decoded when they're first
+ * needed, and only once: they then go back into the cache, with the time they were originally
+ * loaded, so they expire exactly as if there had been no restart.
+ * <p>
+ * File layout: a header (magic number, file format and {@link ReviewCodec#VERSION}), the reviews
+ * (key, load time, length and {@link ReviewCodec encoded} changes for each), then the existence
+ * answers (key, load time and answer for each). A file written with any other version is ignored.
+ */
+final class ReviewCacheSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCacheSnapshot.class);
+
+    /** "GRCS" */
+    private static final int MAGIC = 0x47524353;
+    private static final int FORMAT_VERSION = 1;
+
+    private final byte[] data;
+    private final Map<String, Pending> reviews;
+    private final Map<String, Timed<Boolean>> existence;
+
+    private ReviewCacheSnapshot(byte[] data, Map<String, Pending> reviews, Map<String, Timed<Boolean>> existence) {
+        this.data = data;
+        this.reviews = reviews;
+        this.existence = existence;
+    }
+
+    /**
+     * Reads a snapshot.
+     *
+     * @throws IOException if the file can't be read, was written by another version, or is corrupt
+     */
+    static ReviewCacheSnapshot read(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (data.length < 12 || in.readInt() != MAGIC) {
+            throw new IOException("Not a review cache snapshot: " + file);
+        }
+
+        int formatVersion = in.readInt();
+        int codecVersion = in.readInt();
+
+        if (formatVersion != FORMAT_VERSION || codecVersion != ReviewCodec.VERSION) {
+            throw new IOException("Unsupported review cache snapshot version " + formatVersion + "." + codecVersion + ": " + file);
+        }
+
+        Map<String, Pending> reviews = new ConcurrentHashMap<>();
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long timestamp = in.readLong();
+            int length = in.readInt();
+            int offset = data.length - in.available();
+
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Truncated review cache snapshot: " + file);
+            }
+
+            in.skipBytes(length);
+            reviews.put(key, new Pending(timestamp, offset, length));
+        }
+
+        Map<String, Timed<Boolean>> existence = new LinkedHashMap<>();
+        count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long timestamp = in.readLong();
+            existence.put(key, new Timed<>(in.readBoolean(), timestamp));
+        }
+
+        return new ReviewCacheSnapshot(data, reviews, existence);
+    }
+
+    /**
+     * Writes a snapshot, replacing the file atomically (where supported), so a crash while writing
+     * leaves the previous snapshot in place.
+     *
+     * @param reviews the cached reviews
+     * @param existence the cached existence answers
+     * @param previous the snapshot restored at startup, whose reviews that haven't been used yet
+     *            are carried over; or {@code null}
+     * @param maxAge number of milliseconds after they were loaded entries may be restored, to leave
+     *            out the previous snapshot's entries that are too old
+     */
+    static void write(File file, Map<String, Timed<List<GerritChange>>> reviews, Map<String, Timed<Boolean>> existence,
+            ReviewCacheSnapshot previous, long maxAge) throws IOException {
+        long oldest = System.currentTimeMillis() - maxAge;
+        Map<String, Pending> carriedOver = new LinkedHashMap<>();
+
+        if (previous != null) {
+            for (Map.Entry<String, Pending> entry : previous.reviews.entrySet()) {
+                if (entry.getValue().timestamp > oldest && !reviews.containsKey(entry.getKey())) {
+                    carriedOver.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(ReviewCodec.VERSION);
+                out.writeInt(reviews.size() + carriedOver.size());
+
+                for (Map.Entry<String, Timed<List<GerritChange>>> entry : reviews.entrySet()) {
+                    byte[] encoded = ReviewCodec.encode(entry.getValue().value);
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().timestamp);
+                    out.writeInt(encoded.length);
+                    out.write(encoded);
+                }
+
+                for (Map.Entry<String, Pending> entry : carriedOver.entrySet()) {
+                    // Still encoded the same way; no need to decode it just to encode it again
+                    Pending pending = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(pending.timestamp);
+                    out.writeInt(pending.length);
+                    out.write(previous.data, pending.offset, pending.length);
+                }
+
+                out.writeInt(existence.size());
+
+                for (Map.Entry<String, Timed<Boolean>> entry : existence.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().timestamp);
+                    out.writeBoolean(entry.getValue().value);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Decodes an issue's reviews, and forgets about them: from then on they're in the cache.
+     *
+     * @param key the cache key
+     * @param maxAge number of milliseconds after they were loaded the reviews may be restored
+     * @return the reviews, or {@code null} if there are none for the key, they are too old, or
+     *         they can't be decoded
+     */
+    Timed<List<GerritChange>> takeReviews(String key, long maxAge) {
+        Pending pending = reviews.remove(key);
+
+        if (pending == null || pending.timestamp <= System.currentTimeMillis() - maxAge) {
+            return null;
+        }
+
+        try {
+            return new Timed<>(ReviewCodec.decode(data, pending.offset, pending.length), pending.timestamp);
+        } catch (IOException e) {
+            log.warn("Ignoring corrupt reviews of " + key + " in the review cache snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Forgets an issue's reviews, which have changed since the snapshot was written.
+     */
+    void discard(String key) {
+        reviews.remove(key);
+    }
+
+    /**
+     * @param maxAge number of milliseconds after they were loaded the answers may be restored
+     * @return the existence answers that aren't too old
+     */
+    Map<String, Timed<Boolean>> getExistence(long maxAge) {
+        long oldest = System.currentTimeMillis() - maxAge;
+        Map<String, Timed<Boolean>> fresh = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Timed<Boolean>> entry : existence.entrySet()) {
+            if (entry.getValue().timestamp > oldest) {
+                fresh.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return fresh;
+    }
+
+    /**
+     * @return the number of issues whose reviews haven't been taken yet
+     */
+    int getPendingCount() {
+        return reviews.size();
+    }
+
+    /**
+     * Where an issue's encoded reviews are in the file.
+     */
+    private static final class Pending {
+        final long timestamp;
+        final int offset;
+        final int length;
+
+        Pending(long timestamp, int offset, int length) {
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops expired entries from the review caches every few seconds, so that the reviews of issues
+ * nobody views anymore don't stay on the heap until they are pushed out. Also applies the cache
+ * settings of the configuration (memory, cache period, retention, jitter and off-heap memory), so
+ * changes take effect within a sweep rather than on the request path.
+ */
+public class ReviewCacheSweeper implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCacheSweeper.class);
+
+    /** How often the caches are swept: 5 seconds */
+    private static final long SWEEP_INTERVAL_SECONDS = 5;
+
+    private final GerritConfiguration configuration;
+
+    private ScheduledExecutorService scheduler;
+
+    public ReviewCacheSweeper(GerritConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        applyConfiguration();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gerrit-cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    void sweep() {
+        try {
+            applyConfiguration();
+            int swept = IssueReviewsCache.sweep();
+
+            if (swept > 0) {
+                log.debug("Dropped " + swept + " expired review cache entries");
+            }
+        } catch (RuntimeException e) {
+            // A scheduled task that throws is never run again
+            log.warn("Error sweeping the review caches", e);
+        }
+    }
+
+    private void applyConfiguration() {
+        IssueReviewsCache.applyConfiguration(configuration);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsCache.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps the review caches of the nodes in a JIRA Data Center cluster coherent. Each node has its
+ * own caches, so this tells the other nodes when a node:
+ * <ul>
+ * <li>invalidates an issue (e.g., after reviewing its changes), so they stop serving the reviews
+ * they still have for it; and</li>
+ * <li>loads an issue's reviews from Gerrit, so they can answer whether the issue has any (open)
+ * reviews without querying Gerrit for it again; and</li>
+ * <li>flushes its caches from the administration page, so they flush theirs too.</li>
+ * </ul>
+ * The reviews themselves aren't sent: they're too big for cluster messages (see
+ * {@link #MAX_MESSAGE_LENGTH}), and each node loads them when an issue is viewed there.
+ * <p>
+ * A summary may be loaded before an issue is invalidated, and arrive after it. So for a cache
+ * period after an issue is invalidated, summaries of it are neither sent (if loaded before the
+ * invalidation) nor applied. A summary is also not sent again while the same one sent for the
+ * issue is still cached, so that repeated loads of an issue don't each send a message.
+ * <p>
+ * Messages are one line of text: <tt>I &lt;cache key&gt;</tt> to invalidate an issue, or
+ * <tt>S &lt;any&gt;&lt;open&gt; &lt;cache key&gt;</tt> for a summary, where each flag is
+ * <tt>1</tt>, <tt>0</tt>, or <tt>-</tt> when unknown; or <tt>F *</tt> to flush everything.
+ */
+public class ReviewCacheSync implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCacheSync.class);
+
+    /** Longest message JIRA's cluster messaging accepts */
+    static final int MAX_MESSAGE_LENGTH = 200;
+
+    private static final char INVALIDATE = 'I';
+    private static final char SUMMARY = 'S';
+    private static final char FLUSH = 'F';
+
+    /** Number of issues tracked before the ones older than a cache period are dropped */
+    private static final int MAX_TRACKED_KEYS = 1000;
+
+    /** The caches of this node */
+    private static final LocalCache STATIC_CACHE = new LocalCache() {
+        @Override
+        public void evict(String cacheKey) {
+            IssueReviewsCache.evict(cacheKey);
+        }
+
+        @Override
+        public void putExistence(String existenceKey, boolean exists) {
+            IssueReviewsCache.putExistence(existenceKey, exists);
+        }
+
+        @Override
+        public void flush() {
+            IssueReviewsCache.clear();
+        }
+
+        @Override
+        public long getExpiration() {
+            return IssueReviewsCache.getExpiration();
+        }
+    };
+
+    private final ReviewCacheTransport transport;
+    private final LocalCache cache;
+
+    /** When each issue was last invalidated, by this node or another one */
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+
+    /** The flags of the summary last sent for each issue, with when it was sent */
+    private final Map<String, Timed<String>> sentSummaries = new ConcurrentHashMap<>();
+
+    public ReviewCacheSync(ClusterMessagingService messagingService) {
+        this(new ClusterMessagingTransport(messagingService), STATIC_CACHE);
+    }
+
+    ReviewCacheSync(ReviewCacheTransport transport, LocalCache cache) {
+        this.transport = transport;
+        this.cache = cache;
+    }
+
+    @Override
+    public void onStart() {
+        transport.subscribe(this::receive);
+
+        if (cache == STATIC_CACHE) {
+            IssueReviewsCache.setSync(this);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        if (cache == STATIC_CACHE) {
+            IssueReviewsCache.setSync(null);
+        }
+
+        transport.unsubscribe();
+    }
+
+    /**
+     * Tells the other nodes to forget everything they have cached about an issue.
+     */
+    void invalidated(String cacheKey) {
+        recordInvalidation(cacheKey);
+        publish(INVALIDATE + " " + cacheKey);
+    }
+
+    /**
+     * Tells the other nodes whether an issue has any (open) reviews, unless the issue was
+     * invalidated since they were loaded, or they were already told.
+     *
+     * @param any whether the issue has any reviews; or {@code null} if unknown
+     * @param open whether the issue has any open reviews; or {@code null} if unknown
+     * @param loadedAt when the query the answers come from was sent
+     */
+    void refreshed(String cacheKey, Boolean any, Boolean open, long loadedAt) {
+        if (any == null && open == null) {
+            return;
+        }
+
+        Long invalidatedAt = invalidations.get(cacheKey);
+
+        if (invalidatedAt != null && invalidatedAt >= loadedAt) {
+            log.debug("Not sending the summary of " + cacheKey + ", which was invalidated while it was loaded");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        String flags = "" + toFlag(any) + toFlag(open);
+        Timed<String> sent = sentSummaries.get(cacheKey);
+
+        if (sent != null && sent.value.equals(flags) && sent.timestamp > now - cache.getExpiration()) {
+            return;
+        }
+
+        track(sentSummaries, cacheKey, new Timed<>(flags, now), summary -> summary.timestamp);
+        publish(SUMMARY + " " + flags + " " + cacheKey);
+    }
+
+    /**
+     * Tells the other nodes to forget everything they have cached.
+     */
+    void flushed() {
+        sentSummaries.clear();
+        publish(FLUSH + " *");
+    }
+
+    private void publish(String message) {
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            log.debug("Not sending a review cache message longer than " + MAX_MESSAGE_LENGTH + " characters: " + message);
+            return;
+        }
+
+        try {
+            transport.publish(message);
+        } catch (RuntimeException e) {
+            // The other nodes' entries still expire on their own
+            log.warn("Could not send review cache message '" + message + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a message from another node to this node's caches.
+     */
+    void receive(String message) {
+        if (message == null || message.length() < 3 || message.charAt(1) != ' ') {
+            log.debug("Ignoring malformed review cache message: " + message);
+            return;
+        }
+
+        switch (message.charAt(0)) {
+            case INVALIDATE:
+                recordInvalidation(message.substring(2));
+                cache.evict(message.substring(2));
+                break;
+            case SUMMARY:
+                if (message.length() < 6 || message.charAt(4) != ' ') {
+                    log.debug("Ignoring malformed review cache message: " + message);
+                    return;
+                }
+
+                String cacheKey = message.substring(5);
+
+                if (isRecentlyInvalidated(cacheKey)) {
+                    log.debug("Ignoring the summary of " + cacheKey + ", which may predate its invalidation");
+                    return;
+                }
+
+                putExistence(IssueReviewsCache.getExistenceKey(cacheKey, false), message.charAt(2));
+                putExistence(IssueReviewsCache.getExistenceKey(cacheKey, true), message.charAt(3));
+                break;
+            case FLUSH:
+                sentSummaries.clear();
+                cache.flush();
+                break;
+            default:
+                log.debug("Ignoring unknown review cache message: " + message);
+                break;
+        }
+    }
+
+    private void recordInvalidation(String cacheKey) {
+        // What was sent before no longer holds
+        sentSummaries.remove(cacheKey);
+        track(invalidations, cacheKey, System.currentTimeMillis(), Long::longValue);
+    }
+
+    private boolean isRecentlyInvalidated(String cacheKey) {
+        Long invalidatedAt = invalidations.get(cacheKey);
+        return invalidatedAt != null && invalidatedAt > System.currentTimeMillis() - cache.getExpiration();
+    }
+
+    /**
+     * Puts a value in one of the maps tracking recent events, first dropping those older than a
+     * cache period if it tracks too many issues.
+     */
+    private <V> void track(Map<String, V> recent, String cacheKey, V value, ToLongFunction<V> time) {
+        if (recent.size() >= MAX_TRACKED_KEYS) {
+            long oldest = System.currentTimeMillis() - cache.getExpiration();
+            recent.values().removeIf(tracked -> time.applyAsLong(tracked) <= oldest);
+        }
+
+        recent.put(cacheKey, value);
+    }
+
+    private void putExistence(String existenceKey, char flag) {
+        if (flag != '-') {
+            cache.putExistence(existenceKey, flag == '1');
+        }
+    }
+
+    private static char toFlag(Boolean value) {
+        return value == null ? '-' : value ? '1' : '0';
+    }
+
+    /**
+     * The caches messages from the other nodes are applied to.
+     */
+    interface LocalCache {
+        /**
+         * Forgets everything cached about an issue.
+         */
+        void evict(String cacheKey);
+
+        void putExistence(String existenceKey, boolean exists);
+
+        /**
+         * Forgets everything cached.
+         */
+        void flush();
+
+        /**
+         * @return number of milliseconds an entry may stay in the cache
+         */
+        long getExpiration();
+    }
+}
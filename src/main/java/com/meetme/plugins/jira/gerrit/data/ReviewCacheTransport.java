@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries {@link ReviewCacheSync} messages between the nodes of a cluster.
+ */
+public interface ReviewCacheTransport {
+    /**
+     * Sends a message to every other node; the sending node doesn't receive it.
+     *
+     * @param message the message; at most {@link ReviewCacheSync#MAX_MESSAGE_LENGTH} characters
+     */
+    void publish(String message);
+
+    /**
+     * Starts delivering the messages sent by the other nodes.
+     */
+    void subscribe(Consumer<String> receiver);
+
+    /**
+     * Stops delivering messages.
+     */
+    void unsubscribe();
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.metrics.CacheStats;
+
+import java.util.Map;
+
+/**
+ * Creates caches of the kind the plugin keeps reviews in, for code outside of the plugin that
+ * needs one on its own, such as the benchmarks comparing it against other implementations.
+ */
+public final class ReviewCaches {
+    private ReviewCaches() {
+    }
+
+    /**
+     * Creates a thread-safe cache bounded by entry count, whose entries also expire.
+     *
+     * @param capacity max number of entries
+     * @param expiration number of milliseconds an entry may stay in the cache
+     */
+    public static <V> Map<String, V> newTimedCache(int capacity, long expiration) {
+        return IssueReviewsCache.newTimedCache(capacity, expiration, new CacheStats());
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritChangeKind;
+import com.sonymobile.tools.gerrit.gerritevents.dto.GerritChangeStatus;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Account;
+import com.sonymobile.tools.gerrit.gerritevents.dto.rest.Topic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of a list of {@link GerritChange}s, with the fields the panels, conditions
+ * and workflow functions use.
+ * <p>
+ * Strings are written once per list and referenced by index after that, since the same accounts,
+ * project and branch names come up over and over. Anything that changes the format must bump
+ * {@link #VERSION}, so that data written by an older version is discarded instead of misread.
+ */
+final class ReviewCodec {
+    static final int VERSION = 1;
+
+    private static final int STRING_NULL = 0;
+    private static final int STRING_NEW = 1;
+    private static final int STRING_REF = 2;
+
+    private ReviewCodec() {
+    }
+
+    static byte[] encode(List<GerritChange> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * (changes.size() + 1));
+
+        try {
+            new Writer(new DataOutputStream(bytes)).writeChanges(changes);
+        } catch (IOException e) {
+            // Can't happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the data is truncated or otherwise corrupt
+     */
+    static List<GerritChange> decode(byte[] data, int offset, int length) throws IOException {
+        try {
+            return new Reader(new DataInputStream(new ByteArrayInputStream(data, offset, length))).readChanges();
+        } catch (RuntimeException e) {
+            // e.g. an unknown enum constant, or a string reference out of range
+            throw new IOException("Invalid review data", e);
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeChanges(List<GerritChange> changes) throws IOException {
+            writeVarInt(changes.size());
+
+            for (GerritChange change : changes) {
+                writeString(change.getServer());
+                writeString(change.getProject());
+                writeString(change.getBranch());
+                writeString(change.getId());
+                writeString(change.getNumber());
+                writeString(change.getSubject());
+                writeString(change.getUrl());
+                writeString(change.getCommitMessage());
+                writeString(change.getTopicObject() == null ? null : change.getTopicObject().getName());
+                writeAccount(change.getOwner());
+                writeDate(change.getCreatedOn());
+                writeDate(change.getLastUpdated());
+                out.writeBoolean(change.isOpen());
+                writeString(change.getStatus() == null ? null : change.getStatus().name());
+                writePatchSet(change.getPatchSet());
+            }
+        }
+
+        private void writePatchSet(GerritPatchSet patchSet) throws IOException {
+            out.writeBoolean(patchSet != null);
+
+            if (patchSet == null) {
+                return;
+            }
+
+            writeString(patchSet.getNumber());
+            writeString(patchSet.getRevision());
+            writeString(patchSet.getRef());
+            writeAccount(patchSet.getUploader());
+            writeDate(patchSet.getCreatedOn());
+            out.writeBoolean(patchSet.isDraft());
+            writeString(patchSet.getKind() == null ? null : patchSet.getKind().name());
+
+            List<GerritApproval> approvals = patchSet.getApprovals();
+            writeVarInt(approvals == null ? 0 : approvals.size() + 1);
+
+            if (approvals != null) {
+                for (GerritApproval approval : approvals) {
+                    writeString(approval.getType());
+                    writeString(approval.getValue());
+                    writeAccount(approval.getBy());
+                }
+            }
+        }
+
+        private void writeAccount(Account account) throws IOException {
+            out.writeBoolean(account != null);
+
+            if (account != null) {
+                writeString(account.getName());
+                writeString(account.getEmail());
+                writeString(account.getUsername());
+            }
+        }
+
+        private void writeDate(Date date) throws IOException {
+            out.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(STRING_NULL);
+                return;
+            }
+
+            Integer index = strings.get(value);
+
+            if (index != null) {
+                writeVarInt(STRING_REF + index);
+                return;
+            }
+
+            strings.put(value, strings.size());
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(STRING_NEW);
+            writeVarInt(utf8.length);
+            out.write(utf8);
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+
+            out.writeByte(value);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<GerritChange> readChanges() throws IOException {
+            int count = readLength();
+            List<GerritChange> changes = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                GerritChange change = new GerritChange();
+                change.setServer(readString());
+                change.setProject(readString());
+                change.setBranch(readString());
+                change.setId(readString());
+                change.setNumber(readString());
+                change.setSubject(readString());
+                change.setUrl(readString());
+                change.setCommitMessage(readString());
+
+                String topic = readString();
+                if (topic != null) {
+                    change.setTopicObject(new Topic(topic));
+                }
+
+                change.setOwner(readAccount());
+                change.setCreatedOn(readDate());
+                change.setLastUpdated(readDate());
+                change.setOpen(in.readBoolean());
+
+                String status = readString();
+                if (status != null) {
+                    change.setStatus(GerritChangeStatus.valueOf(status));
+                }
+
+                change.setPatchSet(readPatchSet());
+                changes.add(change);
+            }
+
+            return changes;
+        }
+
+        private GerritPatchSet readPatchSet() throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+
+            GerritPatchSet patchSet = new GerritPatchSet();
+            patchSet.setNumber(readString());
+            patchSet.setRevision(readString());
+            patchSet.setRef(readString());
+            patchSet.setUploader(readAccount());
+            patchSet.setCreatedOn(readDate());
+            patchSet.setDraft(in.readBoolean());
+
+            String kind = readString();
+            if (kind != null) {
+                patchSet.setKind(GerritChangeKind.valueOf(kind));
+            }
+
+            int approvalCount = readVarInt() - 1;
+
+            if (approvalCount >= 0) {
+                checkLength(approvalCount);
+                List<GerritApproval> approvals = new ArrayList<>(approvalCount);
+
+                for (int i = 0; i < approvalCount; i++) {
+                    GerritApproval approval = new GerritApproval();
+                    approval.setType(readString());
+                    approval.setValue(readString());
+                    approval.setBy(readAccount());
+                    approvals.add(approval);
+                }
+
+                patchSet.setApprovals(approvals);
+            }
+
+            return patchSet;
+        }
+
+        private Account readAccount() throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+
+            Account account = new Account(readString(), readString());
+            account.setUsername(readString());
+            return account;
+        }
+
+        private Date readDate() throws IOException {
+            long time = in.readLong();
+            return time == Long.MIN_VALUE ? null : new Date(time);
+        }
+
+        private String readString() throws IOException {
+            int code = readVarInt();
+
+            if (code == STRING_NULL) {
+                return null;
+            } else if (code == STRING_NEW) {
+                byte[] utf8 = new byte[readLength()];
+                in.readFully(utf8);
+                String value = new String(utf8, StandardCharsets.UTF_8);
+                strings.add(value);
+                return value;
+            } else if (code >= STRING_REF && code - STRING_REF < strings.size()) {
+                return strings.get(code - STRING_REF);
+            }
+
+            throw new IOException("Invalid string reference: " + code);
+        }
+
+        private int readLength() throws IOException {
+            return checkLength(readVarInt());
+        }
+
+        /**
+         * Rejects a count or length that is more than the bytes left, since every item takes at
+         * least one byte, rather than allocating for it.
+         */
+        private int checkLength(int length) throws IOException {
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Invalid length: " + length);
+            }
+
+            return length;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readByte();
+                value |= (b & 0x7f) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Invalid variable-length integer");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically loads the reviews of each known Gerrit project with a single, paginated,
+ * project-wide query (see {@link IssueReviewsManager#prefetchReviews(String)}), instead of one
+ * query per viewed issue.
+ * <p>
+ * Runs every {@link GerritConfiguration#getPrefetchInterval()} seconds on each node, since the
+ * caches are local to the node; a change to the interval takes effect after the next run.
+ */
+public class ReviewPrefetcher implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(ReviewPrefetcher.class);
+
+    /** How often to check whether prefetching was enabled, while it is disabled: 1 minute */
+    private static final long DISABLED_CHECK_SECONDS = 60;
+
+    private final GerritConfiguration configuration;
+    private final ProjectManager projectManager;
+    private final IssueReviewsManager reviewsManager;
+
+    private ScheduledExecutorService scheduler;
+
+    public ReviewPrefetcher(GerritConfiguration configuration, ProjectManager projectManager, IssueReviewsManager reviewsManager) {
+        this.configuration = configuration;
+        this.projectManager = projectManager;
+        this.reviewsManager = reviewsManager;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gerrit-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduleNext();
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if (scheduler != null) {
+            int interval = configuration.getPrefetchInterval();
+            scheduler.schedule(this::run, interval > 0 ? interval : DISABLED_CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void run() {
+        try {
+            if (configuration.getPrefetchInterval() > 0) {
+                prefetchAll();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error prefetching reviews", e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Prefetches the reviews of every known Gerrit project.
+     */
+    void prefetchAll() {
+        for (String projectId : configuration.getIdsOfKnownGerritProjects()) {
+            Project project;
+
+            try {
+                project = projectManager.getProjectObj(Long.parseLong(projectId));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid project id in the Gerrit project list: " + projectId);
+                continue;
+            }
+
+            if (project == null) {
+                continue;
+            }
+
+            long start = System.currentTimeMillis();
+
+            try {
+                int issues = reviewsManager.prefetchReviews(project.getKey());
+                log.debug("Prefetched reviews of " + issues + " issues in " + project.getKey() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (GerritQueryException e) {
+                // Already logged per server; the project's issues are queried one by one until the next run
+                log.debug("Could not prefetch reviews of " + project.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.user.ApplicationUser;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Resolves the email addresses of Gerrit accounts to JIRA users.
+ */
+public interface UserEmailResolver {
+
+    /**
+     * Finds the JIRA user with the given email address.
+     *
+     * @param email the email address
+     * @return the first matching user, or {@code null} if there is none
+     */
+    ApplicationUser getUserByEmail(String email);
+
+    /**
+     * Finds the JIRA users for all of the given email addresses at once.
+     *
+     * @param emails the email addresses; duplicates and {@code null}s are allowed
+     * @return the matching users, keyed by email address as given; emails without a matching user
+     *         are left out
+     */
+    Map<String, ApplicationUser> getUsersByEmail(Collection<String> emails);
+}
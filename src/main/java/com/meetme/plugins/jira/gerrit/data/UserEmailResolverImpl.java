@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.bc.user.search.UserSearchService;
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches email to JIRA user lookups, since every approval on every change would otherwise search
+ * the user directory (which may well be LDAP-backed) on each render. Unknown emails are cached as
+ * well, so accounts that only exist in Gerrit don't cause repeated searches.
+ */
+public class UserEmailResolverImpl implements UserEmailResolver {
+    private static final Logger log = LoggerFactory.getLogger(UserEmailResolverImpl.class);
+
+    /** Max number of email addresses to remember */
+    private static final int CACHE_CAPACITY = 2000;
+
+    /** Number of minutes before a user is looked up again, so directory changes are picked up */
+    private static final long CACHE_EXPIRATION_MINUTES = 10;
+
+    private final Supplier<UserSearchService> userSearchService;
+
+    private final Cache<String, Optional<ApplicationUser>> usersByEmail = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_CAPACITY)
+            .expireAfterWrite(CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    public UserEmailResolverImpl() {
+        this(Suppliers.memoize(() -> ComponentAccessor.getComponent(UserSearchService.class)));
+    }
+
+    UserEmailResolverImpl(Supplier<UserSearchService> userSearchService) {
+        this.userSearchService = userSearchService;
+    }
+
+    @Override
+    public ApplicationUser getUserByEmail(String email) {
+        if (email == null || email.isEmpty()) {
+            return null;
+        }
+
+        String key = email.toLowerCase(Locale.ENGLISH);
+        Optional<ApplicationUser> user = usersByEmail.getIfPresent(key);
+
+        if (user == null) {
+            user = Optional.ofNullable(findUserByEmail(email));
+            usersByEmail.put(key, user);
+        }
+
+        return user.orElse(null);
+    }
+
+    @Override
+    public Map<String, ApplicationUser> getUsersByEmail(Collection<String> emails) {
+        Map<String, ApplicationUser> users = new HashMap<>();
+        Map<String, Optional<ApplicationUser>> resolved = new HashMap<>();
+
+        for (String email : emails) {
+            if (email == null || email.isEmpty() || users.containsKey(email)) {
+                continue;
+            }
+
+            // Each distinct address is searched at most once per batch, even when the cache is full
+            String key = email.toLowerCase(Locale.ENGLISH);
+            Optional<ApplicationUser> user = resolved.get(key);
+
+            if (user == null) {
+                user = Optional.ofNullable(getUserByEmail(email));
+                resolved.put(key, user);
+            }
+
+            user.ifPresent(u -> users.put(email, u));
+        }
+
+        return users;
+    }
+
+    private ApplicationUser findUserByEmail(String email) {
+        log.debug("Searching for user by email: {}", email);
+        Iterator<ApplicationUser> users = userSearchService.get().findUsersByEmail(email).iterator();
+
+        if (users.hasNext()) {
+            return users.next();
+        }
+
+        return null;
+    }
+}
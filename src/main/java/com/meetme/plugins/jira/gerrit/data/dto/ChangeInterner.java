@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data.dto;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Account;
+
+import java.util.Objects;
+
+/**
+ * Shrinks the changes kept by the reviews cache: the strings that repeat across changes (project,
+ * branch, server, labels and scores) and the accounts of owners, uploaders and reviewers are
+ * shared, instead of every change holding its own copies of them.
+ * <p>
+ * The shared instances are only weakly held, so they are released along with the last change that
+ * refers to them.
+ */
+public final class ChangeInterner {
+    private final Interner<String> strings = Interners.newWeakInterner();
+    private final Interner<SharedAccount> accounts = Interners.newWeakInterner();
+
+    /**
+     * Replaces the repeated values of the change, its current patch set and its approvals with
+     * their shared instances. The change must not be modified afterwards, as the accounts are
+     * shared with other changes.
+     *
+     * @param change the change, as parsed from Gerrit
+     * @return the same change
+     */
+    public GerritChange compact(GerritChange change) {
+        change.setServer(string(change.getServer()));
+        change.setProject(string(change.getProject()));
+        change.setBranch(string(change.getBranch()));
+        change.setOwner(account(change.getOwner()));
+
+        GerritPatchSet patchSet = change.getPatchSet();
+
+        if (patchSet != null) {
+            patchSet.setUploader(account(patchSet.getUploader()));
+
+            if (patchSet.getApprovals() != null) {
+                for (GerritApproval approval : patchSet.getApprovals()) {
+                    approval.setType(string(approval.getType()));
+                    approval.setValue(string(approval.getValue()));
+                    approval.setBy(account(approval.getBy()));
+                }
+            }
+        }
+
+        return change;
+    }
+
+    String string(String value) {
+        return value == null ? null : strings.intern(value);
+    }
+
+    Account account(Account account) {
+        if (account == null || account instanceof SharedAccount) {
+            return account;
+        }
+
+        return accounts.intern(new SharedAccount(string(account.getName()), string(account.getEmail()),
+                string(account.getUsername())));
+    }
+
+    /**
+     * An account that is equal to any other with the same name, email and username, so it can be
+     * interned.
+     */
+    private static final class SharedAccount extends Account {
+        SharedAccount(String name, String email, String username) {
+            super(name, email);
+            setUsername(username);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof SharedAccount)) {
+                return false;
+            }
+
+            SharedAccount other = (SharedAccount) obj;
+            return Objects.equals(getName(), other.getName()) && Objects.equals(getEmail(), other.getEmail())
+                    && Objects.equals(getUsername(), other.getUsername());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(getName(), getEmail(), getUsername());
+        }
+    }
+}
@@ -44,7 +44,17 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
         NEW, SUBMITTED, DRAFT, MERGED, ABANDONED
     }
 
-    private Date lastUpdated;
+    /** Marks an unknown {@link #getLastUpdatedMillis() last updated} time */
+    public static final long NO_TIMESTAMP = 0;
+
+    /**
+     * Kept as epoch millis rather than a {@link Date}, since cached changes hold on to it. No
+     * initializer, since {@code super(obj)} parses it before field initializers run.
+     */
+    private long lastUpdated;
+
+    /** {@link #getNumber()} as an int, parsed on first use; 0 until then */
+    private int changeNumber;
 
     private GerritPatchSet patchSet;
 
@@ -52,6 +62,9 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
 
     private GerritChangeStatus status;
 
+    /** Name of the Gerrit server the change was loaded from; {@code null} for the default server */
+    private String server;
+
     public GerritChange() {
         super();
     }
@@ -80,19 +93,33 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
     @Override
     public int compareTo(GerritChange obj) {
         if (this != obj && obj != null) {
-            int aNum = Integer.parseInt(this.getNumber());
-            int bNum = Integer.parseInt(obj.getNumber());
-
-            if (aNum == bNum) {
-                return 0;
-            } else {
-                return aNum < bNum ? -1 : 1;
-            }
+            return Integer.compare(getChangeNumber(), obj.getChangeNumber());
         }
 
         return 0;
     }
 
+    /**
+     * @return the Gerrit change number; parsed once, so sorting does not parse it on every
+     *         comparison
+     */
+    public int getChangeNumber() {
+        int number = changeNumber;
+
+        if (number == 0) {
+            number = Integer.parseInt(getNumber());
+            changeNumber = number;
+        }
+
+        return number;
+    }
+
+    @Override
+    public void setNumber(String number) {
+        super.setNumber(number);
+        this.changeNumber = 0;
+    }
+
     @Override
     public void fromJson(JSONObject json) {
         this.fromJsonSSH(json, GerritEventKeys.CONNECTION_TYPE_SSH);
@@ -100,7 +127,7 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
 
     private void fromJsonSSH(JSONObject json, String connectionType) {
         super.fromJson(json);
-        this.lastUpdated = new Date(1000 * json.getLong(LAST_UPDATED));
+        this.lastUpdated = 1000 * json.getLong(LAST_UPDATED);
 
         if (json.containsKey(GerritEventKeys.CURRENT_PATCH_SET)) {
             this.patchSet = new GerritPatchSet(json.getJSONObject(GerritEventKeys.CURRENT_PATCH_SET), connectionType);
@@ -128,8 +155,9 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
         if(json.containsKey("current_revision")) {
             String revision = GerritJsonEventFactory.getString(json, "current_revision");
             JSONObject jsonRevision = json.getJSONObject("revisions").getJSONObject(revision);
-            JSONObject jsonCommit = jsonRevision.getJSONObject("commit");
-            if (jsonCommit.containsKey("message")) {
+            // Only there when the commit was asked for (CURRENT_COMMIT)
+            JSONObject jsonCommit = jsonRevision.optJSONObject("commit");
+            if (jsonCommit != null && jsonCommit.containsKey("message")) {
                 String commitMessage = GerritJsonEventFactory.getString(jsonCommit, "message");
                 this.setCommitMessage(commitMessage);
             }
@@ -156,8 +184,7 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         try {
             this.setCreatedOn(sdf.parse(dateCreated));
-            this.lastUpdated = sdf.parse(dateUpdated);
-            super.setLastUpdated(lastUpdated);
+            this.lastUpdated = sdf.parse(dateUpdated).getTime();
         } catch (ParseException e) {
             e.printStackTrace();
         }
@@ -224,7 +251,15 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
         }
     }
 
+    @Override
     public Date getLastUpdated() {
+        return lastUpdated == NO_TIMESTAMP ? null : new Date(lastUpdated);
+    }
+
+    /**
+     * @return the last updated time in epoch millis, or {@link #NO_TIMESTAMP} if unknown
+     */
+    public long getLastUpdatedMillis() {
         return lastUpdated;
     }
 
@@ -240,8 +275,13 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
         return isOpen;
     }
 
+    public String getServer() {
+        return server;
+    }
+
+    @Override
     public void setLastUpdated(Date lastUpdated) {
-        this.lastUpdated = lastUpdated;
+        this.lastUpdated = lastUpdated == null ? NO_TIMESTAMP : lastUpdated.getTime();
     }
 
     public void setOpen(boolean isOpen) {
@@ -255,4 +295,25 @@ public class GerritChange extends Change implements Comparable<GerritChange> {
     public void setStatus(GerritChangeStatus status) {
         this.status = status;
     }
+
+    public void setServer(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @return a rough estimate of the memory, in bytes, this change and its current patch set take;
+     *         mostly driven by the commit message and the number of approvals. The project, branch,
+     *         server and owner are left out, as they are shared once the change is
+     *         {@link ChangeInterner#compact(GerritChange) compacted}.
+     */
+    public long getEstimatedSize() {
+        long size = SizeEstimates.CHANGE + SizeEstimates.string(getId()) + SizeEstimates.string(getNumber())
+                + SizeEstimates.string(getSubject()) + SizeEstimates.string(getUrl()) + SizeEstimates.string(getCommitMessage());
+
+        if (patchSet != null) {
+            size += patchSet.getEstimatedSize();
+        }
+
+        return size;
+    }
 }
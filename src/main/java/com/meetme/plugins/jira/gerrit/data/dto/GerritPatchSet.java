@@ -37,6 +37,12 @@ public class GerritPatchSet extends PatchSet {
 
     private List<GerritApproval> approvals;
 
+    /**
+     * Computed whenever {@link #approvals} is set. No initializer, since {@code super(json)} parses
+     * the approvals before field initializers run.
+     */
+    private LabelScores labelScores;
+
     public GerritPatchSet() {
         super();
     }
@@ -102,6 +108,8 @@ public class GerritPatchSet extends PatchSet {
                 GerritApproval approval = new GerritApproval(eventApprovals.getJSONObject(i));
                 approvals.add(approval);
             }
+
+            labelScores = LabelScores.of(approvals);
         } else {
             log.warn("GerritPatchSet contains no approvals key.");
         }
@@ -139,7 +147,30 @@ public class GerritPatchSet extends PatchSet {
         return filtered;
     }
 
+    /**
+     * @return the per-label summary of the approvals on this patch set
+     */
+    public LabelScores getLabelScores() {
+        return labelScores != null ? labelScores : LabelScores.EMPTY;
+    }
+
     public void setApprovals(List<GerritApproval> approvals) {
         this.approvals = approvals;
+        this.labelScores = LabelScores.of(approvals);
+    }
+
+    /**
+     * @return a rough estimate of the memory, in bytes, this patch set and its approvals take; the
+     *         labels, scores and accounts are shared between changes, so only count as references
+     */
+    public long getEstimatedSize() {
+        long size = SizeEstimates.PATCH_SET + SizeEstimates.string(getNumber()) + SizeEstimates.string(getRevision())
+                + SizeEstimates.string(getRef());
+
+        if (approvals != null) {
+            size += (long) SizeEstimates.APPROVAL * approvals.size();
+        }
+
+        return size;
     }
 }
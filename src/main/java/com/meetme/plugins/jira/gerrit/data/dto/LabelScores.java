@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data.dto;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable summary of the scores given on a patch set, computed once when the approvals are
+ * parsed, so that workflow conditions and templates don't need to scan every approval.
+ * <p>
+ * Per-label values are kept in primitive arrays indexed by a label id, which is interned the first
+ * time a label is seen. Gerrit installations only define a handful of labels, so the arrays stay
+ * small.
+ */
+public final class LabelScores {
+    /** Exact scores are tracked for [-32, 31]; anything beyond that only by min/max */
+    private static final int MASK_OFFSET = 32;
+
+    private static final ConcurrentMap<String, Integer> labelIds = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextLabelId = new AtomicInteger();
+
+    public static final LabelScores EMPTY = new LabelScores(0, null, 0);
+
+    private final int[] min;
+    private final int[] max;
+    private final int[] significant;
+    private final int[] voters;
+    private final long[] scoreMasks;
+    private final GerritApproval[] significantApprovals;
+
+    /** The most significant approval across all labels */
+    private final GerritApproval significantApproval;
+    private final int significantScore;
+    private final int voterCount;
+
+    private LabelScores(int size, GerritApproval significantApproval, int voterCount) {
+        this.significantApproval = significantApproval;
+        this.significantScore = significantApproval == null ? 0 : significantApproval.getValueAsInt();
+        this.voterCount = voterCount;
+
+        min = new int[size];
+        max = new int[size];
+        significant = new int[size];
+        voters = new int[size];
+        scoreMasks = new long[size];
+        significantApprovals = new GerritApproval[size];
+    }
+
+    /**
+     * Summarizes the given approvals.
+     *
+     * @param approvals the patch set approvals; may be {@code null}
+     * @return the summary
+     */
+    public static LabelScores of(List<GerritApproval> approvals) {
+        if (approvals == null || approvals.isEmpty()) {
+            return EMPTY;
+        }
+
+        int size = approvals.size();
+        int[] ids = new int[size];
+        int[] values = new int[size];
+        int maxId = -1;
+        int minIndex = 0, maxIndex = 0;
+
+        for (int i = 0; i < size; i++) {
+            GerritApproval approval = approvals.get(i);
+            String type = approval.getType();
+
+            ids[i] = type == null ? -1 : internLabel(type);
+            values[i] = approval.getValueAsInt();
+            maxId = Math.max(maxId, ids[i]);
+
+            if (values[i] < values[minIndex]) {
+                minIndex = i;
+            }
+
+            if (values[i] > values[maxIndex]) {
+                maxIndex = i;
+            }
+        }
+
+        GerritApproval significantApproval = approvals.get(values[minIndex] < 0 ? minIndex : maxIndex);
+        LabelScores scores = new LabelScores(maxId + 1, significantApproval, size);
+
+        for (int i = 0; i < size; i++) {
+            if (ids[i] >= 0) {
+                scores.add(ids[i], values[i]);
+            }
+        }
+
+        // Per-label significant approvals are the first ones with the significant score
+        for (int i = 0; i < size; i++) {
+            int id = ids[i];
+
+            if (id >= 0 && scores.significantApprovals[id] == null && values[i] == scores.significant[id]) {
+                scores.significantApprovals[id] = approvals.get(i);
+            }
+        }
+
+        return scores;
+    }
+
+    private void add(int id, int value) {
+        if (voters[id] == 0) {
+            min[id] = value;
+            max[id] = value;
+        } else {
+            min[id] = Math.min(min[id], value);
+            max[id] = Math.max(max[id], value);
+        }
+
+        voters[id]++;
+        significant[id] = min[id] < 0 ? min[id] : max[id];
+
+        if (value >= -MASK_OFFSET && value < MASK_OFFSET) {
+            scoreMasks[id] |= 1L << (value + MASK_OFFSET);
+        }
+    }
+
+    private static int internLabel(String label) {
+        return labelIds.computeIfAbsent(label, k -> nextLabelId.getAndIncrement());
+    }
+
+    /**
+     * @return the label's id within this summary, or -1 if nobody scored it
+     */
+    private int indexOf(String label) {
+        Integer id = label == null ? null : labelIds.get(label);
+
+        if (id == null || id >= voters.length || voters[id] == 0) {
+            return -1;
+        }
+
+        return id;
+    }
+
+    /**
+     * @return whether anybody scored the label
+     */
+    public boolean hasLabel(String label) {
+        return indexOf(label) >= 0;
+    }
+
+    /**
+     * @return the number of approvals given for the label
+     */
+    public int getVoterCount(String label) {
+        int id = indexOf(label);
+        return id < 0 ? 0 : voters[id];
+    }
+
+    /**
+     * @return the total number of approvals, across all labels
+     */
+    public int getVoterCount() {
+        return voterCount;
+    }
+
+    /**
+     * @return the lowest score given to the label; 0 if nobody scored it
+     */
+    public int getMin(String label) {
+        int id = indexOf(label);
+        return id < 0 ? 0 : min[id];
+    }
+
+    /**
+     * @return the highest score given to the label; 0 if nobody scored it
+     */
+    public int getMax(String label) {
+        int id = indexOf(label);
+        return id < 0 ? 0 : max[id];
+    }
+
+    /**
+     * @return whether anybody gave exactly {@code score} to the label
+     */
+    public boolean contains(String label, int score) {
+        int id = indexOf(label);
+
+        if (id < 0 || score < min[id] || score > max[id]) {
+            return false;
+        }
+
+        if (score >= -MASK_OFFSET && score < MASK_OFFSET) {
+            return (scoreMasks[id] & (1L << (score + MASK_OFFSET))) != 0;
+        }
+
+        // Out of range scores only happen with unusual label definitions; min/max is close enough
+        return score == min[id] || score == max[id];
+    }
+
+    /**
+     * Returns the lowest score below 0 if available; otherwise the highest score.
+     *
+     * @return the most significant score for the label; 0 if nobody scored it
+     */
+    public int getMostSignificantScore(String label) {
+        int id = indexOf(label);
+        return id < 0 ? 0 : significant[id];
+    }
+
+    /**
+     * @return the (first) approval with the most significant score for the label, or {@code null}
+     */
+    public GerritApproval getMostSignificantApproval(String label) {
+        int id = indexOf(label);
+        return id < 0 ? null : significantApprovals[id];
+    }
+
+    /**
+     * @return the most significant score across all labels; 0 if there are no approvals
+     */
+    public int getMostSignificantScore() {
+        return significantScore;
+    }
+
+    /**
+     * @return the (first) approval with the most significant score across all labels, or
+     *         {@code null}
+     */
+    public GerritApproval getMostSignificantApproval() {
+        return significantApproval;
+    }
+}
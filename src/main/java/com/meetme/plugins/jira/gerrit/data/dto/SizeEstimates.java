@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data.dto;
+
+/**
+ * Rough estimates of the heap retained by the parsed changes, for caches bounded by memory rather
+ * than entry count. They only need to be proportional to the real sizes, so they count the
+ * characters of every string (at 2 bytes each) plus a fixed overhead per object.
+ */
+final class SizeEstimates {
+    /** Object header, fields and the creation {@code Date} of a change */
+    static final int CHANGE = 216;
+
+    /** Object header and fields of a patch set, including its (empty) lists */
+    static final int PATCH_SET = 160;
+
+    /** An approval, and its share of the patch set's label scores */
+    static final int APPROVAL = 120;
+
+    /** Object header, hash and backing array header */
+    private static final int STRING = 40;
+
+    private SizeEstimates() {
+    }
+
+    static long string(String value) {
+        return value == null ? 0 : STRING + 2L * value.length();
+    }
+}
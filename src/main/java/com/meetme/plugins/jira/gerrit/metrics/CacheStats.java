@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit, miss, load and eviction counts of one of the plugin's caches.
+ */
+public class CacheStats implements CacheStatsMBean {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long weight;
+    private volatile long maxWeight;
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Records a value loaded from Gerrit and stored in the cache.
+     */
+    public void recordLoad() {
+        loads.increment();
+    }
+
+    /**
+     * Records an entry removed because the cache was full, or because it expired.
+     */
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * Records the estimated memory the cache's entries take now, and may take at most.
+     */
+    public void recordWeight(long weight, long maxWeight) {
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : Math.round(1000.0 * hits / total) / 1000.0;
+    }
+
+    @Override
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getWeightKilobytes() {
+        return weight / 1024;
+    }
+
+    public long getMaxWeightKilobytes() {
+        return maxWeight / 1024;
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        loads.reset();
+        evictions.reset();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+/**
+ * JMX view of a {@link CacheStats}.
+ */
+public interface CacheStatsMBean {
+    long getHits();
+
+    long getMisses();
+
+    long getLoads();
+
+    long getEvictions();
+
+    double getHitRatio();
+
+    /**
+     * @return the estimated memory, in bytes, the entries take; 0 if the cache is bounded by entry
+     *         count instead
+     */
+    long getWeight();
+
+    /**
+     * @return the estimated memory, in bytes, the entries may take; 0 if the cache is bounded by
+     *         entry count instead
+     */
+    long getMaxWeight();
+}
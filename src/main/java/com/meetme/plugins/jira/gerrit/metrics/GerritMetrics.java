@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies, failure counts and cache statistics of the plugin's calls to Gerrit, shown on the
+ * admin page and exposed over JMX under the <tt>com.meetme.plugins.jira.gerrit</tt> domain.
+ * <p>
+ * The metrics are kept in a single static instance, like {@code IssueReviewsCache}, so that the
+ * code paths that aren't components (such as the review commands) can record them too. The MBeans
+ * are only registered while the plugin runs (see {@link GerritMetricsExporter}), so they don't
+ * keep the plugin's class loader around once it is uninstalled.
+ */
+public final class GerritMetrics implements GerritMetricsMBean {
+    private static final Logger log = LoggerFactory.getLogger(GerritMetrics.class);
+
+    public static final String JMX_DOMAIN = "com.meetme.plugins.jira.gerrit";
+
+    private static final GerritMetrics INSTANCE = new GerritMetrics();
+
+    private final LatencyHistogram querySsh = new LatencyHistogram();
+    private final LatencyHistogram queryHttp = new LatencyHistogram();
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram sshConnect = new LatencyHistogram();
+    private final LatencyHistogram reviewSsh = new LatencyHistogram();
+    private final LatencyHistogram reviewHttp = new LatencyHistogram();
+    private final LatencyHistogram reviewsLoad = new LatencyHistogram();
+
+    private final CacheStats reviewsCache = new CacheStats();
+    private final CacheStats existenceCache = new CacheStats();
+    private final CacheStats offHeapReviewsCache = new CacheStats();
+    private final CacheStats commitMessageCache = new CacheStats();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder queryFailures = new LongAdder();
+    private final LongAdder reviewFailures = new LongAdder();
+
+    private final RequestOffenders requestOffenders = new RequestOffenders();
+
+    /** The names of the registered MBeans */
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    private GerritMetrics() {
+    }
+
+    public static GerritMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Marks the start of a Gerrit query or review command.
+     *
+     * @return the start time, to pass to {@link #endQuery} or {@link #endReview}
+     */
+    public long startCall() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void endQuery(boolean http, long startNanos, boolean success) {
+        long nanos = System.nanoTime() - startNanos;
+        inFlight.decrementAndGet();
+        (http ? queryHttp : querySsh).record(nanos);
+        RequestAccounting.recordRoundTrip(nanos);
+
+        if (!success) {
+            queryFailures.increment();
+        }
+    }
+
+    public void endReview(boolean http, long startNanos, boolean success) {
+        long nanos = System.nanoTime() - startNanos;
+        inFlight.decrementAndGet();
+        (http ? reviewHttp : reviewSsh).record(nanos);
+        RequestAccounting.recordRoundTrip(nanos);
+
+        if (!success) {
+            reviewFailures.increment();
+        }
+    }
+
+    /**
+     * @return time spent turning query results into changes
+     */
+    public LatencyHistogram getParseTime() {
+        return parse;
+    }
+
+    /**
+     * @return time spent opening SSH connections for review commands
+     */
+    public LatencyHistogram getSshConnectTime() {
+        return sshConnect;
+    }
+
+    /**
+     * @return time spent loading an issue's reviews on a cache miss, queries and parsing included
+     */
+    public LatencyHistogram getReviewsLoadTime() {
+        return reviewsLoad;
+    }
+
+    /**
+     * @return the requests that made the most Gerrit calls
+     */
+    public RequestOffenders getRequestOffenders() {
+        return requestOffenders;
+    }
+
+    public CacheStats getReviewsCache() {
+        return reviewsCache;
+    }
+
+    public CacheStats getExistenceCache() {
+        return existenceCache;
+    }
+
+    public CacheStats getOffHeapReviewsCache() {
+        return offHeapReviewsCache;
+    }
+
+    public CacheStats getCommitMessageCache() {
+        return commitMessageCache;
+    }
+
+    /**
+     * @return every latency histogram, by display name
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        histograms.put("QueryLatencySsh", querySsh);
+        histograms.put("QueryLatencyHttp", queryHttp);
+        histograms.put("ParseTime", parse);
+        histograms.put("SshConnectTime", sshConnect);
+        histograms.put("ReviewLatencySsh", reviewSsh);
+        histograms.put("ReviewLatencyHttp", reviewHttp);
+        histograms.put("ReviewsLoadTime", reviewsLoad);
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return every cache's statistics, by display name
+     */
+    public Map<String, CacheStats> getCaches() {
+        Map<String, CacheStats> caches = new LinkedHashMap<>();
+        caches.put("ReviewsCache", reviewsCache);
+        caches.put("ExistenceCache", existenceCache);
+        caches.put("OffHeapReviewsCache", offHeapReviewsCache);
+        caches.put("CommitMessageCache", commitMessageCache);
+        return Collections.unmodifiableMap(caches);
+    }
+
+    @Override
+    public int getInFlightCalls() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getQueryFailures() {
+        return queryFailures.sum();
+    }
+
+    @Override
+    public long getReviewFailures() {
+        return reviewFailures.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : getHistograms().values()) {
+            histogram.reset();
+        }
+
+        for (CacheStats cache : getCaches().values()) {
+            cache.reset();
+        }
+
+        queryFailures.reset();
+        reviewFailures.reset();
+        requestOffenders.reset();
+    }
+
+    /**
+     * Registers the metrics' MBeans, replacing any left behind by a previous version of the
+     * plugin.
+     */
+    synchronized void register(MBeanServer server) {
+        try {
+            registerMBean(server, new ObjectName(JMX_DOMAIN + ":type=Metrics"), this);
+
+            for (Map.Entry<String, LatencyHistogram> histogram : getHistograms().entrySet()) {
+                registerMBean(server, new ObjectName(JMX_DOMAIN + ":type=Latency,name=" + histogram.getKey()), histogram.getValue());
+            }
+
+            for (Map.Entry<String, CacheStats> cache : getCaches().entrySet()) {
+                registerMBean(server, new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + cache.getKey()), cache.getValue());
+            }
+        } catch (JMException | RuntimeException e) {
+            // Metrics are still shown on the admin page
+            log.warn("Could not register the Gerrit metrics MBeans: " + e.getMessage());
+        }
+    }
+
+    private void registerMBean(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        if (server.isRegistered(name)) {
+            // Left behind by a previous version of the plugin that didn't stop cleanly
+            server.unregisterMBean(name);
+        }
+
+        server.registerMBean(mbean, name);
+
+        if (!registered.contains(name)) {
+            registered.add(name);
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #register(MBeanServer)}.
+     */
+    synchronized void unregister(MBeanServer server) {
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException | RuntimeException e) {
+                log.warn("Could not unregister the Gerrit metrics MBean " + name + ": " + e.getMessage());
+            }
+        }
+
+        registered.clear();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers the {@link GerritMetrics} MBeans on the platform MBean server when the plugin starts,
+ * and unregisters them when it stops.
+ */
+public class GerritMetricsExporter implements LifecycleAware {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Override
+    public void onStart() {
+        GerritMetrics.getInstance().register(server);
+    }
+
+    @Override
+    public void onStop() {
+        GerritMetrics.getInstance().unregister(server);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+/**
+ * JMX view of the {@link GerritMetrics} counters. Latencies and cache statistics are registered as
+ * separate MBeans under the same domain.
+ */
+public interface GerritMetricsMBean {
+    /**
+     * @return the number of Gerrit queries and review commands currently running
+     */
+    int getInFlightCalls();
+
+    long getQueryFailures();
+
+    long getReviewFailures();
+
+    /**
+     * Clears every metric.
+     */
+    void reset();
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the review lookups, cache hits and Gerrit round-trips caused by a single HTTP request, to
+ * find pages that query Gerrit once per issue (or per condition) instead of once per page.
+ * <p>
+ * The context is bound to the request thread by {@code RequestAccountingFilter}; the static
+ * {@code record*} methods do nothing outside of a request. Work handed off to other threads
+ * should be wrapped with {@link #wrap(Callable)} to be counted against the same request.
+ */
+public final class RequestAccounting {
+    private static final ThreadLocal<RequestAccounting> current = new ThreadLocal<>();
+
+    private final String url;
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicInteger reviewLookups = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final LongAdder gerritNanos = new LongAdder();
+
+    RequestAccounting(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Starts counting for the current thread's request.
+     *
+     * @param url the (normalized) request URL
+     * @return the new context
+     */
+    public static RequestAccounting begin(String url) {
+        RequestAccounting accounting = new RequestAccounting(url);
+        current.set(accounting);
+        return accounting;
+    }
+
+    /**
+     * Stops counting for the current thread's request.
+     */
+    public static void end() {
+        current.remove();
+    }
+
+    /**
+     * @return the current thread's request context, or {@code null} if there is none
+     */
+    public static RequestAccounting current() {
+        return current.get();
+    }
+
+    /**
+     * Binds the caller's request context (if any) to the thread that runs {@code task}.
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final RequestAccounting accounting = current();
+
+        if (accounting == null) {
+            return task;
+        }
+
+        return () -> {
+            RequestAccounting previous = current.get();
+            current.set(accounting);
+
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    current.remove();
+                } else {
+                    current.set(previous);
+                }
+            }
+        };
+    }
+
+    public static void recordReviewLookup() {
+        RequestAccounting accounting = current();
+
+        if (accounting != null) {
+            accounting.reviewLookups.incrementAndGet();
+        }
+    }
+
+    public static void recordCacheHit() {
+        RequestAccounting accounting = current();
+
+        if (accounting != null) {
+            accounting.cacheHits.incrementAndGet();
+        }
+    }
+
+    static void recordRoundTrip(long nanos) {
+        RequestAccounting accounting = current();
+
+        if (accounting != null) {
+            accounting.roundTrips.incrementAndGet();
+            accounting.gerritNanos.add(nanos);
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getReviewLookups() {
+        return reviewLookups.get();
+    }
+
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public int getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * @return the total time spent waiting for Gerrit, in milliseconds. Calls made in parallel
+     *         are all counted, so this may exceed the request's own duration.
+     */
+    public long getGerritMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(gerritNanos.sum());
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        return url + ": " + reviewLookups + " review lookups, " + cacheHits + " cache hits, " + roundTrips + " Gerrit calls taking "
+                + getGerritMillis() + " ms, in " + getElapsedMillis() + " ms";
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the Gerrit calls made while serving each request, and reports the requests that make
+ * more than {@link GerritConfiguration#getRequestQueryThreshold()} of them.
+ */
+public class RequestAccountingFilter implements Filter {
+    private static final Logger log = LoggerFactory.getLogger(RequestAccountingFilter.class);
+
+    /** Issue keys, e.g. "/browse/ABC-123" */
+    private static final Pattern ISSUE_KEY = Pattern.compile("\\b[A-Z][A-Z0-9_]+-[0-9]+\\b");
+
+    /** Numeric ids, e.g. "/rest/api/2/issue/10000" */
+    private static final Pattern NUMERIC_ID = Pattern.compile("/[0-9]{3,}(?=/|$)");
+
+    /** Anything that isn't expected in a (still encoded) request path */
+    private static final Pattern UNSAFE = Pattern.compile("[^A-Za-z0-9/._~%+-]");
+
+    private final GerritConfiguration configuration;
+
+    public RequestAccountingFilter(GerritConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || RequestAccounting.current() != null) {
+            // Not HTTP, or already counted by an outer dispatch of the same request
+            chain.doFilter(request, response);
+            return;
+        }
+
+        RequestAccounting accounting = RequestAccounting.begin(normalize(((HttpServletRequest) request).getRequestURI()));
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestAccounting.end();
+            report(accounting);
+        }
+    }
+
+    private void report(RequestAccounting accounting) {
+        int threshold = configuration.getRequestQueryThreshold();
+
+        if (threshold > 0 && accounting.getRoundTrips() > threshold) {
+            log.warn("Too many Gerrit calls for one request: " + accounting);
+            GerritMetrics.getInstance().getRequestOffenders().record(accounting);
+        } else if (log.isDebugEnabled() && accounting.getReviewLookups() > 0) {
+            log.debug(accounting.toString());
+        }
+    }
+
+    /**
+     * Replaces issue keys and numeric ids in the URL, so that requests for different issues on the
+     * same page are grouped together. Unexpected characters are replaced too, since the URL is
+     * shown on the admin page.
+     */
+    static String normalize(String uri) {
+        if (uri == null) {
+            return "";
+        }
+
+        String normalized = UNSAFE.matcher(uri).replaceAll("_");
+        normalized = ISSUE_KEY.matcher(normalized).replaceAll("{issue}");
+        return NUMERIC_ID.matcher(normalized).replaceAll("/{id}");
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
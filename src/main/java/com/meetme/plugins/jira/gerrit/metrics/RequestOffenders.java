@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The URLs of the requests that made the most Gerrit calls, for the admin page.
+ */
+public class RequestOffenders {
+    /** Max number of distinct URLs to remember */
+    private static final int CAPACITY = 100;
+
+    private final ConcurrentMap<String, Offender> offenders = new ConcurrentHashMap<>();
+
+    /**
+     * Records a request that went over the threshold.
+     */
+    public void record(RequestAccounting accounting) {
+        Offender offender = offenders.get(accounting.getUrl());
+
+        if (offender == null) {
+            if (offenders.size() >= CAPACITY) {
+                evictLeastOffending(accounting.getRoundTrips());
+            }
+
+            offender = offenders.computeIfAbsent(accounting.getUrl(), Offender::new);
+        }
+
+        offender.record(accounting);
+    }
+
+    private void evictLeastOffending(int roundTrips) {
+        Offender least = null;
+
+        for (Offender offender : offenders.values()) {
+            if (least == null || offender.getMaxRoundTrips() < least.getMaxRoundTrips()) {
+                least = offender;
+            }
+        }
+
+        if (least != null && least.getMaxRoundTrips() <= roundTrips) {
+            offenders.remove(least.getUrl(), least);
+        }
+    }
+
+    /**
+     * @param limit max number of URLs to return
+     * @return the worst URLs, by the most Gerrit calls made by a single request
+     */
+    public List<Offender> getTop(int limit) {
+        List<Offender> top = new ArrayList<>(offenders.values());
+        top.sort(Comparator.comparingInt(Offender::getMaxRoundTrips).reversed().thenComparing(Offender::getUrl));
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+
+    public void reset() {
+        offenders.clear();
+    }
+
+    public static class Offender {
+        private final String url;
+        private int requests;
+        private int maxRoundTrips;
+        private int maxReviewLookups;
+        private long maxGerritMillis;
+        private long lastSeen;
+
+        Offender(String url) {
+            this.url = url;
+        }
+
+        synchronized void record(RequestAccounting accounting) {
+            requests++;
+            maxRoundTrips = Math.max(maxRoundTrips, accounting.getRoundTrips());
+            maxReviewLookups = Math.max(maxReviewLookups, accounting.getReviewLookups());
+            maxGerritMillis = Math.max(maxGerritMillis, accounting.getGerritMillis());
+            lastSeen = System.currentTimeMillis();
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the number of requests to the URL that went over the threshold
+         */
+        public synchronized int getRequests() {
+            return requests;
+        }
+
+        public synchronized int getMaxRoundTrips() {
+            return maxRoundTrips;
+        }
+
+        public synchronized int getMaxReviewLookups() {
+            return maxReviewLookups;
+        }
+
+        public synchronized long getMaxGerritMillis() {
+            return maxGerritMillis;
+        }
+
+        public synchronized Date getLastSeen() {
+            return new Date(lastSeen);
+        }
+    }
+}
@@ -21,24 +21,35 @@ import com.atlassian.jira.web.util.OutlookDate;
 import com.google.common.collect.ImmutableMap;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.LabelScores;
+import org.apache.commons.lang.StringEscapeUtils;
 
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 
 public class GerritReviewIssueAction extends AbstractIssueAction implements IssueAction {
     private String baseUrl;
     private GerritChange change;
+    private String commitMessage;
     private OutlookDate dateTimeFormatter;
 
     public GerritReviewIssueAction(IssueTabPanelModuleDescriptor descriptor, GerritChange change,
             OutlookDate dateTimeFormatter, String baseUrl) {
+        this(descriptor, change, null, dateTimeFormatter, baseUrl);
+    }
+
+    /**
+     * @param commitMessage the change's commit message, which the cached change goes without; may
+     *            be {@code null}
+     */
+    public GerritReviewIssueAction(IssueTabPanelModuleDescriptor descriptor, GerritChange change, String commitMessage,
+            OutlookDate dateTimeFormatter, String baseUrl) {
         super(descriptor);
         this.dateTimeFormatter = dateTimeFormatter;
         this.baseUrl = baseUrl;
         this.change = change;
+        this.commitMessage = commitMessage;
     }
 
     @Override
@@ -47,6 +58,10 @@ public class GerritReviewIssueAction extends AbstractIssueAction implements Issu
                 "formatLastUpdated", formatLastUpdated(),
                 "isoLastUpdated", isoFormatLastUpdated(),
                 "baseurl", this.baseUrl));
+
+        if (commitMessage != null) {
+            params.put("commitMessage", StringEscapeUtils.escapeHtml(commitMessage.trim()));
+        }
     }
 
     String formatLastUpdated() {
@@ -72,33 +87,10 @@ public class GerritReviewIssueAction extends AbstractIssueAction implements Issu
      *
      * @param approvals the approvals found on the Gerrit review
      * @return the approval that is deemed the "most significant"
-     * @deprecated This functionality can now be found in the velocity template
+     * @deprecated Use {@link LabelScores#getMostSignificantApproval()} from the patch set instead
      */
     @Deprecated
     GerritApproval getMostSignificantScore(final List<GerritApproval> approvals) {
-        if (approvals != null) {
-            try {
-                GerritApproval min = Collections.min(approvals);
-                GerritApproval max = Collections.max(approvals);
-
-                if (min == max) {
-                    // Means there was only 1 vote, so show that one.
-                    return max;
-                }
-
-                if (min.getValueAsInt() < 0) {
-                    // There exists a negative vote, so show that one.
-                    return min;
-                } else {
-                    // NOTE: Technically not possible to have a 0-score, but if one exists, use it!
-                    // No negative votes, so show the highest positive vote
-                    return max;
-                }
-            } catch (NoSuchElementException nsee) {
-                // Collection was empty
-            }
-        }
-
-        return null;
+        return LabelScores.of(approvals).getMostSignificantApproval();
     }
 }
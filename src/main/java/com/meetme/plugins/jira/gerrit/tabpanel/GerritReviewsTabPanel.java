@@ -13,8 +13,6 @@
  */
 package com.meetme.plugins.jira.gerrit.tabpanel;
 
-import com.atlassian.jira.bc.user.search.UserSearchService;
-import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.tabpanels.GenericMessageAction;
 import com.atlassian.jira.plugin.issuetabpanel.AbstractIssueTabPanel2;
@@ -33,6 +31,7 @@ import com.atlassian.sal.api.UrlMode;
 import com.atlassian.sal.api.message.I18nResolver;
 import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
 import com.meetme.plugins.jira.gerrit.data.IssueReviewsManager;
+import com.meetme.plugins.jira.gerrit.data.UserEmailResolver;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
@@ -42,8 +41,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.apache.commons.collections.CollectionUtils.isEmpty;
 
@@ -62,17 +63,19 @@ public class GerritReviewsTabPanel extends AbstractIssueTabPanel2 implements Iss
     private final GerritConfiguration configuration;
     private final IssueReviewsManager reviewsManager;
     private final I18nResolver i18n;
+    private final UserEmailResolver userEmailResolver;
 
     //TODO: Update OutlookDateManager to DateFormatter
     public GerritReviewsTabPanel(UserManager userManager, OutlookDateManager dateTimeFormatterFactory,
                                  ApplicationProperties applicationProperties, GerritConfiguration configuration,
-                                 IssueReviewsManager reviewsManager, I18nResolver i18n) {
+                                 IssueReviewsManager reviewsManager, I18nResolver i18n, UserEmailResolver userEmailResolver) {
         this.userManager = userManager;
         this.dateTimeFormatter = dateTimeFormatterFactory.getOutlookDate(null);
         this.applicationProperties = applicationProperties;
         this.configuration = configuration;
         this.reviewsManager = reviewsManager;
         this.i18n = i18n;
+        this.userEmailResolver = userEmailResolver;
     }
 
     @Override
@@ -128,9 +131,12 @@ public class GerritReviewsTabPanel extends AbstractIssueTabPanel2 implements Iss
         if (reviews.isEmpty()) {
             issueActions.add(new GenericMessageAction(i18n.getText("gerrit.tabpanel.no_changes")));
         } else {
-            for (GerritChange change : reviews) {
-                setUsersForChangeApprovals(change);
-                issueActions.add(new GerritReviewIssueAction(descriptor(), change, dateTimeFormatter, applicationProperties.getBaseUrl(UrlMode.AUTO)));
+            setUsersForApprovals(reviews);
+            List<String> commitMessages = reviewsManager.getCommitMessages(reviews);
+
+            for (int i = 0; i < reviews.size(); i++) {
+                issueActions.add(new GerritReviewIssueAction(descriptor(), reviews.get(i), i < commitMessages.size() ? commitMessages.get(i) : null, dateTimeFormatter,
+                        applicationProperties.getBaseUrl(UrlMode.AUTO)));
                 // issueActions.add(new GenericMessageAction("<pre>" + obj.toString(4) + "</pre>"));
             }
         }
@@ -138,35 +144,35 @@ public class GerritReviewsTabPanel extends AbstractIssueTabPanel2 implements Iss
         return issueActions;
     }
 
-    private ApplicationUser getUserByEmail(String email) {
-        if (email == null || email.isEmpty()) {
-            return null;
-        }
-        final UserSearchService userSearchService = ComponentAccessor.getComponent(UserSearchService.class);
-        Iterator<ApplicationUser> users = userSearchService.findUsersByEmail(email).iterator();
-        if (users.hasNext()) {
-            return users.next();
-        }
-        return null;
-    }
-
     private boolean isConfigurationReady() {
-        return configuration.getSshHostname() != null && configuration.getSshUsername() != null
-                && configuration.getSshPrivateKey() != null && configuration.getSshPrivateKey().exists();
+        return configuration.isSshValid();
     }
 
-    private void setUsersForChangeApprovals(GerritChange change) {
-        GerritPatchSet ps = change.getPatchSet();
-
-        if (ps != null) {
-            List<GerritApproval> approvals = ps.getApprovals();
-
-            if (approvals != null) {
-                for (GerritApproval approval : change.getPatchSet().getApprovals()) {
-                    String byEmail = approval.getBy().getEmail();
-                    approval.setUser(getUserByEmail(byEmail));
+    /**
+     * Associates the approvals of all changes with JIRA users, looking up each distinct email
+     * address only once.
+     */
+    private void setUsersForApprovals(List<GerritChange> changes) {
+        List<GerritApproval> approvals = new ArrayList<>();
+        Set<String> emails = new HashSet<>();
+
+        for (GerritChange change : changes) {
+            GerritPatchSet ps = change.getPatchSet();
+
+            if (ps != null && ps.getApprovals() != null) {
+                for (GerritApproval approval : ps.getApprovals()) {
+                    if (approval.getBy() != null) {
+                        approvals.add(approval);
+                        emails.add(approval.getBy().getEmail());
+                    }
                 }
             }
         }
+
+        Map<String, ApplicationUser> users = userEmailResolver.getUsersByEmail(emails);
+
+        for (GerritApproval approval : approvals) {
+            approval.setUser(users.get(approval.getBy().getEmail()));
+        }
     }
 }
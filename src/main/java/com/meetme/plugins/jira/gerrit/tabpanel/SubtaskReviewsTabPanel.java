@@ -84,8 +84,7 @@ public class SubtaskReviewsTabPanel extends AbstractIssueTabPanel2 implements Is
     private boolean isConfigurationReady() {
         final GerritConfiguration configuration = this.configuration;
 
-        return configuration != null && configuration.getSshHostname() != null && configuration.getSshUsername() != null
-                && configuration.getSshPrivateKey() != null && configuration.getSshPrivateKey().exists();
+        return configuration != null && configuration.isSshValid();
     }
 
 }
@@ -10,8 +10,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 
-import static org.apache.commons.collections.CollectionUtils.isEmpty;
-
 /**
  * Created by jhansche on 9/2/16.
  */
@@ -54,7 +52,7 @@ public class ShowReviewsWebPanelCondition implements Condition {
 
         try {
 
-           return ! isEmpty(issueReviewsManager.getReviewsForIssue(issue));
+           return issueReviewsManager.hasReviews(issue, false);
 
         } catch (GerritQueryException gerritQueryException) {
 
@@ -64,6 +62,7 @@ public class ShowReviewsWebPanelCondition implements Condition {
     }
 
     private boolean isGerritProject(final Issue issue) {
-        return issue.getProjectId() != null && !isEmpty(gerritConfiguration.getIdsOfKnownGerritProjects()) && gerritConfiguration.getIdsOfKnownGerritProjects().contains(issue.getProjectId().toString());
+        final Long projectId = issue.getProjectId();
+        return projectId != null && gerritConfiguration.isGerritProject(projectId.longValue());
     }
 }
\ No newline at end of file
@@ -16,14 +16,13 @@ package com.meetme.plugins.jira.gerrit.workflow.condition;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.workflow.WorkflowException;
 import com.atlassian.jira.workflow.condition.AbstractJiraCondition;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.meetme.plugins.jira.gerrit.data.IssueReviewsManager;
-import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
 import com.opensymphony.module.propertyset.PropertySet;
 
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
@@ -38,14 +37,15 @@ import java.util.Map;
  * @author Joe Hansche
  */
 public class ApprovalScore extends AbstractJiraCondition {
-    private static final Logger log = LoggerFactory.getLogger(ApprovalScore.class);
-
     // Must [or not] have [ operator ] N score for [type]
     public static final String KEY_NEGATIVE = "negative";
     public static final String KEY_COMPARISON = "comparison";
     public static final String KEY_TARGET = "target";
     public static final String KEY_LABEL = "label";
 
+    /** Weak keys compare by identity, and are dropped along with their workflow descriptors */
+    private static final Cache<Map<?, ?>, ApprovalScorePredicate> predicates = CacheBuilder.newBuilder().weakKeys().build();
+
     private IssueReviewsManager reviewsManager;
 
     public ApprovalScore(final IssueReviewsManager reviewsManager) {
@@ -65,81 +65,23 @@ public class ApprovalScore extends AbstractJiraCondition {
             throw new WorkflowException(e);
         }
 
-        boolean isReverse = Boolean.parseBoolean((String) args.get(KEY_NEGATIVE));
-        ComparisonOperator op = ComparisonOperator.valueOf((String) args.get(KEY_COMPARISON));
-        String label = (String) args.get(KEY_LABEL);
-        int targetScore = Integer.parseInt((String) args.get(KEY_TARGET));
-
-        String description = describe(isReverse, label, op, targetScore);
-        log.debug("Condition description: " + description);
-
-        boolean matches = false;
-        int matchingChanges = 0;
-        int blockingChanges = 0;
-
-        for (GerritChange ch : reviews) {
-            int matchingApprovals = 0;
-
-            for (GerritApproval approval : ch.getPatchSet().getApprovals()) {
-                if (approval.getType().equals(label)) {
-                    if (compareScore(op, approval.getValueAsInt(), targetScore)) {
-                        log.debug("Found a match on review " + ch + " for condition: " + description + "; Approver=" + approval);
-
-                        matchingApprovals++;
-                    }
-                }
-            }
-
-            if (matchingApprovals > 0) {
-                matchingChanges++;
-            } else {
-                blockingChanges++;
-            }
-        }
-
-        // To be considered a match, every change must have at least one matching approval, and no
-        // change can be missing a matching approval
-        matches = matchingChanges > 0 && blockingChanges == 0;
-
-        if (isReverse) {
-            matches = !matches;
-            log.debug("Negating logic, due to 'MUST NOT' condition. NEW matches=" + matches);
-        }
-
-        log.trace("Evaluating conditions: " + matches);
-
-        return matches;
-    }
-
-    private String describe(boolean isReverse, String label, ComparisonOperator op, int targetScore) {
-        return "isReverse=" + isReverse + ", label=" + label + ", op=" + op.name() + ", targetScore=" + targetScore;
+        return getPredicate(args).test(reviews);
     }
 
     /**
-     * Compare two scores using the provided {@link ComparisonOperator}
-     *
-     * @param oper the comparison operator
-     * @param score the score that is being compared
-     * @param target the target score against which {@code score} is being compared
-     * @return the result of the comparison
+     * Returns the compiled form of the condition arguments. JIRA hands the same args map to every
+     * evaluation of a given workflow descriptor, so predicates are cached by map identity, and
+     * recompiled if the descriptor was edited in place.
      */
-    private boolean compareScore(ComparisonOperator oper, int score, int target) {
-        log.debug("Comparing score: " + score + oper + target);
-
-        switch (oper) {
-            case EQUAL_TO:
-                return score == target;
-            case LESS_THAN:
-                return score < target;
-            case LESS_OR_EQUAL:
-                return score <= target;
-            case GREATER_OR_EQUAL:
-                return score >= target;
-            case GREATER_THAN:
-                return score > target;
+    static ApprovalScorePredicate getPredicate(@SuppressWarnings("rawtypes") Map args) {
+        ApprovalScorePredicate predicate = predicates.getIfPresent(args);
+
+        if (predicate == null || !predicate.isCompiledFrom(args)) {
+            predicate = ApprovalScorePredicate.compile(args);
+            predicates.put(args, predicate);
         }
 
-        throw new IllegalArgumentException("Unknown operator: " + oper);
+        return predicate;
     }
 
     /**
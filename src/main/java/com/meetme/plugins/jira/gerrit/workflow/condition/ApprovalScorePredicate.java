@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.workflow.condition;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import com.meetme.plugins.jira.gerrit.data.dto.LabelScores;
+import com.meetme.plugins.jira.gerrit.workflow.condition.ApprovalScore.ComparisonOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.meetme.plugins.jira.gerrit.workflow.condition.ApprovalScore.KEY_COMPARISON;
+import static com.meetme.plugins.jira.gerrit.workflow.condition.ApprovalScore.KEY_LABEL;
+import static com.meetme.plugins.jira.gerrit.workflow.condition.ApprovalScore.KEY_NEGATIVE;
+import static com.meetme.plugins.jira.gerrit.workflow.condition.ApprovalScore.KEY_TARGET;
+
+/**
+ * The {@link ApprovalScore} condition arguments of a single workflow descriptor, parsed once.
+ */
+final class ApprovalScorePredicate {
+    private static final Logger log = LoggerFactory.getLogger(ApprovalScorePredicate.class);
+
+    private final boolean isReverse;
+    private final ComparisonOperator op;
+    private final String label;
+    private final int targetScore;
+    private final String description;
+
+    /** The raw argument values this was compiled from, to detect descriptors edited in place */
+    private final Object rawNegative, rawComparison, rawLabel, rawTarget;
+
+    private ApprovalScorePredicate(@SuppressWarnings("rawtypes") Map args) {
+        rawNegative = args.get(KEY_NEGATIVE);
+        rawComparison = args.get(KEY_COMPARISON);
+        rawLabel = args.get(KEY_LABEL);
+        rawTarget = args.get(KEY_TARGET);
+
+        isReverse = Boolean.parseBoolean((String) rawNegative);
+        op = ComparisonOperator.valueOf((String) rawComparison);
+        label = (String) rawLabel;
+        targetScore = Integer.parseInt((String) rawTarget);
+        description = "isReverse=" + isReverse + ", label=" + label + ", op=" + op.name() + ", targetScore=" + targetScore;
+    }
+
+    static ApprovalScorePredicate compile(@SuppressWarnings("rawtypes") Map args) {
+        return new ApprovalScorePredicate(args);
+    }
+
+    /**
+     * @return whether this predicate still reflects the given arguments
+     */
+    boolean isCompiledFrom(@SuppressWarnings("rawtypes") Map args) {
+        return args.get(KEY_NEGATIVE) == rawNegative && args.get(KEY_COMPARISON) == rawComparison && args.get(KEY_LABEL) == rawLabel
+                && args.get(KEY_TARGET) == rawTarget;
+    }
+
+    /**
+     * Evaluates the condition against the reviews of an issue.
+     *
+     * @param reviews the reviews for the issue
+     * @return whether the condition passes
+     */
+    boolean test(List<GerritChange> reviews) {
+        if (log.isDebugEnabled()) {
+            log.debug("Condition description: " + description);
+        }
+
+        int matchingChanges = 0;
+        int blockingChanges = 0;
+
+        for (GerritChange ch : reviews) {
+            if (matches(ch)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Found a match on review " + ch + " for condition: " + description);
+                }
+
+                matchingChanges++;
+            } else {
+                blockingChanges++;
+            }
+        }
+
+        // To be considered a match, every change must have at least one matching approval, and no
+        // change can be missing a matching approval
+        boolean matches = matchingChanges > 0 && blockingChanges == 0;
+
+        if (isReverse) {
+            matches = !matches;
+            log.debug("Negating logic, due to 'MUST NOT' condition. NEW matches=" + matches);
+        }
+
+        return matches;
+    }
+
+    /**
+     * @return whether at least one approval for the label on the change's current patch set
+     *         satisfies the comparison
+     */
+    private boolean matches(GerritChange change) {
+        GerritPatchSet patchSet = change.getPatchSet();
+
+        if (patchSet == null) {
+            return false;
+        }
+
+        LabelScores scores = patchSet.getLabelScores();
+
+        if (!scores.hasLabel(label)) {
+            return false;
+        }
+
+        switch (op) {
+            case EQUAL_TO:
+                return scores.contains(label, targetScore);
+            case LESS_THAN:
+                return scores.getMin(label) < targetScore;
+            case LESS_OR_EQUAL:
+                return scores.getMin(label) <= targetScore;
+            case GREATER_OR_EQUAL:
+                return scores.getMax(label) >= targetScore;
+            case GREATER_THAN:
+                return scores.getMax(label) > targetScore;
+        }
+
+        throw new IllegalArgumentException("Unknown operator: " + op);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
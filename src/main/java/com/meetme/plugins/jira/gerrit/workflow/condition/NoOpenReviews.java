@@ -43,10 +43,11 @@ public class NoOpenReviews extends AbstractJiraCondition {
     public boolean passesCondition(@SuppressWarnings("rawtypes") Map transientVars, @SuppressWarnings("rawtypes") Map args, PropertySet ps)
             throws WorkflowException {
         Issue issue = getIssue(transientVars);
-        List<GerritChange> reviews;
+        boolean hasOpenReviews;
 
         try {
-            reviews = reviewsManager.getReviewsForIssue(issue);
+            // Only needs to know whether there is at least one, not what they are
+            hasOpenReviews = reviewsManager.hasReviews(issue, true);
         } catch (GerritQueryException e) {
             // If there's an error, best not to block the workflow, and just act like it passes??
             throw new WorkflowException(e);
@@ -55,10 +56,7 @@ public class NoOpenReviews extends AbstractJiraCondition {
         String value = (String) args.get(KEY_REVERSED);
         boolean isReversed = Boolean.parseBoolean(value);
 
-        // The ReviewsManager will only return issues that are "status:open" by default.
-        int numOpenReviews = countReviewStatus(reviews, true);
-
-        return isReversed ? numOpenReviews > 0 : numOpenReviews == 0;
+        return isReversed == hasOpenReviews;
     }
 
     /**
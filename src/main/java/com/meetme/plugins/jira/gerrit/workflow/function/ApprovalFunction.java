@@ -19,9 +19,13 @@ import com.atlassian.jira.user.preferences.ExtendedPreferences;
 import com.atlassian.jira.user.preferences.UserPreferencesManager;
 import com.atlassian.jira.workflow.WorkflowException;
 import com.atlassian.jira.workflow.function.issue.AbstractJiraFunctionProvider;
+import com.meetme.plugins.jira.gerrit.data.GerritCommand;
 import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
+import com.meetme.plugins.jira.gerrit.data.GerritReviewInput;
+import com.meetme.plugins.jira.gerrit.data.GerritServer;
 import com.meetme.plugins.jira.gerrit.data.IssueReviewsManager;
 import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
 import com.meetme.plugins.jira.gerrit.workflow.condition.ApprovalScore;
 import com.opensymphony.module.propertyset.PropertySet;
 
@@ -30,6 +34,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -37,7 +43,7 @@ import java.util.Map;
  * A Workflow Function that can be used to perform Gerrit approvals as the result of a workflow
  * transition. The input argument is simply a command line argument string (such as "--verified +1",
  * or "--submit", etc). The argument will be appended to the <tt>gerrit review [ChangeId] ...</tt>
- * command line.
+ * command line, or translated to the equivalent REST request when Gerrit is accessed over HTTP.
  *
  * This function can be used in combination with {@link ApprovalScore} workflow conditions, such
  * that, e.g., a "Merge Change" workflow transition can be used to automatically "submit" a Gerrit
@@ -84,9 +90,14 @@ public class ApprovalFunction extends AbstractJiraFunctionProvider {
         }
 
         final Issue issue = getIssue(transientVars);
-        final List<GerritChange> issueReviews = getReviews(issue);
         final ExtendedPreferences prefs = getUserPrefs(transientVars, args);
         final String cmdArgs = (String) args.get(KEY_CMD_ARGS);
+        final List<GerritChange> issueReviews = getChangesToReview(getReviews(issue), cmdArgs, prefs);
+
+        if (issueReviews.isEmpty()) {
+            log.debug("Nothing to approve for " + issue.getKey() + "; all changes already match: " + cmdArgs);
+            return;
+        }
 
         boolean success = false;
 
@@ -119,8 +130,54 @@ public class ApprovalFunction extends AbstractJiraFunctionProvider {
         }
     }
 
+    /**
+     * Filters out the changes where the review would not change anything: changes that are already
+     * closed, or that already carry all of the requested scores from the acting Gerrit user.
+     *
+     * @param changes all changes related to the issue
+     * @param cmdArgs the <tt>gerrit review</tt> arguments
+     * @param prefs the acting user's preferences
+     * @return the changes that still need to be reviewed
+     */
+    protected List<GerritChange> getChangesToReview(List<GerritChange> changes, String cmdArgs, ExtendedPreferences prefs) {
+        final GerritReviewInput input = GerritReviewInput.parse(cmdArgs);
+        final Map<String, String> usernames = new HashMap<>();
+        final List<GerritChange> filtered = new ArrayList<>(changes.size());
+
+        for (GerritChange change : changes) {
+            String name = change.getServer() == null ? GerritServer.DEFAULT_NAME : change.getServer();
+            String username = usernames.computeIfAbsent(name, k -> getGerritUsername(k, prefs));
+
+            if (input.isNoOp(change, username)) {
+                log.debug("Skipping review of " + change.getNumber() + "; nothing would change");
+            } else {
+                filtered.add(change);
+            }
+        }
+
+        return filtered;
+    }
+
+    /**
+     * @return the Gerrit username that reviews on the server will be performed as, or {@code null}
+     *         if the server is no longer configured
+     */
+    private String getGerritUsername(String serverName, ExtendedPreferences prefs) {
+        for (GerritServer server : configuration.getServers()) {
+            if (server.getName().equals(serverName)) {
+                return GerritCommand.getReviewerUsername(server, prefs);
+            }
+        }
+
+        return null;
+    }
+
     protected boolean isConfigurationReady() {
-        return configuration != null && configuration.getSshHostname() != null && configuration.getSshUsername() != null
-                && configuration.getSshPrivateKey() != null && configuration.getSshPrivateKey().exists();
+        if (configuration != null && GerritEventKeys.CONNECTION_TYPE_HTTP.equals(configuration.getConnectionType())) {
+            // Approvals are sent through the REST API; no SSH key is needed
+            return configuration.getHttpBaseUrl() != null && configuration.isHttpValid();
+        }
+
+        return configuration != null && configuration.isSshValid();
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/*
+ * Cache section of the admin page: shows the review cache statistics, and drives the evict, flush
+ * and prewarm actions through the /plugins/servlet/gerrit/cache API.
+ */
+AJS.toInit(function ($) {
+    var $section = $("#gerrit-cache");
+
+    if (!$section.length) {
+        return;
+    }
+
+    var url = $section.data("url");
+    var polling = null;
+
+    function request(method, path, data) {
+        return $.ajax({
+            url: url + (path || ""),
+            type: method,
+            data: data,
+            dataType: "json",
+            headers: { "X-Atlassian-Token": "no-check" }
+        });
+    }
+
+    function showError(xhr) {
+        var message = xhr.statusText;
+
+        try {
+            message = JSON.parse(xhr.responseText).error || message;
+        } catch (e) {
+            // Not one of our errors, e.g. a login page
+        }
+
+        $("#gerrit-cache-prewarm-status").text("Error: " + message);
+    }
+
+    function showProgress(progress) {
+        var $progress = $("#gerrit-cache-prewarm-progress");
+
+        if (!progress || !progress.selection) {
+            $progress.hide();
+            return;
+        }
+
+        $progress.show().find(".aui-progress-indicator-value").css("width", progress.percent + "%");
+        $("#gerrit-cache-prewarm-status").text((progress.running ? "Prewarming " : "Prewarmed ") + progress.selection + ": "
+                + progress.completed + " / " + progress.total + " issues, " + progress.failed + " failed");
+
+        if (progress.running && !polling) {
+            polling = setInterval(function () {
+                request("GET", "/prewarm").done(showProgress);
+            }, 2000);
+        } else if (!progress.running && polling) {
+            clearInterval(polling);
+            polling = null;
+            refresh();
+        }
+    }
+
+    function refresh() {
+        request("GET").done(function (stats) {
+            $("#gerrit-cache-summary").text(stats.issues + " issues, " + stats.changes + " changes, "
+                    + stats.offHeapIssues + " off-heap issues, "
+                    + stats.existence + " existence answers, " + stats.prefetchedProjects + " prefetched projects; "
+                    + Math.round(stats.weight / 1024) + " / " + Math.round(stats.maxWeight / 1024) + " KB; hit ratio "
+                    + stats.hitRatio + "; load time mean " + stats.loadTime.meanMillis + " ms, p95 "
+                    + stats.loadTime.p95Millis + " ms");
+
+            var $rows = $("#gerrit-cache-top tbody").empty();
+            $.each(stats.top, function (i, entry) {
+                $("<tr>")
+                    .append($("<td>").text(entry.key))
+                    .append($("<td>").text(entry.hits))
+                    .append($("<td>").text(entry.changes))
+                    .append($("<td>").text(entry.weight))
+                    .append($("<td>").text(new Date(entry.loadedAt).toLocaleString()))
+                    .appendTo($rows);
+            });
+
+            showProgress(stats.prewarm);
+        }).fail(showError);
+    }
+
+    $("#gerrit-cache-evict").click(function () {
+        var issueKey = $.trim($("#gerrit-cache-issue").val());
+
+        if (issueKey) {
+            request("DELETE", "/issues/" + encodeURIComponent(issueKey)).done(refresh).fail(showError);
+        }
+    });
+
+    $("#gerrit-cache-flush").click(function () {
+        if (confirm("Flush the review caches of every node?")) {
+            request("DELETE").done(refresh).fail(showError);
+        }
+    });
+
+    $("#gerrit-cache-prewarm").click(function () {
+        var data = {
+            jql: $.trim($("#gerrit-cache-prewarm-jql").val()),
+            project: $.trim($("#gerrit-cache-prewarm-project").val())
+        };
+
+        request("POST", "/prewarm", data).done(showProgress).fail(showError);
+    });
+
+    refresh();
+});
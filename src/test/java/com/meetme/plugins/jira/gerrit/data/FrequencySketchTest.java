@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testCountsUpToMax() {
+        FrequencySketch sketch = new FrequencySketch(100);
+        assertEquals(0, sketch.frequency("TEST-1"));
+
+        sketch.increment("TEST-1");
+        sketch.increment("TEST-1");
+        assertEquals(2, sketch.frequency("TEST-1"));
+
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("TEST-1");
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("TEST-1"));
+    }
+
+    @Test
+    public void testCountersAreHalvedPeriodically() {
+        FrequencySketch sketch = new FrequencySketch(16);
+
+        for (int i = 0; i < FrequencySketch.MAX_FREQUENCY; i++) {
+            sketch.increment("HOT-1");
+        }
+
+        for (int i = 0; i < 1000 && sketch.frequency("HOT-1") == FrequencySketch.MAX_FREQUENCY; i++) {
+            sketch.increment("COLD-" + i);
+        }
+
+        assertEquals(FrequencySketch.MAX_FREQUENCY / 2, sketch.frequency("HOT-1"));
+    }
+}
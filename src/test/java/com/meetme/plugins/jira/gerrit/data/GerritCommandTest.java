@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.user.preferences.ExtendedPreferences;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GerritCommandTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static GerritServer createServer(String name) {
+        return new GerritServer(name, "ssh", "gerrit.example.com", 29418, "jira", new File("/jira/id_rsa"), 0, null, null, null,
+                Collections.<String>emptyList());
+    }
+
+    private static ExtendedPreferences createPrefs(String username, String privateKey) {
+        ExtendedPreferences prefs = mock(ExtendedPreferences.class);
+        when(prefs.getString("gerrit.username")).thenReturn(username);
+        when(prefs.getString("gerrit.privateKey")).thenReturn(privateKey);
+        return prefs;
+    }
+
+    @Test
+    public void testReviewerUsesReadableUserKey() throws Exception {
+        File key = folder.newFile("id_rsa");
+
+        assertEquals("joe", GerritCommand.getReviewerUsername(createServer(GerritServer.DEFAULT_NAME), createPrefs("joe", key.getPath())));
+        // Per-user keys are only used for the default server
+        assertEquals("jira", GerritCommand.getReviewerUsername(createServer("other"), createPrefs("joe", key.getPath())));
+    }
+
+    @Test
+    public void testReviewerFallsBackWithoutReadableUserKey() {
+        File missing = new File(folder.getRoot(), "missing");
+
+        // Reviews would run as the server account, so that's who approvals are compared against
+        assertEquals("jira", GerritCommand.getReviewerUsername(createServer(GerritServer.DEFAULT_NAME), createPrefs("joe", missing.getPath())));
+        assertEquals("jira", GerritCommand.getReviewerUsername(createServer(GerritServer.DEFAULT_NAME), createPrefs("joe", "")));
+        assertEquals("jira", GerritCommand.getReviewerUsername(createServer(GerritServer.DEFAULT_NAME), null));
+    }
+
+    @Test
+    public void testReviewerOverHttp() {
+        GerritServer server = new GerritServer(GerritServer.DEFAULT_NAME, "http", null, 29418, "jira", null, 0,
+                URI.create("https://gerrit.example.com/"), "jira-http", "secret", Collections.<String>emptyList());
+
+        assertEquals("jira-http", GerritCommand.getReviewerUsername(server, createPrefs("joe", "/tmp/id_rsa")));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class GerritConfigurationImplTest {
+    private final Map<String, Object> stored = new HashMap<>();
+
+    @Mock
+    private PluginSettingsFactory pluginSettingsFactory;
+
+    @Mock
+    private PluginSettings settings;
+
+    private GerritConfigurationImpl configuration;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+
+        when(pluginSettingsFactory.createSettingsForKey(anyString())).thenReturn(settings);
+        when(settings.get(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return stored.get(invocation.getArguments()[0]);
+            }
+        });
+        when(settings.put(anyString(), any())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return stored.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        });
+
+        configuration = new GerritConfigurationImpl(pluginSettingsFactory);
+    }
+
+    @Test
+    public void testDefaults() {
+        assertEquals(GerritConfiguration.DEFAULT_QUERY_ISSUE, configuration.getIssueSearchQuery());
+        assertEquals(GerritConfiguration.DEFAULT_SSH_PORT, configuration.getSshPort());
+        assertTrue(configuration.getShowsEmptyPanel());
+        assertFalse(configuration.getUseGerritProjectWhitelist());
+        assertTrue(configuration.getIdsOfKnownGerritProjects().isEmpty());
+        assertFalse(configuration.isSshValid());
+        assertTrue(configuration.isHttpValid());
+    }
+
+    @Test
+    public void testSnapshotIsReused() {
+        configuration.getSshHostname();
+        configuration.getSshUsername();
+        configuration.isSshValid();
+
+        // All of the values are read once, for the first snapshot
+        verify(settings, times(1)).get(GerritConfiguration.FIELD_SSH_HOSTNAME);
+        assertSame(configuration.getSnapshot(), configuration.getSnapshot());
+    }
+
+    @Test
+    public void testKnownGerritProjects() {
+        configuration.setIdsOfKnownGerritProjects(Arrays.asList("10000", "0", "not-a-number", "10001", "10000"));
+
+        assertTrue(configuration.isGerritProject(10000L));
+        assertTrue(configuration.isGerritProject(10001L));
+        assertTrue(configuration.isGerritProject(0L));
+        assertFalse(configuration.isGerritProject(10002L));
+
+        configuration.setIdsOfKnownGerritProjects(Collections.<String>emptyList());
+        assertFalse(configuration.isGerritProject(10000L));
+    }
+
+    @Test
+    public void testSetterInvalidatesSnapshot() {
+        GerritConfigurationSnapshot before = configuration.getSnapshot();
+
+        configuration.setSshHostname("gerrit.company.com");
+        configuration.setHttpUsername("jira");
+
+        assertEquals("gerrit.company.com", configuration.getSshHostname());
+        assertFalse(configuration.isHttpValid());
+        assertTrue(configuration.getSnapshot().getVersion() > before.getVersion());
+    }
+
+    @Test
+    public void testServersForProject() {
+        configuration.setSshHostname("gerrit.company.com");
+        configuration.setGerritServersConfig("[{\"name\": \"android\", \"projects\": [\"DROID\"]}]");
+
+        List<GerritServer> servers = configuration.getServers();
+        assertEquals(2, servers.size());
+        assertTrue(servers.get(0).isDefault());
+        assertEquals("gerrit.company.com", servers.get(0).getSshHostname());
+
+        assertEquals(servers, configuration.getServersForProject("DROID"));
+        assertEquals(servers.subList(0, 1), configuration.getServersForProject("WEB"));
+    }
+
+    @Test
+    public void testInvalidServersAreNotSaved() {
+        try {
+            configuration.setGerritServersConfig("[{\"projects\": [\"DROID\"]}]");
+            fail("Expected the server without a name to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertNull(configuration.getGerritServersConfig());
+        assertEquals(1, configuration.getServers().size());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class GerritHttpCommandTest {
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private HttpServer httpServer;
+    private volatile String failingPath;
+
+    @Before
+    public void setUp() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/", this::handle);
+        httpServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        httpServer.stop(0);
+        GerritHttpCommand.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8.name());
+        requests.add(path);
+
+        byte[] body = (path.equals(failingPath) ? "change is closed" : "{}").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(path.equals(failingPath) ? 409 : 200, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private GerritHttpCommand createCommand() {
+        URI baseUrl = URI.create("http://localhost:" + httpServer.getAddress().getPort() + "/");
+        GerritServer server = new GerritServer(GerritServer.DEFAULT_NAME, "http", null, 29418, null, null, 0, baseUrl, null, null,
+                Collections.<String>emptyList());
+        return new GerritHttpCommand(server);
+    }
+
+    private static GerritChange createChange() {
+        GerritChange change = new GerritChange();
+        GerritPatchSet patchSet = new GerritPatchSet();
+        patchSet.setNumber("2");
+        change.setNumber("1");
+        change.setPatchSet(patchSet);
+        return change;
+    }
+
+    @Test
+    public void testRestoresBeforeReview() throws IOException {
+        assertTrue(createCommand().doReview(createChange(), "--restore --code-review +2 --submit"));
+
+        assertEquals(Arrays.asList("/changes/1/restore", "/changes/1/revisions/2/review", "/changes/1/submit"), requests);
+    }
+
+    @Test
+    public void testAbandonsAfterReview() throws IOException {
+        assertTrue(createCommand().doReview(createChange(), "--abandon --message Obsolete"));
+
+        assertEquals(Arrays.asList("/changes/1/revisions/2/review", "/changes/1/abandon"), requests);
+    }
+
+    @Test
+    public void testNoReviewWhenRestoreFails() throws IOException {
+        failingPath = "/changes/1/restore";
+
+        assertFalse(createCommand().doReviews(Collections.singletonList(createChange()), "--restore --code-review +2"));
+
+        assertEquals(Collections.singletonList("/changes/1/restore"), requests);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class GerritReviewInputTest {
+
+    @Test
+    public void testDefaultArgs() {
+        GerritReviewInput input = GerritReviewInput.parse("--verified 1 --submit");
+
+        assertEquals(1, input.getLabels().size());
+        assertEquals(Integer.valueOf(1), input.getLabels().get("Verified"));
+        assertTrue(input.isSubmit());
+        assertFalse(input.isAbandon());
+        assertNull(input.getMessage());
+        assertTrue(input.getUnsupportedArgs().isEmpty());
+    }
+
+    @Test
+    public void testLabelsAndMessage() {
+        GerritReviewInput input = GerritReviewInput.parse("--code-review +2 -l Priority=-1 --message \"Ready for \\\"Test\\\"\"");
+
+        assertEquals(Integer.valueOf(2), input.getLabels().get("Code-Review"));
+        assertEquals(Integer.valueOf(-1), input.getLabels().get("Priority"));
+        assertEquals("Ready for \"Test\"", input.getMessage());
+        assertFalse(input.isSubmit());
+
+        JSONObject json = input.toReviewJson();
+        assertEquals("Ready for \"Test\"", json.getString("message"));
+        assertEquals(2, json.getJSONObject("labels").getInt("Code-Review"));
+        assertEquals(-1, json.getJSONObject("labels").getInt("Priority"));
+    }
+
+    @Test
+    public void testUnsupportedArgs() {
+        GerritReviewInput input = GerritReviewInput.parse("--publish --verified yes");
+
+        assertTrue(input.getLabels().isEmpty());
+        assertFalse(input.hasReview());
+        assertEquals(Arrays.asList("--publish", "--verified", "yes"), input.getUnsupportedArgs());
+    }
+
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("-m", "it's done", "--submit"), GerritReviewInput.tokenize("  -m \"it's done\"   --submit "));
+        assertEquals(Arrays.asList("-m", "a b"), GerritReviewInput.tokenize("-m 'a b'"));
+        assertTrue(GerritReviewInput.tokenize(null).isEmpty());
+    }
+
+    @Test
+    public void testToLabelName() {
+        assertEquals("Code-Review", GerritReviewInput.toLabelName("code-review"));
+        assertEquals("Verified", GerritReviewInput.toLabelName("verified"));
+    }
+
+    private static GerritChange createChange(boolean isOpen, String label, String value, String username) {
+        GerritChange change = new GerritChange();
+        GerritPatchSet patchSet = new GerritPatchSet();
+        change.setOpen(isOpen);
+        change.setPatchSet(patchSet);
+
+        if (label != null) {
+            JSONObject by = new JSONObject().element("name", username).element("username", username);
+            JSONObject json = new JSONObject().element("type", label).element("value", value).element("by", by);
+            patchSet.setApprovals(Collections.singletonList(new GerritApproval(json)));
+        }
+
+        return change;
+    }
+
+    @Test
+    public void testNoOpWhenClosed() {
+        GerritChange merged = createChange(false, null, null, null);
+
+        assertTrue(GerritReviewInput.parse("--verified 1 --submit").isNoOp(merged, "jira"));
+        assertFalse(GerritReviewInput.parse("--restore").isNoOp(merged, "jira"));
+    }
+
+    @Test
+    public void testNoOpWhenAlreadyScored() {
+        GerritChange change = createChange(true, "Verified", "1", "jira");
+
+        assertTrue(GerritReviewInput.parse("--verified 1").isNoOp(change, "jira"));
+        assertFalse(GerritReviewInput.parse("--verified 1").isNoOp(change, "someone-else"));
+        assertFalse(GerritReviewInput.parse("--verified 1").isNoOp(change, null));
+        assertFalse(GerritReviewInput.parse("--verified -1").isNoOp(change, "jira"));
+        assertFalse(GerritReviewInput.parse("--verified 1 --submit").isNoOp(change, "jira"));
+        assertFalse(GerritReviewInput.parse("--verified 1 --publish").isNoOp(change, "jira"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GerritServerTest {
+
+    @Test
+    public void testParseServers() {
+        List<GerritServer> servers = GerritServer.parseServers("[{\"name\": \"android\", \"connectionType\": \"http\", "
+                + "\"httpBaseUrl\": \"https://review.example.com/\", \"projects\": [\"DROID\", \"TV\"]},"
+                + "{\"name\": \"backend\", \"sshHostname\": \"gerrit.example.com\", \"sshPort\": 29419}]");
+
+        assertEquals(2, servers.size());
+
+        GerritServer android = servers.get(0);
+        assertEquals("android", android.getName());
+        assertTrue(android.isHttp());
+        assertEquals(URI.create("https://review.example.com/"), android.getHttpBaseUrl());
+        assertTrue(android.servesProject("DROID"));
+        assertFalse(android.servesProject("WEB"));
+
+        GerritServer backend = servers.get(1);
+        assertFalse(backend.isHttp());
+        assertEquals(29419, backend.getSshPort());
+        assertTrue(backend.servesProject("WEB"));
+        assertFalse(backend.isSshValid());
+    }
+
+    @Test
+    public void testParseEmptyServers() {
+        assertTrue(GerritServer.parseServers(null).isEmpty());
+        assertTrue(GerritServer.parseServers("  ").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidJson() {
+        GerritServer.parseServers("[{\"name\": ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseDefaultName() {
+        GerritServer.parseServers("[{\"name\": \"default\"}]");
+    }
+
+    @Test
+    public void testCacheKey() {
+        GerritServer defaultServer = new GerritServer(GerritServer.DEFAULT_NAME, null, null, 29418, null, null, 0, null, null, null, null);
+        GerritServer other = GerritServer.parseServers("[{\"name\": \"other\"}]").get(0);
+
+        assertEquals("ABC-1", defaultServer.getCacheKey("ABC-1"));
+        assertEquals("other|ABC-1", other.getCacheKey("ABC-1"));
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        final long[] now = {1000};
+        CircuitBreaker breaker = new CircuitBreaker(2, 500) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+
+        // Half open: a single trial request
+        now[0] += 501;
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+}
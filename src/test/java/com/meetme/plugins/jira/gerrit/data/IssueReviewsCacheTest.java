@@ -0,0 +1,432 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsCache.Timed;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import com.meetme.plugins.jira.gerrit.metrics.CacheStats;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IssueReviewsCacheTest {
+    private static final long EXPIRATION = 30000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvictsByWeight() {
+        CacheStats stats = new CacheStats();
+        Map<String, String> cache = IssueReviewsCache.newWeightedCache(10, String::length, EXPIRATION, stats);
+
+        cache.put("A", "1234");
+        cache.put("B", "1234");
+        assertEquals(8, stats.getWeight());
+        assertEquals(10, stats.getMaxWeight());
+
+        // Least recently used goes first
+        cache.get("A");
+        cache.put("C", "123");
+        assertEquals(7, stats.getWeight());
+        assertTrue(cache.containsKey("A"));
+        assertFalse(cache.containsKey("B"));
+        assertTrue(cache.containsKey("C"));
+
+        // Replacing an entry replaces its weight
+        cache.put("A", "1");
+        assertEquals(4, stats.getWeight());
+
+        cache.remove("C");
+        assertEquals(1, stats.getWeight());
+        assertEquals(1, stats.getEvictions());
+    }
+
+    @Test
+    public void testOversizedEntryIsNotKept() {
+        CacheStats stats = new CacheStats();
+        Map<String, String> cache = IssueReviewsCache.newWeightedCache(10, String::length, EXPIRATION, stats);
+
+        cache.put("A", "1234");
+        cache.put("B", "12345678901");
+
+        assertFalse(cache.containsKey("B"));
+        assertTrue(cache.containsKey("A"));
+        assertEquals(4, stats.getWeight());
+    }
+
+    @Test
+    public void testScanDoesNotPushOutHotEntries() {
+        Map<String, String> cache = IssueReviewsCache.newTimedCache(10, EXPIRATION, new CacheStats());
+
+        for (int i = 0; i < 5; i++) {
+            cache.put("HOT-" + i, "hot");
+
+            for (int views = 0; views < 3; views++) {
+                assertNotNull(cache.get("HOT-" + i));
+            }
+        }
+
+        // e.g., a bulk transition over many issues that are never viewed again
+        for (int i = 0; i < 200; i++) {
+            assertNull(cache.get("SCAN-" + i));
+            cache.put("SCAN-" + i, "scan");
+        }
+
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.containsKey("HOT-" + i));
+        }
+    }
+
+    @Test
+    public void testNewEntryMustBeUsedMoreThanItsVictim() {
+        CacheStats stats = new CacheStats();
+        Map<String, String> cache = IssueReviewsCache.newTimedCache(2, EXPIRATION, stats);
+
+        cache.put("A", "a");
+        cache.put("B", "b");
+        for (int views = 0; views < 3; views++) {
+            cache.get("A");
+            cache.get("B");
+        }
+
+        // Only one fits in the protected segment, so A goes back on probation, but is still used more than C
+        cache.put("C", "c");
+        assertFalse(cache.containsKey("C"));
+        assertTrue(cache.containsKey("A"));
+        assertTrue(cache.containsKey("B"));
+
+        // Until C is looked up more often
+        for (int views = 0; views < 4; views++) {
+            assertNull(cache.get("C"));
+        }
+        cache.put("C", "c");
+        assertTrue(cache.containsKey("C"));
+        assertFalse(cache.containsKey("A"));
+        assertTrue(cache.containsKey("B"));
+        assertEquals(2, stats.getEvictions());
+    }
+
+    @Test
+    public void testClear() {
+        CacheStats stats = new CacheStats();
+        Map<String, String> cache = IssueReviewsCache.newWeightedCache(10, String::length, EXPIRATION, stats);
+
+        cache.put("A", "1234");
+        cache.clear();
+        cache.put("B", "123456789");
+
+        assertEquals(9, stats.getWeight());
+        assertTrue(cache.containsKey("B"));
+    }
+
+    @Test
+    public void testSweepDropsExpiredEntries() {
+        GerritChange change = createChange("SWEEP-1: Fix typo", 0);
+        change.setNumber("9001");
+        IssueReviewsCache.putReviews("SWEEP-1", Collections.singletonList(change));
+        IssueReviewsCache.putExistence("SWEEP-1:any", true);
+
+        IssueReviewsCache.sweep(System.currentTimeMillis());
+        assertTrue(IssueReviewsCache.getCache().containsKey("SWEEP-1"));
+
+        assertTrue(IssueReviewsCache.sweep(System.currentTimeMillis() + GerritConfiguration.DEFAULT_CACHE_TIMEOUT + 1) >= 2);
+        assertFalse(IssueReviewsCache.getCache().containsKey("SWEEP-1"));
+        assertFalse(IssueReviewsCache.getExistenceCache().containsKey("SWEEP-1:any"));
+        // ... and its changes are released
+        assertFalse(IssueReviewsCache.updateChange(change));
+    }
+
+    @Test
+    public void testJitterSpreadsExpiry() {
+        IssueReviewsCache.setExpiryJitter(50);
+
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 100; i++) {
+                IssueReviewsCache.putExistence("JITTER-" + i + ":any", true);
+            }
+
+            IssueReviewsCache.sweep(now + GerritConfiguration.DEFAULT_CACHE_TIMEOUT * 3 / 4);
+
+            int remaining = 0;
+            for (int i = 0; i < 100; i++) {
+                remaining += IssueReviewsCache.getExistenceCache().containsKey("JITTER-" + i + ":any") ? 1 : 0;
+            }
+
+            // Up to half of the period earlier, so about half of them are gone by then
+            assertTrue(remaining > 0);
+            assertTrue(remaining < 100);
+        } finally {
+            IssueReviewsCache.setExpiryJitter(GerritConfiguration.DEFAULT_CACHE_JITTER);
+        }
+    }
+
+    @Test
+    public void testChangesAreSharedAcrossIssues() {
+        IssueReviewsCache.getCache().clear();
+        GerritChange loadedForFirst = createChange("SHARE-1, SHARE-2: Rename", 0);
+        GerritChange loadedForSecond = createChange("SHARE-1, SHARE-2: Rename", 1);
+        loadedForSecond.setLastUpdated(new Date(2000));
+        loadedForFirst.setLastUpdated(new Date(1000));
+
+        IssueReviewsCache.putReviews("SHARE-1", Collections.singletonList(loadedForFirst));
+        IssueReviewsCache.putReviews("SHARE-2", Collections.singletonList(loadedForSecond));
+
+        // One copy, the latest, for both issues
+        assertEquals(1, IssueReviewsCache.getChangeStore().size());
+        assertSame(loadedForSecond, IssueReviewsCache.getReviews("SHARE-1").get(0));
+        assertSame(loadedForSecond, IssueReviewsCache.getReviews("SHARE-2").get(0));
+
+        // An update reaches every issue; an older copy doesn't replace a newer one
+        GerritChange updated = createChange("SHARE-1, SHARE-2: Rename", 2);
+        updated.setLastUpdated(new Date(3000));
+        assertTrue(IssueReviewsCache.updateChange(updated));
+        assertTrue(IssueReviewsCache.updateChange(loadedForFirst));
+        assertSame(updated, IssueReviewsCache.getReviews("SHARE-1").get(0));
+        assertSame(updated, IssueReviewsCache.getReviews("SHARE-2").get(0));
+
+        // Kept as long as an issue refers to it
+        IssueReviewsCache.getCache().remove("SHARE-1");
+        assertEquals(1, IssueReviewsCache.getChangeStore().size());
+        IssueReviewsCache.getCache().remove("SHARE-2");
+        assertEquals(0, IssueReviewsCache.getChangeStore().size());
+        assertFalse(IssueReviewsCache.updateChange(updated));
+    }
+
+    @Test
+    public void testChangeStoreReferenceCounts() {
+        ChangeStore store = new ChangeStore();
+        GerritChange first = createChange("First", 0);
+        GerritChange second = createChange("Second", 0);
+        second.setNumber("2");
+        second.setServer("other");
+
+        List<String> keys = store.retain(Arrays.asList(first, second, first));
+        assertEquals(Arrays.asList("1", "other|2"), keys);
+
+        store.retain(Collections.singletonList(first));
+        store.release(keys);
+        assertEquals(Collections.singletonList(first), store.resolve(keys));
+
+        store.release(Collections.singletonList("1"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testWeighReviews() {
+        GerritChange small = createChange("Fix typo", 0);
+        GerritChange large = createChange("Rework the scheduler\n\n" + StringUtils.repeat("Details. ", 200), 5);
+
+        long empty = IssueReviewsCache.weigh(Collections.emptyList());
+        long smallWeight = IssueReviewsCache.weigh(Collections.singletonList(small));
+        long largeWeight = IssueReviewsCache.weigh(Collections.singletonList(large));
+
+        assertTrue(empty > 0);
+        assertTrue(smallWeight > empty);
+        // The commit message is counted at 2 bytes per character
+        assertTrue(largeWeight - smallWeight > 2 * 1800);
+        assertEquals(2 * smallWeight - empty, IssueReviewsCache.weigh(Arrays.asList(small, small)));
+    }
+
+    @Test
+    public void testPushedOutReviewsComeBackFromOffHeap() {
+        // Nothing fits on the heap anymore, so everything put is pushed out right away
+        IssueReviewsCache.setMaxWeight(1);
+        IssueReviewsCache.setOffHeapMemory(1024 * 1024);
+
+        try {
+            GerritChange change = createChange("Kept off-heap", 2);
+            change.setNumber("4242");
+            IssueReviewsCache.putReviews("OFFHEAP-1", Collections.singletonList(change));
+            assertFalse(IssueReviewsCache.getCache().containsKey("OFFHEAP-1"));
+            assertEquals(1, IssueReviewsCache.getOffHeapSize());
+
+            List<GerritChange> restored = IssueReviewsCache.getReviews("OFFHEAP-1");
+            assertEquals(1, restored.size());
+            assertEquals(4242, restored.get(0).getChangeNumber());
+            // The commit message is kept in its own cache, not with the change
+            assertNull(restored.get(0).getCommitMessage());
+            assertEquals("Kept off-heap", IssueReviewsCache.getCommitMessage(restored.get(0)));
+            assertEquals(2, restored.get(0).getPatchSet().getApprovals().size());
+
+            // Still doesn't fit, so it went right back
+            assertEquals(1, IssueReviewsCache.getOffHeapSize());
+
+            IssueReviewsCache.evict("OFFHEAP-1");
+            assertEquals(0, IssueReviewsCache.getOffHeapSize());
+            assertNull(IssueReviewsCache.getReviews("OFFHEAP-1"));
+        } finally {
+            IssueReviewsCache.setMaxWeight(1024L * GerritConfiguration.DEFAULT_CACHE_MEMORY);
+            IssueReviewsCache.setOffHeapMemory(0);
+        }
+    }
+
+    @Test
+    public void testCommitMessagesOfCachedChangesSkipAdmission() {
+        // Five of these fill the commit message cache
+        String body = StringUtils.repeat("x", 100000);
+        List<GerritChange> hot = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            GerritChange change = createChange("Hot " + i + "\n\n" + body, 0);
+            change.setNumber(String.valueOf(6000 + i));
+            hot.add(change);
+        }
+
+        try {
+            IssueReviewsCache.putReviews("MESSAGES-1", hot);
+
+            for (int i = 0; i < 5; i++) {
+                for (GerritChange change : hot) {
+                    assertNotNull(IssueReviewsCache.getCommitMessage(change));
+                }
+            }
+
+            GerritChange fresh = createChange("Fresh\n\n" + body, 0);
+            fresh.setNumber("6100");
+            IssueReviewsCache.putReviews("MESSAGES-2", Collections.singletonList(fresh));
+            assertEquals("Fresh\n\n" + body, IssueReviewsCache.getCommitMessage(fresh));
+
+            // Evicting the issue drops the messages of its changes too
+            IssueReviewsCache.evict("MESSAGES-2");
+            assertNull(IssueReviewsCache.getCommitMessage(fresh));
+        } finally {
+            IssueReviewsCache.clear();
+        }
+    }
+
+    @Test
+    public void testPrewarmedReviewsAreAdmittedToFullCache() {
+        GerritChange hot = createChange("Viewed often", 1);
+        hot.setNumber("5001");
+        GerritChange prewarmed = createChange("Prewarmed", 1);
+        prewarmed.setNumber("5002");
+
+        try {
+            IssueReviewsCache.putReviews("HOT-1", Collections.singletonList(hot));
+
+            for (int i = 0; i < 5; i++) {
+                assertNotNull(IssueReviewsCache.getReviews("HOT-1"));
+            }
+
+            // Room for one issue only, which is viewed more often than the new one
+            long weight = IssueReviewsCache.weigh(IssueReviewsCache.getReviews("HOT-1"));
+            IssueReviewsCache.setMaxWeight(weight + weight / 2);
+
+            IssueReviewsCache.putReviews("PREWARMED-1", Collections.singletonList(prewarmed));
+            assertFalse(IssueReviewsCache.getCache().containsKey("PREWARMED-1"));
+
+            IssueReviewsCache.putReviews("PREWARMED-1", Collections.singletonList(prewarmed), true);
+            assertTrue(IssueReviewsCache.getCache().containsKey("PREWARMED-1"));
+            assertFalse(IssueReviewsCache.getCache().containsKey("HOT-1"));
+        } finally {
+            IssueReviewsCache.setMaxWeight(1024L * GerritConfiguration.DEFAULT_CACHE_MEMORY);
+            IssueReviewsCache.clear();
+        }
+    }
+
+    @Test
+    public void testRestoresSnapshotOlderThanCachePeriod() throws Exception {
+        File file = writeSnapshot("RESTORED-1", System.currentTimeMillis() - 60000);
+
+        try {
+            IssueReviewsCache.restoreSnapshot(ReviewCacheSnapshot.read(file));
+            assertEquals(Boolean.TRUE, IssueReviewsCache.getExistenceCache().get("RESTORED-1:any"));
+
+            List<GerritChange> restored = IssueReviewsCache.takeFromSnapshot("RESTORED-1");
+            assertEquals(1, restored.size());
+            assertEquals(4343, restored.get(0).getChangeNumber());
+
+            // Back in the cache for another cache period
+            assertTrue(IssueReviewsCache.getCache().containsKey("RESTORED-1"));
+        } finally {
+            IssueReviewsCache.clear();
+        }
+    }
+
+    @Test
+    public void testRestoredEntriesDoNotOutliveRetention() throws Exception {
+        long now = System.currentTimeMillis();
+        File file = writeSnapshot("RESTORED-2", now - 60000);
+
+        try {
+            IssueReviewsCache.setRetention(30000);
+            IssueReviewsCache.restoreSnapshot(ReviewCacheSnapshot.read(file));
+            assertNull(IssueReviewsCache.getExistenceCache().get("RESTORED-2:any"));
+            assertNull(IssueReviewsCache.takeFromSnapshot("RESTORED-2"));
+
+            // Restored, but only until 65 seconds after it was loaded, rather than for another cache period
+            IssueReviewsCache.setRetention(65000);
+            IssueReviewsCache.restoreSnapshot(ReviewCacheSnapshot.read(file));
+            assertNotNull(IssueReviewsCache.takeFromSnapshot("RESTORED-2"));
+            assertTrue(IssueReviewsCache.getCache().containsKey("RESTORED-2"));
+
+            IssueReviewsCache.sweep(now + 5500);
+            assertFalse(IssueReviewsCache.getCache().containsKey("RESTORED-2"));
+        } finally {
+            IssueReviewsCache.setRetention(TimeUnit.MINUTES.toMillis(GerritConfiguration.DEFAULT_CACHE_RETENTION));
+            IssueReviewsCache.clear();
+        }
+    }
+
+    /**
+     * Writes a snapshot with the reviews and an existence answer of the issue, loaded at
+     * {@code loaded}.
+     */
+    private File writeSnapshot(String key, long loaded) throws Exception {
+        GerritChange change = createChange("Loaded before the restart", 1);
+        change.setNumber("4343");
+
+        File file = folder.newFile();
+        ReviewCacheSnapshot.write(file, Collections.singletonMap(key, new Timed<>(Collections.singletonList(change), loaded)),
+                Collections.singletonMap(key + ":any", new Timed<>(true, loaded)), null, TimeUnit.HOURS.toMillis(1));
+        return file;
+    }
+
+    private static GerritChange createChange(String commitMessage, int approvals) {
+        GerritChange change = new GerritChange();
+        change.setNumber("1");
+        change.setSubject(commitMessage.split("\n")[0]);
+        change.setCommitMessage(commitMessage);
+
+        GerritPatchSet patchSet = new GerritPatchSet();
+        List<GerritApproval> list = new ArrayList<>();
+
+        for (int i = 0; i < approvals; i++) {
+            JSONObject by = new JSONObject().element("name", "Reviewer " + i).element("username", "reviewer" + i);
+            list.add(new GerritApproval(new JSONObject().element("type", "Code-Review").element("value", "1").element("by", by)));
+        }
+
+        patchSet.setApprovals(list);
+        change.setPatchSet(patchSet);
+        return change;
+    }
+}
@@ -17,13 +17,20 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 
 import java.io.File;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -59,13 +66,37 @@ public class IssueReviewsManagerTest
 
     private IssueReviewsManager issueReviewsManager;
 
+    private static final GerritServer DEFAULT_SERVER = new GerritServer(GerritServer.DEFAULT_NAME, "ssh", "gerrit.example.com", 29418,
+            "jira", null, 0, null, null, null, null);
+
+    private static final GerritServer OTHER_SERVER = new GerritServer("other", "http", null, 29418, null, null, 0,
+            URI.create("https://other.example.com/"), null, null, Collections.singletonList("NEW"));
+
+    /** Doesn't answer within its 100 ms connection timeout */
+    private static final GerritServer SLOW_SERVER = new GerritServer("slow", "http", null, 29418, null, null, 100,
+            URI.create("https://slow.example.com/"), null, null, null);
+
+    private final List<String> countQueries = new ArrayList<>();
+    private final List<String> prefetchQueries = new ArrayList<>();
+    private final List<String> changeQueries = new ArrayList<>();
+    /** Queries that asked for commit messages */
+    private final List<String> messageQueries = new ArrayList<>();
+    private final Deque<List<GerritChange>> prefetchPages = new ArrayDeque<>();
+
     @Before
     public void setUp() {
         initMocks(this);
+        IssueReviewsCache.getCache().clear();
+        IssueReviewsCache.getExistenceCache().clear();
+        IssueReviewsCache.getPrefetchedProjects().clear();
 
         // gerrit configuration
         when(configuration.getIssueSearchQuery()).thenReturn(GerritConfiguration.DEFAULT_QUERY_ISSUE);
         when(configuration.getProjectSearchQuery()).thenReturn(GerritConfiguration.DEFAULT_QUERY_PROJECT);
+        when(configuration.getServersForProject(null)).thenReturn(Collections.singletonList(DEFAULT_SERVER));
+        when(configuration.getServersForProject("OLD")).thenReturn(Collections.singletonList(DEFAULT_SERVER));
+        when(configuration.getPrefetchInterval()).thenReturn(60);
+        when(configuration.getServers()).thenReturn(Collections.singletonList(DEFAULT_SERVER));
 
         // issue
         when(mockIssue.getKey()).thenReturn(ISSUE_KEY_NEW);
@@ -79,24 +110,68 @@ public class IssueReviewsManagerTest
 
         // mock gerrit review retrieval
         issueReviewsManager = new IssueReviewsImpl(configuration, mockJiraIssueManager) {
-            @Override protected List<GerritChange> getReviewsFromGerrit(String searchQuery) throws GerritQueryException
+            @Override protected List<GerritChange> getReviewsFromGerrit(GerritServer server, String searchQuery, boolean withCommitMessages)
+                    throws GerritQueryException
             {
                 List<GerritChange> reviews = new ArrayList<>();
 
+                if (withCommitMessages) {
+                    messageQueries.add(searchQuery);
+                }
+
+                if (searchQuery.startsWith("message:")) {
+                    prefetchQueries.add(searchQuery);
+                    return prefetchPages.isEmpty() ? reviews : prefetchPages.remove();
+                }
+
+                if (searchQuery.startsWith("change:")) {
+                    changeQueries.add(searchQuery);
+                    GerritChange change = new GerritChange();
+                    change.setNumber("7");
+                    change.setCommitMessage("Loaded from Gerrit");
+                    reviews.add(change);
+                    return reviews;
+                }
+
+                if (server == SLOW_SERVER) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        throw new GerritQueryException("Cancelled", e);
+                    }
+                }
+
+                if (server == OTHER_SERVER) {
+                    GerritChange otherChangeMock = mock(GerritChange.class);
+                    when(otherChangeMock.getSubject()).thenReturn(server.getName());
+                    when(otherChangeMock.getServer()).thenReturn(server.getName());
+                    when(otherChangeMock.getNumber()).thenReturn(searchQuery.contains(ISSUE_KEY_OLD) ? "101" : "102");
+                    reviews.add(otherChangeMock);
+                    return reviews;
+                }
+
                 if (searchQuery.contains(ISSUE_KEY_OLD)) {
                     GerritChange oldChangeMock = mock(GerritChange.class);
                     when(oldChangeMock.getSubject()).thenReturn(ISSUE_KEY_OLD);
+                    when(oldChangeMock.getNumber()).thenReturn("1");
                     reviews.add(oldChangeMock);
                 }
 
                 if (searchQuery.contains(ISSUE_KEY_NEW)) {
                     GerritChange newChangeMock = mock(GerritChange.class);
                     when(newChangeMock.getSubject()).thenReturn(ISSUE_KEY_NEW);
+                    when(newChangeMock.getNumber()).thenReturn("2");
                     reviews.add(newChangeMock);
                 }
 
                 return reviews;
             }
+
+            @Override protected int countReviewsFromGerrit(GerritServer server, String searchQuery) throws GerritQueryException
+            {
+                countQueries.add(searchQuery);
+                return searchQuery.contains(ISSUE_KEY_OLD) ? 1 : 0;
+            }
         };
     }
 
@@ -111,6 +186,155 @@ public class IssueReviewsManagerTest
         }
 
         assertThat(reviewSubjects, containsInAnyOrder(ISSUE_KEY_OLD, ISSUE_KEY_NEW));
+
+        // Only the summaries are loaded for the issue
+        assertTrue(messageQueries.isEmpty());
+    }
+
+    @Test
+    public void testHasReviews() throws Exception {
+        assertTrue(issueReviewsManager.hasReviews(mockIssue, true));
+        assertThat(countQueries, hasItem("(tr:" + ISSUE_KEY_OLD + ") status:open limit:1"));
+
+        // Answered from the existence cache the second time
+        countQueries.clear();
+        assertTrue(issueReviewsManager.hasReviews(mockIssue, true));
+        assertTrue(countQueries.isEmpty());
+    }
+
+    @Test
+    public void testExistenceQueryAppliesToWholeQuery() {
+        when(configuration.getIssueSearchQuery()).thenReturn("tr:%1$s OR message:%1$s");
+
+        // Not "tr:X OR (message:X status:open)"
+        assertEquals("(tr:OLD-123 OR message:OLD-123) status:open limit:1",
+                ((IssueReviewsImpl) issueReviewsManager).getExistenceQuery(ISSUE_KEY_OLD, true));
+        assertEquals("(tr:OLD-123 OR message:OLD-123) limit:1",
+                ((IssueReviewsImpl) issueReviewsManager).getExistenceQuery(ISSUE_KEY_OLD, false));
+    }
+
+    @Test
+    public void testGetReviewsForIssueFromAllServers() throws Exception {
+        when(configuration.getServersForProject(null)).thenReturn(Arrays.asList(DEFAULT_SERVER, OTHER_SERVER));
+
+        List<GerritChange> reviewsForIssue = issueReviewsManager.getReviewsForIssue(mockIssue);
+        assertEquals(4, reviewsForIssue.size());
+
+        // Each server has its own cache entries
+        assertTrue(IssueReviewsCache.getCache().containsKey(ISSUE_KEY_NEW));
+        assertTrue(IssueReviewsCache.getCache().containsKey(OTHER_SERVER.getCacheKey(ISSUE_KEY_NEW)));
+    }
+
+    @Test
+    public void testGetReviewsForIssueDoesNotWaitForSlowServer() throws Exception {
+        when(configuration.getServersForProject(null)).thenReturn(Arrays.asList(DEFAULT_SERVER, SLOW_SERVER));
+        long start = System.currentTimeMillis();
+
+        // Still shows what the default server has
+        List<GerritChange> reviewsForIssue = issueReviewsManager.getReviewsForIssue(mockIssue);
+        assertEquals(2, reviewsForIssue.size());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(IssueReviewsCache.getCache().containsKey(SLOW_SERVER.getCacheKey(ISSUE_KEY_NEW)));
+
+        ((IssueReviewsImpl) issueReviewsManager).onStop();
+    }
+
+    @Test
+    public void testHasReviewsUsesCachedReviews() throws Exception {
+        issueReviewsManager.getReviewsForIssue(mockIssue);
+
+        assertTrue(issueReviewsManager.hasReviews(mockIssue, false));
+        assertTrue(countQueries.isEmpty());
+    }
+
+    private static GerritChange createChange(int number, String subject, String commitMessage, long lastUpdated) {
+        GerritChange change = new GerritChange();
+        change.setNumber(Integer.toString(number));
+        change.setSubject(subject);
+        change.setCommitMessage(commitMessage);
+        change.setLastUpdated(new Date(lastUpdated));
+        return change;
+    }
+
+    @Test
+    public void testPrefetchReviews() throws Exception {
+        List<GerritChange> firstPage = new ArrayList<>();
+
+        for (int i = 0; i < IssueReviewsImpl.PREFETCH_PAGE_SIZE - 1; i++) {
+            firstPage.add(createChange(1000 - i, "OLD-" + (i % 10) + ": Change " + i, null, 1000000000000L - i * 1000));
+        }
+
+        firstPage.add(createChange(2000, "Refactoring", "Refactoring\n\nBug: " + ISSUE_KEY_OLD + ", XOLD-1\n", 1000000001000L));
+        GerritChange repeated = firstPage.get(firstPage.size() - 2);
+        prefetchPages.add(firstPage);
+        prefetchPages.add(Arrays.asList(repeated, createChange(10, ISSUE_KEY_OLD + ": First", null, 900000000000L)));
+
+        assertEquals(11, issueReviewsManager.prefetchReviews("OLD"));
+
+        // Pages are chained by the oldest update seen so far
+        assertEquals(Arrays.asList("message:OLD-* limit:500", "message:OLD-* before:{2001-09-09 01:38:22 +0000} limit:500"),
+                prefetchQueries);
+        // The issue keys are found in the commit messages
+        assertEquals(prefetchQueries, messageQueries);
+
+        // Answered from the prefetch, without a query of its own; only the other key is queried
+        List<GerritChange> reviews = issueReviewsManager.getReviewsForIssue(mockIssue);
+        List<String> subjects = new ArrayList<>();
+
+        for (GerritChange review : reviews) {
+            subjects.add(review.getSubject());
+        }
+
+        assertThat(subjects, containsInAnyOrder(ISSUE_KEY_OLD + ": First", "Refactoring", ISSUE_KEY_NEW));
+
+        // Issues without any reviews in the results have none
+        PrefetchedReviews prefetched = IssueReviewsCache.getPrefetchedProjects().get("OLD");
+        assertEquals(50, prefetched.get("OLD-1").size());
+        assertTrue(prefetched.get("OLD-999").isEmpty());
+
+        prefetched.invalidate("OLD-999");
+        assertNull(prefetched.get("OLD-999"));
+    }
+
+    @Test
+    public void testIncompletePrefetchOnlyAnswersForIssuesWithReviews() throws Exception {
+        List<GerritChange> page = new ArrayList<>();
+
+        for (int i = 0; i < IssueReviewsImpl.PREFETCH_PAGE_SIZE; i++) {
+            page.add(createChange(1000 - i, "OLD-1: Change " + i, null, 1000000000000L));
+        }
+
+        // The second page repeats the first, so paging stops before the last page
+        prefetchPages.add(page);
+        prefetchPages.add(page);
+
+        assertEquals(1, issueReviewsManager.prefetchReviews("OLD"));
+
+        PrefetchedReviews prefetched = IssueReviewsCache.getPrefetchedProjects().get("OLD");
+        assertFalse(prefetched.isComplete());
+        assertEquals(IssueReviewsImpl.PREFETCH_PAGE_SIZE, prefetched.get("OLD-1").size());
+        assertNull(prefetched.get("OLD-999"));
+    }
+
+    @Test
+    public void testPrefetchNeedsDefaultIssueQuery() throws Exception {
+        when(configuration.getIssueSearchQuery()).thenReturn("tr:%1$s OR topic:%1$s");
+
+        assertEquals(0, issueReviewsManager.prefetchReviews("OLD"));
+        assertTrue(prefetchQueries.isEmpty());
+        assertTrue(IssueReviewsCache.getPrefetchedProjects().isEmpty());
+    }
+
+    @Test
+    public void testChangeSharedByIssueKeysIsListedOnce() throws Exception {
+        GerritChange shared = createChange(42, ISSUE_KEY_OLD + ", " + ISSUE_KEY_NEW + ": Rename", null, 1000000000000L);
+        IssueReviewsCache.putReviews(ISSUE_KEY_OLD, Collections.singletonList(shared));
+        IssueReviewsCache.putReviews(ISSUE_KEY_NEW, Collections.singletonList(shared));
+
+        List<GerritChange> reviews = issueReviewsManager.getReviewsForIssue(mockIssue);
+
+        assertEquals(1, reviews.size());
+        assertSame(shared, reviews.get(0));
     }
 
     @Test
@@ -118,6 +342,32 @@ public class IssueReviewsManagerTest
 
     }
 
+    @Test
+    public void testGetCommitMessages() throws Exception {
+        IssueReviewsCache.clear();
+
+        GerritChange change = new GerritChange();
+        change.setNumber("7");
+        change.setCommitMessage("Cached with the change");
+        IssueReviewsCache.putReviews("MSG-1", Collections.singletonList(change));
+
+        // Only the summary is kept with the change
+        assertNull(change.getCommitMessage());
+        assertEquals(Collections.singletonList("Cached with the change"), issueReviewsManager.getCommitMessages(Collections.singletonList(change)));
+        assertTrue(changeQueries.isEmpty());
+
+        // Loaded from Gerrit once it isn't cached anymore
+        IssueReviewsCache.clear();
+        assertEquals(Collections.singletonList("Loaded from Gerrit"), issueReviewsManager.getCommitMessages(Collections.singletonList(change)));
+        assertEquals(Collections.singletonList("change:7"), changeQueries);
+        assertEquals(changeQueries, messageQueries);
+
+        // ... and cached again
+        assertEquals(Collections.singletonList("Loaded from Gerrit"), issueReviewsManager.getCommitMessages(Collections.singletonList(change)));
+        assertEquals(1, changeQueries.size());
+        IssueReviewsCache.clear();
+    }
+
     @Test
     public void testGetIssueKeys() throws Exception {
         Set<String> issueKeys = issueReviewsManager.getIssueKeys(mockIssue);
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsCache.Timed;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.metrics.CacheStats;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OffHeapReviewStoreTest {
+    private static final long EXPIRATION = 30000;
+
+    private static List<GerritChange> createChanges(String number) {
+        GerritChange change = new GerritChange();
+        change.setNumber(number);
+        change.setProject("project");
+        change.setSubject("Subject of " + number);
+        change.setOpen(true);
+        return Collections.singletonList(change);
+    }
+
+    @Test
+    public void testTakeMovesReviewsBack() {
+        CacheStats stats = new CacheStats();
+        OffHeapReviewStore store = new OffHeapReviewStore(1024 * 1024, EXPIRATION, stats);
+        long now = System.currentTimeMillis();
+
+        assertTrue(store.put("TEST-1", createChanges("1"), now));
+        assertEquals(1, store.size());
+        assertTrue(stats.getWeight() > 0);
+
+        Timed<List<GerritChange>> taken = store.take("TEST-1", now);
+        assertEquals(now, taken.timestamp);
+        assertEquals("1", taken.value.get(0).getNumber());
+        assertEquals("Subject of 1", taken.value.get(0).getSubject());
+        assertTrue(taken.value.get(0).isOpen());
+
+        assertNull(store.take("TEST-1", now));
+        assertEquals(0, store.size());
+        assertEquals(0, stats.getWeight());
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+    }
+
+    @Test
+    public void testExpiredReviewsAreDropped() {
+        OffHeapReviewStore store = new OffHeapReviewStore(1024 * 1024, EXPIRATION, new CacheStats());
+        long now = System.currentTimeMillis();
+
+        assertFalse(store.put("TEST-1", createChanges("1"), now - EXPIRATION - 1));
+        assertTrue(store.put("TEST-2", createChanges("2"), now));
+
+        assertNull(store.take("TEST-1", now));
+        assertNull(store.take("TEST-2", now + EXPIRATION));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testExpirationCanChange() {
+        OffHeapReviewStore store = new OffHeapReviewStore(1024 * 1024, 10 * EXPIRATION, new CacheStats());
+        long now = System.currentTimeMillis();
+
+        // Kept past the cache period
+        assertTrue(store.put("TEST-1", createChanges("1"), now - 2 * EXPIRATION));
+        assertTrue(store.put("TEST-2", createChanges("2"), now - 2 * EXPIRATION));
+        assertNotNull(store.take("TEST-1", now));
+
+        store.setExpiration(EXPIRATION);
+        assertNull(store.take("TEST-2", now));
+        assertFalse(store.put("TEST-3", createChanges("3"), now - 2 * EXPIRATION));
+    }
+
+    @Test
+    public void testOldestSegmentIsReused() {
+        CacheStats stats = new CacheStats();
+        int length = ReviewCodec.encode(createChanges("1")).length;
+        // Two segments, with room for two entries each
+        OffHeapReviewStore store = new OffHeapReviewStore(4 * length, 2 * length, EXPIRATION, stats);
+        long now = System.currentTimeMillis();
+
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(store.put("TEST-" + i, createChanges(Integer.toString(i)), now));
+        }
+
+        assertEquals(3, store.size());
+        assertEquals(2, stats.getEvictions());
+        assertNull(store.take("TEST-1", now));
+        assertNull(store.take("TEST-2", now));
+        assertEquals("3", store.take("TEST-3", now).value.get(0).getNumber());
+        assertEquals("5", store.take("TEST-5", now).value.get(0).getNumber());
+    }
+
+    @Test
+    public void testReplaceAndDiscard() {
+        CacheStats stats = new CacheStats();
+        OffHeapReviewStore store = new OffHeapReviewStore(1024 * 1024, EXPIRATION, stats);
+        long now = System.currentTimeMillis();
+
+        store.put("TEST-1", createChanges("1"), now);
+        store.put("TEST-1", createChanges("2"), now);
+        assertEquals(1, store.size());
+        assertEquals(ReviewCodec.encode(createChanges("2")).length, stats.getWeight());
+
+        List<GerritChange> discarded = store.discard("TEST-1");
+        assertEquals(1, discarded.size());
+        assertEquals("2", discarded.get(0).getNumber());
+        assertTrue(store.discard("TEST-1").isEmpty());
+        assertNull(store.take("TEST-1", now));
+        assertEquals(0, stats.getWeight());
+    }
+
+    @Test
+    public void testTooLargeIsNotKept() {
+        int length = ReviewCodec.encode(createChanges("1")).length;
+        OffHeapReviewStore store = new OffHeapReviewStore(length - 1, EXPIRATION, new CacheStats());
+
+        assertFalse(store.put("TEST-1", createChanges("1"), System.currentTimeMillis()));
+        assertEquals(0, store.size());
+    }
+}
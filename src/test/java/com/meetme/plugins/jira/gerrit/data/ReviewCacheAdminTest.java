@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReviewCacheAdminTest {
+    private static final GerritServer OTHER_SERVER = new GerritServer("other", "http", null, 29418, null, null, 0, null, null,
+            null, null);
+
+    private GerritConfiguration configuration;
+    private IssueReviewsManager reviewsManager;
+    private IssueManager issueManager;
+    private ProjectManager projectManager;
+    private ReviewCacheAdmin admin;
+
+    @Before
+    public void setUp() {
+        configuration = mock(GerritConfiguration.class);
+        reviewsManager = mock(IssueReviewsManager.class);
+        issueManager = mock(IssueManager.class);
+        projectManager = mock(ProjectManager.class);
+        GerritServer defaultServer = new GerritServer(GerritServer.DEFAULT_NAME, null, null, 29418, null, null, 0, null, null,
+                null, null);
+        when(configuration.getServers()).thenReturn(Arrays.asList(defaultServer, OTHER_SERVER));
+
+        admin = new ReviewCacheAdmin(configuration, reviewsManager, issueManager, projectManager, mock(SearchService.class),
+                mock(JiraAuthenticationContext.class));
+        admin.onStart();
+        admin.flush();
+    }
+
+    @After
+    public void tearDown() {
+        admin.onStop();
+        admin.flush();
+    }
+
+    @Test
+    public void testEvictForgetsEveryServer() {
+        List<GerritChange> changes = Collections.emptyList();
+        IssueReviewsCache.putReviews("ADMIN-1", changes);
+        IssueReviewsCache.putReviews("other|ADMIN-1", changes);
+        IssueReviewsCache.putReviews("ADMIN-2", changes);
+
+        admin.evict(" admin-1 ");
+
+        assertNull(IssueReviewsCache.getReviews("ADMIN-1"));
+        assertNull(IssueReviewsCache.getReviews("other|ADMIN-1"));
+        assertNotNull(IssueReviewsCache.getReviews("ADMIN-2"));
+    }
+
+    @Test
+    public void testFlushForgetsEverything() {
+        IssueReviewsCache.putReviews("ADMIN-1", Collections.emptyList());
+        IssueReviewsCache.putExistence("ADMIN-2:any", true);
+
+        admin.flush();
+
+        assertEquals(0, admin.getCachedIssueCount());
+        assertEquals(0, admin.getExistenceCount());
+    }
+
+    @Test
+    public void testTopEntriesByHits() {
+        IssueReviewsCache.putReviews("ADMIN-1", Collections.emptyList());
+        IssueReviewsCache.putReviews("ADMIN-2", Collections.emptyList());
+        IssueReviewsCache.putReviews("ADMIN-3", Collections.emptyList());
+        IssueReviewsCache.getReviews("ADMIN-2");
+        IssueReviewsCache.getReviews("ADMIN-2");
+        IssueReviewsCache.getReviews("ADMIN-3");
+
+        List<ReviewCacheEntry> top = admin.getTopEntries(2);
+
+        assertEquals(2, top.size());
+        assertEquals("ADMIN-2", top.get(0).getCacheKey());
+        assertEquals(2, top.get(0).getHits());
+        assertEquals("ADMIN-3", top.get(1).getCacheKey());
+        assertTrue(top.get(1).getWeight() > 0);
+
+        // Reloading an entry starts counting again
+        IssueReviewsCache.putReviews("ADMIN-2", Collections.emptyList());
+        assertEquals("ADMIN-3", admin.getTopEntries(1).get(0).getCacheKey());
+    }
+
+    @Test
+    public void testPrewarmProject() throws Exception {
+        Project project = mock(Project.class);
+        when(project.getId()).thenReturn(10L);
+        when(project.getKey()).thenReturn("ADMIN");
+        when(projectManager.getProjectObjByKey("ADMIN")).thenReturn(project);
+        when(issueManager.getIssueIdsForProject(10L)).thenReturn(Arrays.asList(1L, 2L));
+
+        Issue first = mock(Issue.class);
+        Issue second = mock(Issue.class);
+        when(second.getKey()).thenReturn("ADMIN-2");
+        when(issueManager.getIssueObject(1L)).thenReturn(first);
+        when(issueManager.getIssueObject(2L)).thenReturn(second);
+        doThrow(new GerritQueryException("Gerrit is down")).when(reviewsManager).prewarmReviews(second);
+
+        PrewarmProgress progress = admin.prewarmProject("admin");
+        assertEquals("ADMIN", progress.getSelection());
+        assertEquals(2, progress.getTotal());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (progress.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(progress.isRunning());
+        assertEquals(2, progress.getCompleted());
+        assertEquals(1, progress.getFailed());
+        assertEquals(100, progress.getPercent());
+        assertSame(progress, admin.getPrewarmProgress());
+        verify(reviewsManager).prewarmReviews(first);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrewarmUnknownProject() {
+        admin.prewarmProject("NOPE");
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsCache.Timed;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.fake.ChangeCorpus;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ReviewCacheSnapshotTest {
+    private static final long EXPIRATION = 30000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private List<GerritChange> changes;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "review-cache.snapshot");
+        changes = new ArrayList<>();
+
+        ChangeCorpus corpus = new ChangeCorpus("FAKE", 1, 3, 42);
+        for (ChangeCorpus.Change change : corpus.getChanges(corpus.getIssueKeys().get(0))) {
+            GerritChange gerritChange = new GerritChange(change.toSshJson("https://gerrit.example.com/", true));
+            gerritChange.setServer("primary");
+            changes.add(gerritChange);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        long loaded = System.currentTimeMillis() - 1000;
+        Map<String, Timed<List<GerritChange>>> reviews = new LinkedHashMap<>();
+        reviews.put("FAKE-1", new Timed<>(changes, loaded));
+        reviews.put("FAKE-2", new Timed<>(Collections.emptyList(), loaded));
+        Map<String, Timed<Boolean>> existence = Collections.singletonMap("FAKE-3:open", new Timed<>(true, loaded));
+
+        ReviewCacheSnapshot.write(file, reviews, existence, null, EXPIRATION);
+        ReviewCacheSnapshot snapshot = ReviewCacheSnapshot.read(file);
+
+        assertEquals(2, snapshot.getPendingCount());
+        assertEquals(Collections.singleton("FAKE-3:open"), snapshot.getExistence(EXPIRATION).keySet());
+        assertTrue(snapshot.getExistence(EXPIRATION).get("FAKE-3:open").value);
+
+        Timed<List<GerritChange>> restored = snapshot.takeReviews("FAKE-1", EXPIRATION);
+        assertEquals(loaded, restored.timestamp);
+        assertEquals(changes.size(), restored.value.size());
+
+        for (int i = 0; i < changes.size(); i++) {
+            GerritChange expected = changes.get(i);
+            GerritChange actual = restored.value.get(i);
+
+            assertEquals(expected.getServer(), actual.getServer());
+            assertEquals(expected.getProject(), actual.getProject());
+            assertEquals(expected.getNumber(), actual.getNumber());
+            assertEquals(expected.getSubject(), actual.getSubject());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getCommitMessage(), actual.getCommitMessage());
+            assertNotNull(expected.getLastUpdated());
+            assertEquals(expected.getLastUpdated(), actual.getLastUpdated());
+            assertEquals(expected.isOpen(), actual.isOpen());
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getOwner().getUsername(), actual.getOwner().getUsername());
+            assertEquals(expected.getPatchSet().getRevision(), actual.getPatchSet().getRevision());
+            assertEquals(expected.getPatchSet().getApprovals().size(), actual.getPatchSet().getApprovals().size());
+
+            for (int j = 0; j < expected.getPatchSet().getApprovals().size(); j++) {
+                GerritApproval expectedApproval = expected.getPatchSet().getApprovals().get(j);
+                GerritApproval actualApproval = actual.getPatchSet().getApprovals().get(j);
+
+                assertEquals(expectedApproval.getType(), actualApproval.getType());
+                assertEquals(expectedApproval.getValueAsInt(), actualApproval.getValueAsInt());
+                assertEquals(expectedApproval.getBy().getUsername(), actualApproval.getBy().getUsername());
+            }
+        }
+
+        assertTrue(snapshot.takeReviews("FAKE-2", EXPIRATION).value.isEmpty());
+
+        // Each entry is only handed out once; from then on it lives in the cache
+        assertNull(snapshot.takeReviews("FAKE-1", EXPIRATION));
+        assertEquals(0, snapshot.getPendingCount());
+    }
+
+    @Test
+    public void testExpiredEntriesAreSkipped() throws Exception {
+        long expired = System.currentTimeMillis() - EXPIRATION - 1000;
+        Map<String, Timed<List<GerritChange>>> reviews = Collections.singletonMap("FAKE-1", new Timed<>(changes, expired));
+        Map<String, Timed<Boolean>> existence = Collections.singletonMap("FAKE-1", new Timed<>(true, expired));
+
+        ReviewCacheSnapshot.write(file, reviews, existence, null, EXPIRATION);
+        ReviewCacheSnapshot snapshot = ReviewCacheSnapshot.read(file);
+
+        assertNull(snapshot.takeReviews("FAKE-1", EXPIRATION));
+        assertTrue(snapshot.getExistence(EXPIRATION).isEmpty());
+    }
+
+    @Test
+    public void testPendingEntriesAreCarriedOver() throws Exception {
+        long loaded = System.currentTimeMillis() - 1000;
+        Map<String, Timed<List<GerritChange>>> reviews = new LinkedHashMap<>();
+        reviews.put("FAKE-1", new Timed<>(changes, loaded));
+        reviews.put("FAKE-2", new Timed<>(changes.subList(0, 1), loaded));
+        ReviewCacheSnapshot.write(file, reviews, Collections.emptyMap(), null, EXPIRATION);
+
+        ReviewCacheSnapshot previous = ReviewCacheSnapshot.read(file);
+        assertNotNull(previous.takeReviews("FAKE-1", EXPIRATION));
+
+        // FAKE-1 was taken (and is written from the cache, if still there); FAKE-2 is still pending
+        ReviewCacheSnapshot.write(file, Collections.emptyMap(), Collections.emptyMap(), previous, EXPIRATION);
+        ReviewCacheSnapshot snapshot = ReviewCacheSnapshot.read(file);
+
+        assertEquals(1, snapshot.getPendingCount());
+        Timed<List<GerritChange>> carried = snapshot.takeReviews("FAKE-2", EXPIRATION);
+        assertEquals(loaded, carried.timestamp);
+        assertEquals(changes.get(0).getNumber(), carried.value.get(0).getNumber());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersionIsRejected() throws Exception {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x47524353);
+            out.writeInt(1);
+            out.writeInt(ReviewCodec.VERSION + 1);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        ReviewCacheSnapshot.read(file);
+    }
+
+    @Test
+    public void testCorruptLengthsAreRejected() {
+        // One change, whose first string has a negative length
+        assertUndecodable(new byte[] {1, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f});
+        // More changes than there are bytes left
+        assertUndecodable(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0});
+        // A reference to a string that hasn't been written
+        assertUndecodable(new byte[] {1, 5});
+    }
+
+    private static void assertUndecodable(byte[] data) {
+        try {
+            ReviewCodec.decode(data, 0, data.length);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // Corrupt entries are ignored by the snapshot
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testGarbageIsRejected() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("not a snapshot".getBytes("UTF-8"));
+        }
+
+        ReviewCacheSnapshot.read(file);
+    }
+}
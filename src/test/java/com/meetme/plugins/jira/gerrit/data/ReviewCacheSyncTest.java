@@ -0,0 +1,217 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.cluster.ClusterMessageConsumer;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.fake.InProcessCluster;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ReviewCacheSyncTest {
+    private InProcessCluster cluster;
+    private NodeCache cacheA;
+    private NodeCache cacheB;
+    private NodeCache cacheC;
+    private ReviewCacheSync nodeA;
+    private ReviewCacheSync nodeB;
+    private ReviewCacheSync nodeC;
+
+    @Before
+    public void setUp() {
+        cluster = new InProcessCluster();
+        cacheA = new NodeCache();
+        cacheB = new NodeCache();
+        cacheC = new NodeCache();
+        nodeA = new ReviewCacheSync(cluster.newNode(), cacheA);
+        nodeB = new ReviewCacheSync(cluster.newNode(), cacheB);
+        nodeC = new ReviewCacheSync(cluster.newNode(), cacheC);
+        nodeA.onStart();
+        nodeB.onStart();
+        nodeC.onStart();
+    }
+
+    @Test
+    public void testInvalidationReachesOtherNodes() {
+        nodeA.invalidated("secondary|TEST-1");
+
+        assertTrue(cacheA.evicted.isEmpty());
+        assertEquals(Collections.singletonList("secondary|TEST-1"), cacheB.evicted);
+        assertEquals(Collections.singletonList("secondary|TEST-1"), cacheC.evicted);
+    }
+
+    @Test
+    public void testSummaryReachesOtherNodes() {
+        long now = System.currentTimeMillis();
+        nodeB.refreshed("TEST-1", true, false, now);
+        nodeB.refreshed("TEST-2", null, true, now);
+        nodeB.refreshed("TEST-3", null, null, now);
+
+        Map<String, Boolean> expected = new HashMap<>();
+        expected.put("TEST-1:any", true);
+        expected.put("TEST-1:open", false);
+        expected.put("TEST-2:open", true);
+
+        assertEquals(expected, cacheA.existence);
+        assertEquals(expected, cacheC.existence);
+        assertTrue(cacheB.existence.isEmpty());
+    }
+
+    @Test
+    public void testSummaryLoadedBeforeInvalidationIsDropped() {
+        long loadedAt = System.currentTimeMillis() - 1000;
+        nodeA.invalidated("TEST-1");
+
+        // Not sent by a node that already knows about the invalidation ...
+        nodeB.refreshed("TEST-1", true, true, loadedAt);
+        assertTrue(cacheA.existence.isEmpty());
+        assertTrue(cacheC.existence.isEmpty());
+
+        // ... and not applied by one that received it first
+        nodeC.receive("S 11 TEST-1");
+        assertTrue(cacheC.existence.isEmpty());
+
+        // Other issues aren't affected
+        nodeB.refreshed("TEST-2", true, true, loadedAt);
+        assertEquals(Boolean.TRUE, cacheC.existence.get("TEST-2:open"));
+    }
+
+    @Test
+    public void testSameSummaryIsSentOnce() {
+        long now = System.currentTimeMillis();
+        nodeB.refreshed("TEST-1", true, false, now);
+        nodeB.refreshed("TEST-1", true, false, now);
+        assertEquals(2, cacheA.puts);
+
+        // A different answer is news
+        nodeB.refreshed("TEST-1", true, true, now);
+        assertEquals(4, cacheA.puts);
+        assertEquals(Boolean.TRUE, cacheA.existence.get("TEST-1:open"));
+    }
+
+    @Test
+    public void testFlushReachesOtherNodes() {
+        nodeC.flushed();
+
+        assertEquals(0, cacheC.flushes);
+        assertEquals(1, cacheA.flushes);
+        assertEquals(1, cacheB.flushes);
+    }
+
+    @Test
+    public void testStoppedNodeReceivesNothing() {
+        nodeC.onStop();
+        nodeA.invalidated("TEST-1");
+
+        assertEquals(Collections.singletonList("TEST-1"), cacheB.evicted);
+        assertTrue(cacheC.evicted.isEmpty());
+    }
+
+    @Test
+    public void testOversizedAndMalformedMessages() {
+        StringBuilder key = new StringBuilder("TEST-");
+        while (key.length() < ReviewCacheSync.MAX_MESSAGE_LENGTH) {
+            key.append('1');
+        }
+
+        nodeA.invalidated(key.toString());
+        nodeB.receive("");
+        nodeB.receive("S 1");
+        nodeB.receive("X TEST-1");
+
+        assertTrue(cacheB.evicted.isEmpty());
+        assertTrue(cacheB.existence.isEmpty());
+    }
+
+    @Test
+    public void testJiraClusterMessaging() {
+        ClusterMessagingService messagingService = mock(ClusterMessagingService.class);
+        ReviewCacheSync sync = new ReviewCacheSync(messagingService);
+        sync.onStart();
+
+        try {
+            ArgumentCaptor<ClusterMessageConsumer> consumer = ArgumentCaptor.forClass(ClusterMessageConsumer.class);
+            verify(messagingService).registerListener(eq(ClusterMessagingTransport.CHANNEL), consumer.capture());
+
+            // Evicting on this node is broadcast to the others
+            List<GerritChange> changes = new ArrayList<>();
+            IssueReviewsCache.putReviews("SYNC-1", changes);
+            IssueReviewsCache.invalidate("SYNC-1");
+
+            assertFalse(IssueReviewsCache.getCache().containsKey("SYNC-1"));
+            verify(messagingService).sendRemote(ClusterMessagingTransport.CHANNEL, "I SYNC-1");
+
+            // ... and what the others broadcast is applied here
+            IssueReviewsCache.putReviews("SYNC-2", changes);
+            consumer.getValue().receive(ClusterMessagingTransport.CHANNEL, "I SYNC-2", "node2");
+            consumer.getValue().receive(ClusterMessagingTransport.CHANNEL, "S 10 SYNC-3", "node2");
+
+            assertFalse(IssueReviewsCache.getCache().containsKey("SYNC-2"));
+            assertEquals(Boolean.TRUE, IssueReviewsCache.getExistenceCache().get("SYNC-3:any"));
+            assertEquals(Boolean.FALSE, IssueReviewsCache.getExistenceCache().get("SYNC-3:open"));
+        } finally {
+            sync.onStop();
+        }
+
+        verify(messagingService).unregisterListener(eq(ClusterMessagingTransport.CHANNEL), any(ClusterMessageConsumer.class));
+
+        // Nothing is sent once stopped
+        IssueReviewsCache.invalidate("SYNC-4");
+        verify(messagingService, never()).sendRemote(anyString(), eq("I SYNC-4"));
+    }
+
+    private static class NodeCache implements ReviewCacheSync.LocalCache {
+        final List<String> evicted = new ArrayList<>();
+        final Map<String, Boolean> existence = new HashMap<>();
+        int puts;
+        int flushes;
+
+        @Override
+        public void evict(String cacheKey) {
+            evicted.add(cacheKey);
+        }
+
+        @Override
+        public void putExistence(String existenceKey, boolean exists) {
+            existence.put(existenceKey, exists);
+            puts++;
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public long getExpiration() {
+            return 30000;
+        }
+    }
+}
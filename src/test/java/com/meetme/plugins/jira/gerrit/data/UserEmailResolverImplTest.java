@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data;
+
+import com.atlassian.jira.bc.user.search.UserSearchService;
+import com.atlassian.jira.user.ApplicationUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class UserEmailResolverImplTest {
+    private static final String KNOWN_EMAIL = "milton@company.com";
+    private static final String UNKNOWN_EMAIL = "bot@gerrit.local";
+
+    @Mock
+    private UserSearchService userSearchService;
+
+    @Mock
+    private ApplicationUser milton;
+
+    private UserEmailResolverImpl resolver;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+
+        when(userSearchService.findUsersByEmail(KNOWN_EMAIL)).thenReturn(Collections.singletonList(milton));
+        when(userSearchService.findUsersByEmail(UNKNOWN_EMAIL)).thenReturn(Collections.emptyList());
+
+        resolver = new UserEmailResolverImpl(() -> userSearchService);
+    }
+
+    @Test
+    public void testCachesKnownAndUnknownEmails() {
+        assertSame(milton, resolver.getUserByEmail(KNOWN_EMAIL));
+        assertSame(milton, resolver.getUserByEmail(KNOWN_EMAIL.toUpperCase()));
+        assertNull(resolver.getUserByEmail(UNKNOWN_EMAIL));
+        assertNull(resolver.getUserByEmail(UNKNOWN_EMAIL));
+        assertNull(resolver.getUserByEmail(null));
+
+        verify(userSearchService, times(1)).findUsersByEmail(KNOWN_EMAIL);
+        verify(userSearchService, times(1)).findUsersByEmail(UNKNOWN_EMAIL);
+    }
+
+    @Test
+    public void testBatch() {
+        Map<String, ApplicationUser> users = resolver.getUsersByEmail(Arrays.asList(KNOWN_EMAIL, UNKNOWN_EMAIL, null, KNOWN_EMAIL, UNKNOWN_EMAIL));
+
+        assertEquals(1, users.size());
+        assertSame(milton, users.get(KNOWN_EMAIL));
+
+        verify(userSearchService, times(1)).findUsersByEmail(KNOWN_EMAIL);
+        verify(userSearchService, times(1)).findUsersByEmail(UNKNOWN_EMAIL);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data.dto;
+
+import com.sonymobile.tools.gerrit.gerritevents.dto.attr.Account;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChangeInternerTest {
+
+    private static GerritChange createChange(String number, String reviewer) {
+        GerritChange change = new GerritChange();
+        change.setNumber(number);
+        change.setProject(new String("project"));
+        change.setBranch(new String("master"));
+        change.setOwner(new Account(new String("Owner"), "owner@email.local"));
+
+        Account by = new Account(new String(reviewer), reviewer + "@email.local");
+        by.setUsername(reviewer);
+
+        GerritApproval approval = new GerritApproval();
+        approval.setType(new String("Code-Review"));
+        approval.setValue(new String("2"));
+        approval.setBy(by);
+
+        GerritPatchSet patchSet = new GerritPatchSet();
+        patchSet.setApprovals(Collections.singletonList(approval));
+        change.setPatchSet(patchSet);
+        return change;
+    }
+
+    @Test
+    public void testRepeatedValuesAreShared() {
+        ChangeInterner interner = new ChangeInterner();
+        GerritChange first = interner.compact(createChange("1", "reviewer"));
+        GerritChange second = interner.compact(createChange("2", "reviewer"));
+
+        assertSame(first.getProject(), second.getProject());
+        assertSame(first.getBranch(), second.getBranch());
+        assertSame(first.getOwner(), second.getOwner());
+
+        GerritApproval a = first.getPatchSet().getApprovals().get(0);
+        GerritApproval b = second.getPatchSet().getApprovals().get(0);
+        assertSame(a.getType(), b.getType());
+        assertSame(a.getValue(), b.getValue());
+        assertSame(a.getBy(), b.getBy());
+        assertEquals("reviewer", a.getBy().getUsername());
+        assertEquals("reviewer@email.local", a.getBy().getEmail());
+    }
+
+    @Test
+    public void testDifferentAccountsAreKeptApart() {
+        ChangeInterner interner = new ChangeInterner();
+        GerritChange first = interner.compact(createChange("1", "reviewer"));
+        GerritChange second = interner.compact(createChange("2", "someone-else"));
+
+        assertSame(first.getOwner(), second.getOwner());
+        assertNotSame(first.getPatchSet().getApprovals().get(0).getBy(), second.getPatchSet().getApprovals().get(0).getBy());
+        assertEquals("someone-else", second.getPatchSet().getApprovals().get(0).getBy().getUsername());
+    }
+
+    @Test
+    public void testSortsByChangeNumber() {
+        GerritChange renumbered = createChange("7", "reviewer");
+        renumbered.setNumber("100");
+        List<GerritChange> changes = new ArrayList<>(Arrays.asList(createChange("20", "reviewer"), renumbered,
+                createChange("3", "reviewer")));
+
+        Collections.sort(changes);
+
+        assertEquals("3", changes.get(0).getNumber());
+        assertEquals("20", changes.get(1).getNumber());
+        assertEquals(100, changes.get(2).getChangeNumber());
+    }
+
+    @Test
+    public void testLastUpdatedIsKeptAsMillis() {
+        GerritChange change = new GerritChange();
+        assertNull(change.getLastUpdated());
+        assertEquals(GerritChange.NO_TIMESTAMP, change.getLastUpdatedMillis());
+
+        change.setLastUpdated(new Date(1234));
+        assertEquals(new Date(1234), change.getLastUpdated());
+        assertEquals(1234, change.getLastUpdatedMillis());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.data.dto;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LabelScoresTest {
+
+    private static GerritApproval createApproval(String type, int value) {
+        return new GerritApproval(new JSONObject().element("type", type).element("value", Integer.toString(value)));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(LabelScores.EMPTY, LabelScores.of(null));
+        assertSame(LabelScores.EMPTY, LabelScores.of(Collections.emptyList()));
+
+        assertFalse(LabelScores.EMPTY.hasLabel("Code-Review"));
+        assertEquals(0, LabelScores.EMPTY.getMostSignificantScore());
+        assertNull(LabelScores.EMPTY.getMostSignificantApproval());
+        assertNull(LabelScores.EMPTY.getMostSignificantApproval("Code-Review"));
+        assertEquals(0, LabelScores.EMPTY.getVoterCount("Code-Review"));
+    }
+
+    @Test
+    public void testPerLabel() {
+        GerritApproval reviewMinus = createApproval("Code-Review", -1);
+        GerritApproval reviewPlus = createApproval("Code-Review", 2);
+        GerritApproval verified = createApproval("Verified", 1);
+        GerritApproval verified2 = createApproval("Verified", 1);
+        List<GerritApproval> approvals = new ArrayList<>();
+        approvals.add(reviewPlus);
+        approvals.add(verified);
+        approvals.add(reviewMinus);
+        approvals.add(verified2);
+
+        LabelScores scores = LabelScores.of(approvals);
+
+        assertEquals(4, scores.getVoterCount());
+        assertEquals(2, scores.getVoterCount("Code-Review"));
+        assertEquals(-1, scores.getMin("Code-Review"));
+        assertEquals(2, scores.getMax("Code-Review"));
+        assertTrue(scores.contains("Code-Review", 2));
+        assertFalse(scores.contains("Code-Review", 1));
+        assertEquals(-1, scores.getMostSignificantScore("Code-Review"));
+        assertSame(reviewMinus, scores.getMostSignificantApproval("Code-Review"));
+
+        assertEquals(1, scores.getMostSignificantScore("Verified"));
+        assertSame(verified, scores.getMostSignificantApproval("Verified"));
+
+        assertFalse(scores.hasLabel("Priority"));
+        assertFalse(scores.hasLabel(null));
+
+        assertEquals(-1, scores.getMostSignificantScore());
+        assertSame(reviewMinus, scores.getMostSignificantApproval());
+    }
+
+    @Test
+    public void testPatchSetSummary() {
+        JSONObject json = new JSONObject().element("number", "1").element("approvals",
+                Collections.singletonList(new JSONObject().element("type", "Verified").element("value", "-1")));
+        GerritPatchSet patchSet = new GerritPatchSet(json);
+
+        assertEquals(-1, patchSet.getLabelScores().getMostSignificantScore("Verified"));
+
+        patchSet.setApprovals(Collections.singletonList(createApproval("Verified", 1)));
+        assertEquals(1, patchSet.getLabelScores().getMostSignificantScore("Verified"));
+    }
+}
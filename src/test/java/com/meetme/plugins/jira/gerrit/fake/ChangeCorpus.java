@@ -0,0 +1,248 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.fake;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * A generated set of Gerrit changes, each referring to one issue of a JIRA project, that
+ * {@link FakeGerrit} serves in either the SSH or the REST format.
+ * <p>
+ * The corpus only depends on its parameters, so runs with the same parameters can be compared.
+ */
+public class ChangeCorpus {
+    private static final String[] REVIEWERS = { "sreviewer", "apeer", "mlead", "kqa" };
+
+    /** Gerrit's REST API timestamp format */
+    private static final String HTTP_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS000000";
+
+    private static final long CREATED_ON = 1551434400L;
+
+    private final String projectKey;
+    private final Map<String, List<Change>> changesByIssue = new LinkedHashMap<>();
+
+    /**
+     * @param projectKey the JIRA project key, e.g. "ABC"
+     * @param issues the number of issues, from <tt>ABC-1</tt> to <tt>ABC-{issues}</tt>
+     * @param maxChangesPerIssue each issue gets from 0 to this many changes
+     * @param seed the random seed
+     */
+    public ChangeCorpus(String projectKey, int issues, int maxChangesPerIssue, long seed) {
+        this.projectKey = projectKey;
+        Random random = new Random(seed);
+        int number = 1000;
+
+        for (int i = 1; i <= issues; i++) {
+            String issueKey = projectKey + "-" + i;
+            int count = random.nextInt(maxChangesPerIssue + 1);
+            List<Change> changes = new ArrayList<>(count);
+
+            for (int c = 0; c < count; c++) {
+                changes.add(new Change(issueKey, ++number, random.nextInt(4) > 0, 1 + random.nextInt(5), random));
+            }
+
+            changesByIssue.put(issueKey, Collections.unmodifiableList(changes));
+        }
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public List<String> getIssueKeys() {
+        return new ArrayList<>(changesByIssue.keySet());
+    }
+
+    /**
+     * @return the changes for the issue; empty if there are none, or the issue is unknown
+     */
+    public List<Change> getChanges(String issueKey) {
+        List<Change> changes = changesByIssue.get(issueKey);
+        return changes == null ? Collections.emptyList() : changes;
+    }
+
+    /**
+     * A change, with enough detail to render it either as <tt>gerrit query</tt> or REST output.
+     */
+    public static class Change {
+        private final String issueKey;
+        private final int number;
+        private final boolean open;
+        private final int patchSet;
+        private final String changeId;
+        private final String revision;
+        private final int[] votes;
+
+        Change(String issueKey, int number, boolean open, int patchSet, Random random) {
+            this.issueKey = issueKey;
+            this.number = number;
+            this.open = open;
+            this.patchSet = patchSet;
+            this.changeId = String.format("I%040x", number * 2654435761L);
+            this.revision = String.format("%040x", number * 40503L);
+            this.votes = new int[random.nextInt(REVIEWERS.length + 1)];
+
+            for (int i = 0; i < votes.length; i++) {
+                votes[i] = random.nextInt(5) - 2;
+            }
+        }
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        private String getSubject() {
+            return issueKey + ": Generated change " + number;
+        }
+
+        private String getCommitMessage() {
+            return getSubject() + "\n\nBug: " + issueKey + "\nChange-Id: " + changeId + "\n";
+        }
+
+        private String getRef() {
+            return "refs/changes/" + number % 100 + "/" + number + "/" + patchSet;
+        }
+
+        /**
+         * @param withPatchSet whether to include the current patch set, as with
+         *            <tt>--current-patch-set</tt>
+         * @return the change as one row of <tt>gerrit query --format=JSON</tt> output
+         */
+        public JSONObject toSshJson(String baseUrl, boolean withPatchSet) {
+            JSONObject json = new JSONObject()
+                    .element("project", "platform/generated")
+                    .element("branch", "master")
+                    .element("topic", issueKey)
+                    .element("id", changeId)
+                    .element("number", Integer.toString(number))
+                    .element("subject", getSubject())
+                    .element("owner", account("jdeveloper"))
+                    .element("url", baseUrl + number)
+                    .element("commitMessage", getCommitMessage())
+                    .element("createdOn", CREATED_ON + number)
+                    .element("lastUpdated", CREATED_ON + number + 3600)
+                    .element("open", open)
+                    .element("status", open ? "NEW" : "MERGED");
+
+            if (withPatchSet) {
+                JSONArray approvals = new JSONArray();
+
+                for (int i = 0; i < votes.length; i++) {
+                    approvals.add(new JSONObject()
+                            .element("type", "Code-Review")
+                            .element("description", "Code-Review")
+                            .element("value", Integer.toString(votes[i]))
+                            .element("grantedOn", CREATED_ON + number + 60 * i)
+                            .element("by", account(REVIEWERS[i])));
+                }
+
+                json.element("currentPatchSet", new JSONObject()
+                        .element("number", Integer.toString(patchSet))
+                        .element("revision", revision)
+                        .element("ref", getRef())
+                        .element("uploader", account("jdeveloper"))
+                        .element("createdOn", CREATED_ON + number)
+                        .element("author", account("jdeveloper"))
+                        .element("isDraft", false)
+                        .element("kind", "REWORK")
+                        .element("approvals", approvals));
+            }
+
+            return json;
+        }
+
+        /**
+         * @param withDetails whether to include the current revision and the labels, as with the
+         *            <tt>CURRENT_REVISION</tt> and <tt>DETAILED_LABELS</tt> options
+         * @param withCommit whether to include the current revision's commit, as with the
+         *            <tt>CURRENT_COMMIT</tt> option
+         * @return the change as a REST <tt>ChangeInfo</tt> entity
+         */
+        public JSONObject toHttpJson(boolean withDetails, boolean withCommit) {
+            SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            String created = format.format(new Date(1000 * (CREATED_ON + number)));
+            String updated = format.format(new Date(1000 * (CREATED_ON + number + 3600)));
+
+            JSONObject json = new JSONObject()
+                    .element("id", "platform%2Fgenerated~master~" + changeId)
+                    .element("project", "platform/generated")
+                    .element("branch", "master")
+                    .element("topic", issueKey)
+                    .element("change_id", changeId)
+                    .element("subject", getSubject())
+                    .element("status", open ? "NEW" : "MERGED")
+                    .element("created", created)
+                    .element("updated", updated)
+                    .element("_number", number)
+                    .element("owner", account("jdeveloper"));
+
+            if (withDetails) {
+                JSONArray all = new JSONArray();
+
+                for (int i = 0; i < votes.length; i++) {
+                    all.add(account(REVIEWERS[i])
+                            .element("value", votes[i])
+                            .element("date", updated)
+                            .element("_account_id", 1000100 + i));
+                }
+
+                json.element("labels", new JSONObject().element("Code-Review", new JSONObject().element("all", all)));
+                JSONObject currentRevision = new JSONObject()
+                        .element("kind", "REWORK")
+                        .element("_number", patchSet)
+                        .element("created", created)
+                        .element("uploader", account("jdeveloper"))
+                        .element("ref", getRef());
+
+                if (withCommit) {
+                    currentRevision.element("commit", new JSONObject()
+                            .element("subject", getSubject())
+                            .element("message", getCommitMessage()));
+                }
+
+                json.element("current_revision", revision);
+                json.element("revisions", new JSONObject().element(revision, currentRevision));
+            }
+
+            return json;
+        }
+
+        private static JSONObject account(String username) {
+            return new JSONObject()
+                    .element("name", username)
+                    .element("email", username + "@example.com")
+                    .element("username", username);
+        }
+    }
+}
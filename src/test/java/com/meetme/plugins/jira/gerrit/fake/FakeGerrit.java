@@ -0,0 +1,431 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.fake;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+import com.meetme.plugins.jira.gerrit.data.GerritServer;
+import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process Gerrit that answers change queries from a {@link ChangeCorpus}, over an embedded
+ * SSH server (<tt>gerrit query --format=JSON</tt>) and over HTTP (<tt>/a/changes/?q=</tt>).
+ * <p>
+ * Only the query syntax the plugin uses is understood: issue keys (optionally with an operator,
+ * as in <tt>tr:ABC-123</tt>), <tt>change:N</tt>, <tt>status:open</tt> and <tt>limit:N</tt>. Every query can be
+ * delayed by a fixed latency, and fail at a given rate, to see how the plugin copes with a slow or
+ * flaky Gerrit. Any SSH key and any HTTP credentials are accepted.
+ */
+public class FakeGerrit implements Closeable {
+    public static final String USERNAME = "jira";
+    public static final String PASSWORD = "secret";
+
+    private static final Pattern ISSUE_KEY = Pattern.compile("^(?:[a-z]+:)?([A-Z][A-Z0-9_]*-[0-9]+)$");
+    private static final String XSSI_PREFIX = ")]}'\n";
+
+    private final ChangeCorpus corpus;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong commitMessages = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+
+    private File directory;
+    private File privateKey;
+    private SshServer sshServer;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public FakeGerrit(ChangeCorpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /**
+     * Starts both servers, on ports picked by the system.
+     */
+    public void start() throws IOException {
+        directory = Files.createTempDirectory("fake-gerrit").toFile();
+        privateKey = new File(directory, "id_rsa");
+        writePrivateKey(privateKey);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-gerrit");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        sshServer = SshServer.setUpDefaultServer();
+        sshServer.setHost("localhost");
+        sshServer.setPort(0);
+        sshServer.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(new File(directory, "host_key").toPath()));
+        sshServer.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+        sshServer.setCommandFactory(QueryCommand::new);
+        sshServer.start();
+
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/", this::handleHttp);
+        httpServer.setExecutor(executor);
+        httpServer.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sshServer != null) {
+            sshServer.stop(true);
+        }
+
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        if (directory != null) {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    /**
+     * @param connectionType {@link GerritEventKeys#CONNECTION_TYPE_SSH} or
+     *            {@link GerritEventKeys#CONNECTION_TYPE_HTTP}
+     * @return the default server configuration to reach this Gerrit over that connection type
+     */
+    public GerritServer getServer(String connectionType) {
+        return new GerritServer(GerritServer.DEFAULT_NAME, connectionType, "localhost", sshServer.getPort(), USERNAME, privateKey,
+                10000, getHttpBaseUrl(), USERNAME, PASSWORD, null);
+    }
+
+    public URI getHttpBaseUrl() {
+        return URI.create("http://localhost:" + httpServer.getAddress().getPort() + "/");
+    }
+
+    public ChangeCorpus getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * @param latencyMillis how long every query takes, before any results are sent
+     */
+    public void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param errorRate the share of queries, from 0 to 1, that fail
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @return the number of queries received, including failed ones
+     */
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    /**
+     * @return the number of queries that were made to fail
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of commit messages sent; over SSH, every change comes with one
+     */
+    public long getCommitMessageCount() {
+        return commitMessages.get();
+    }
+
+    /**
+     * Simulates the query latency, and decides whether the query fails.
+     *
+     * @return {@code false} if the query should fail
+     */
+    private boolean beginQuery() {
+        queries.incrementAndGet();
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            failures.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the changes matching a query.
+     */
+    List<ChangeCorpus.Change> query(String query) {
+        Set<String> issueKeys = new LinkedHashSet<>();
+        Set<Integer> numbers = new HashSet<>();
+        boolean openOnly = false;
+        int limit = Integer.MAX_VALUE;
+
+        // Parentheses only group terms; a single issue key is all there is to group
+        for (String term : query.trim().split("[\\s()]+")) {
+            Matcher matcher = ISSUE_KEY.matcher(term);
+
+            if (matcher.matches()) {
+                issueKeys.add(matcher.group(1));
+            } else if (term.startsWith("change:")) {
+                numbers.add(Integer.valueOf(term.substring("change:".length())));
+            } else if (term.equals("status:open") || term.equals("is:open")) {
+                openOnly = true;
+            } else if (term.startsWith("limit:")) {
+                limit = Integer.parseInt(term.substring("limit:".length()));
+            }
+        }
+
+        List<ChangeCorpus.Change> results = new ArrayList<>();
+
+        if (!numbers.isEmpty()) {
+            for (String issueKey : corpus.getIssueKeys()) {
+                for (ChangeCorpus.Change change : corpus.getChanges(issueKey)) {
+                    if (numbers.contains(change.getNumber())) {
+                        results.add(change);
+                    }
+                }
+            }
+        }
+
+        for (String issueKey : issueKeys) {
+            for (ChangeCorpus.Change change : corpus.getChanges(issueKey)) {
+                if (results.size() < limit && (!openOnly || change.isOpen())) {
+                    results.add(change);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private void handleHttp(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+
+            if (!path.equals("/changes/") && !path.equals("/a/changes/")) {
+                sendHttp(exchange, 404, "Not found");
+                return;
+            }
+
+            String query = null;
+            boolean withDetails = false;
+            boolean withCommit = false;
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+
+            for (String param : rawQuery == null ? new String[0] : rawQuery.split("&")) {
+                int eq = param.indexOf('=');
+                String name = eq < 0 ? param : param.substring(0, eq);
+                String value = eq < 0 ? "" : decode(param.substring(eq + 1));
+
+                if (name.equals("q")) {
+                    query = value;
+                } else if (name.equals("o")) {
+                    withDetails = true;
+                    withCommit |= value.equals("CURRENT_COMMIT");
+                }
+            }
+
+            if (query == null) {
+                sendHttp(exchange, 400, "Missing query");
+                return;
+            }
+
+            if (!beginQuery()) {
+                sendHttp(exchange, 500, "Internal server error");
+                return;
+            }
+
+            JSONArray results = new JSONArray();
+
+            for (ChangeCorpus.Change change : query(query)) {
+                results.add(change.toHttpJson(withDetails, withCommit));
+            }
+
+            if (withDetails && withCommit) {
+                commitMessages.addAndGet(results.size());
+            }
+
+            sendHttp(exchange, 200, XSSI_PREFIX + results.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendHttp(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writePrivateKey(File file) throws IOException {
+        try {
+            KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+            keyPair.writePrivateKey(file.getAbsolutePath());
+            keyPair.dispose();
+        } catch (JSchException e) {
+            throw new IOException("Could not generate the client key", e);
+        }
+    }
+
+    /**
+     * Answers a single <tt>gerrit query</tt> command, one JSON object per line followed by the
+     * stats row, like Gerrit does.
+     */
+    private class QueryCommand implements Command {
+        private final String command;
+        private OutputStream out;
+        private OutputStream err;
+        private ExitCallback callback;
+
+        QueryCommand(String command) {
+            this.command = command;
+        }
+
+        @Override
+        public void setInputStream(InputStream in) {
+        }
+
+        @Override
+        public void setOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void setErrorStream(OutputStream err) {
+            this.err = err;
+        }
+
+        @Override
+        public void setExitCallback(ExitCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void start(Environment env) {
+            executor.execute(this::run);
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        private void run() {
+            int exitValue = 0;
+
+            try {
+                List<String> query = new ArrayList<>();
+                boolean withPatchSet = false;
+
+                for (String token : command.replace("\"", " ").replace("'", " ").trim().split("\\s+")) {
+                    if (token.equals("--current-patch-set")) {
+                        withPatchSet = true;
+                    } else if (!token.startsWith("--") && !token.equals("gerrit") && !token.equals("query")) {
+                        query.add(token);
+                    }
+                }
+
+                if (!command.trim().startsWith("gerrit query")) {
+                    err.write(("fatal: unsupported command: " + command + "\n").getBytes(StandardCharsets.UTF_8));
+                    exitValue = 1;
+                } else if (!beginQuery()) {
+                    write(new JSONObject().element("type", "error").element("message", "Injected failure"));
+                } else {
+                    List<ChangeCorpus.Change> changes = query(String.join(" ", query));
+                    String baseUrl = getHttpBaseUrl().toString();
+
+                    for (ChangeCorpus.Change change : changes) {
+                        write(change.toSshJson(baseUrl, withPatchSet));
+                    }
+
+                    commitMessages.addAndGet(changes.size());
+
+                    write(new JSONObject().element("type", "stats").element("rowCount", changes.size()).element("runTimeMilliseconds",
+                            latencyMillis));
+                }
+
+                out.flush();
+                err.flush();
+            } catch (IOException e) {
+                exitValue = 1;
+            } finally {
+                callback.onExit(exitValue);
+            }
+        }
+
+        private void write(JSONObject json) throws IOException {
+            out.write((json.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.fake;
+
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.mock.issue.MockIssue;
+import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
+import com.meetme.plugins.jira.gerrit.data.GerritServer;
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsImpl;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
+import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the real {@link IssueReviewsImpl} against {@link FakeGerrit}, over both connection types.
+ * <p>
+ * The reviews cache is shared, so each test looks at different issues.
+ */
+public class FakeGerritTest {
+    private static FakeGerrit gerrit;
+
+    private final GerritConfiguration configuration = mock(GerritConfiguration.class);
+    private final IssueManager issueManager = mock(IssueManager.class);
+
+    @BeforeClass
+    public static void startGerrit() throws Exception {
+        gerrit = new FakeGerrit(new ChangeCorpus("FAKE", 200, 4, 1));
+        gerrit.start();
+    }
+
+    @AfterClass
+    public static void stopGerrit() throws Exception {
+        gerrit.close();
+    }
+
+    @Before
+    public void setUp() {
+        gerrit.setLatency(0);
+        gerrit.setErrorRate(0);
+        when(configuration.getIssueSearchQuery()).thenReturn(GerritConfiguration.DEFAULT_QUERY_ISSUE);
+    }
+
+    private IssueReviewsImpl createReviewsManager(String connectionType) {
+        List<GerritServer> servers = Collections.singletonList(gerrit.getServer(connectionType));
+        when(configuration.getServers()).thenReturn(servers);
+        when(configuration.getServersForProject(anyString())).thenReturn(servers);
+        return new IssueReviewsImpl(configuration, issueManager);
+    }
+
+    private MockIssue createIssue(String key) {
+        MockIssue issue = new MockIssue(Long.parseLong(key.substring(key.indexOf('-') + 1)));
+        issue.setKey(key);
+        when(issueManager.getAllIssueKeys(anyLong())).thenReturn(Collections.singleton(key));
+        return issue;
+    }
+
+    /**
+     * @return the first issue key after {@code from} that has at least one open and one merged change
+     */
+    private static String findMixedIssue(int from) {
+        for (int i = from; ; i++) {
+            List<ChangeCorpus.Change> changes = gerrit.getCorpus().getChanges("FAKE-" + i);
+            long open = changes.stream().filter(ChangeCorpus.Change::isOpen).count();
+
+            if (open > 0 && open < changes.size()) {
+                return "FAKE-" + i;
+            }
+        }
+    }
+
+    private static List<Integer> getNumbers(List<GerritChange> changes) {
+        List<Integer> numbers = new ArrayList<>();
+
+        for (GerritChange change : changes) {
+            numbers.add(Integer.valueOf(change.getNumber()));
+        }
+
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static List<Integer> getCorpusNumbers(String issueKey) {
+        List<Integer> numbers = new ArrayList<>();
+
+        for (ChangeCorpus.Change change : gerrit.getCorpus().getChanges(issueKey)) {
+            numbers.add(change.getNumber());
+        }
+
+        return numbers;
+    }
+
+    private void assertReviews(String connectionType, String issueKey) throws GerritQueryException {
+        IssueReviewsImpl reviewsManager = createReviewsManager(connectionType);
+        MockIssue issue = createIssue(issueKey);
+
+        List<GerritChange> changes = reviewsManager.getReviewsForIssue(issue);
+
+        assertEquals(getCorpusNumbers(issueKey), getNumbers(changes));
+
+        for (GerritChange change : changes) {
+            assertNotNull(change.getPatchSet());
+            assertNotNull(change.getPatchSet().getApprovals());
+        }
+    }
+
+    @Test
+    public void testReviewsOverSsh() throws Exception {
+        assertReviews(GerritEventKeys.CONNECTION_TYPE_SSH, findMixedIssue(1));
+    }
+
+    @Test
+    public void testReviewsOverHttp() throws Exception {
+        assertReviews(GerritEventKeys.CONNECTION_TYPE_HTTP, findMixedIssue(50));
+    }
+
+    @Test
+    public void testCommitMessagesOverHttpOnlyWhenAsked() throws Exception {
+        String issueKey = findMixedIssue(150);
+        IssueReviewsImpl reviewsManager = createReviewsManager(GerritEventKeys.CONNECTION_TYPE_HTTP);
+        long commitMessages = gerrit.getCommitMessageCount();
+
+        List<GerritChange> changes = reviewsManager.getReviewsForIssue(createIssue(issueKey));
+        assertEquals(commitMessages, gerrit.getCommitMessageCount());
+
+        // The issue tab loads them separately
+        for (String message : reviewsManager.getCommitMessages(changes)) {
+            assertTrue(message.contains("Bug: " + issueKey));
+        }
+
+        assertEquals(commitMessages + changes.size(), gerrit.getCommitMessageCount());
+    }
+
+    @Test
+    public void testHasReviews() throws Exception {
+        String issueKey = findMixedIssue(100);
+        IssueReviewsImpl reviewsManager = createReviewsManager(GerritEventKeys.CONNECTION_TYPE_SSH);
+        MockIssue issue = createIssue(issueKey);
+        long queries = gerrit.getQueryCount();
+
+        assertTrue(reviewsManager.hasReviews(issue, true));
+        assertTrue(reviewsManager.hasReviews(issue, false));
+        assertEquals(queries + 2, gerrit.getQueryCount());
+
+        // Answered from the existence cache
+        assertTrue(reviewsManager.hasReviews(issue, true));
+        assertEquals(queries + 2, gerrit.getQueryCount());
+    }
+
+    @Test
+    public void testQuery() {
+        String issueKey = findMixedIssue(1);
+        List<ChangeCorpus.Change> all = gerrit.getCorpus().getChanges(issueKey);
+
+        assertEquals(all, gerrit.query("tr:" + issueKey));
+        assertTrue(gerrit.query("tr:" + issueKey + " status:open").stream().allMatch(ChangeCorpus.Change::isOpen));
+        assertEquals(1, gerrit.query("tr:" + issueKey + " limit:1").size());
+        assertTrue(gerrit.query("tr:NOPE-1").isEmpty());
+    }
+
+    @Test
+    public void testInjectedFailures() {
+        gerrit.setErrorRate(1);
+
+        String[] connectionTypes = { GerritEventKeys.CONNECTION_TYPE_SSH, GerritEventKeys.CONNECTION_TYPE_HTTP };
+
+        for (int i = 0; i < connectionTypes.length; i++) {
+            String connectionType = connectionTypes[i];
+            IssueReviewsImpl reviewsManager = createReviewsManager(connectionType);
+            MockIssue issue = createIssue("FAKE-" + (190 + i));
+
+            try {
+                reviewsManager.getReviewsForIssue(issue);
+                fail("Expected the " + connectionType + " query to fail");
+            } catch (GerritQueryException expected) {
+            }
+        }
+    }
+}
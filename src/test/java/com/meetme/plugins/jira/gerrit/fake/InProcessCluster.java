@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.fake;
+
+import com.meetme.plugins.jira.gerrit.data.ReviewCacheTransport;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * An in-process stand-in for the cluster messaging of JIRA Data Center: every node created here
+ * delivers its messages to all of the other nodes, synchronously and in order.
+ */
+public class InProcessCluster {
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return the transport of a new node
+     */
+    public ReviewCacheTransport newNode() {
+        Node node = new Node();
+        nodes.add(node);
+        return node;
+    }
+
+    private class Node implements ReviewCacheTransport {
+        private volatile Consumer<String> receiver;
+
+        @Override
+        public void publish(String message) {
+            for (Node node : nodes) {
+                Consumer<String> other = node.receiver;
+
+                if (node != this && other != null) {
+                    other.accept(message);
+                }
+            }
+        }
+
+        @Override
+        public void subscribe(Consumer<String> receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void unsubscribe() {
+            receiver = null;
+        }
+    }
+}
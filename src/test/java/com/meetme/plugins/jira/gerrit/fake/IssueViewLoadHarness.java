@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.fake;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.mock.issue.MockIssue;
+import com.atlassian.jira.plugin.webfragment.model.JiraHelper;
+import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
+import com.meetme.plugins.jira.gerrit.data.GerritServer;
+import com.meetme.plugins.jira.gerrit.data.IssueReviewsImpl;
+import com.meetme.plugins.jira.gerrit.metrics.LatencyHistogram;
+import com.meetme.plugins.jira.gerrit.tabpanel.GerritEventKeys;
+import com.meetme.plugins.jira.gerrit.webpanel.GerritReviewsIssueSidePanel;
+import com.meetme.plugins.jira.gerrit.webpanel.ShowReviewsWebPanelCondition;
+import com.meetme.plugins.jira.gerrit.workflow.condition.NoOpenReviews;
+import com.opensymphony.workflow.WorkflowException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures issue view throughput against {@link FakeGerrit}, through the real
+ * {@link IssueReviewsImpl} and the components an issue view runs: the web panel condition, the
+ * reviews side panel, and the "no open reviews" workflow condition (as evaluated to list the
+ * available transitions).
+ * <p>
+ * Each thread views random issues of the corpus, back to back. Configured with system properties:
+ * <ul>
+ * <li><tt>connectionType</tt> - <tt>ssh</tt> (default) or <tt>http</tt></li>
+ * <li><tt>threads</tt> - concurrent page views; default 16</li>
+ * <li><tt>issues</tt> - size of the corpus; default 2000, more than the reviews cache holds</li>
+ * <li><tt>latencyMillis</tt> - Gerrit query latency; default 20</li>
+ * <li><tt>errorRate</tt> - share of failing Gerrit queries; default 0</li>
+ * <li><tt>warmupSeconds</tt>, <tt>seconds</tt> - how long to warm up and measure; default 5 and 30</li>
+ * </ul>
+ */
+public class IssueViewLoadHarness {
+    private final IssueReviewsImpl reviewsManager;
+    private final ShowReviewsWebPanelCondition panelCondition;
+    private final GerritReviewsIssueSidePanel sidePanel;
+    private final NoOpenReviews noOpenReviews;
+    private final List<Issue> issues = new ArrayList<>();
+
+    private final LatencyHistogram viewTime = new LatencyHistogram();
+    private final AtomicLong failedViews = new AtomicLong();
+
+    public IssueViewLoadHarness(FakeGerrit gerrit, String connectionType) {
+        final ChangeCorpus corpus = gerrit.getCorpus();
+        GerritConfiguration configuration = mock(GerritConfiguration.class);
+        IssueManager issueManager = mock(IssueManager.class);
+
+        when(configuration.getIssueSearchQuery()).thenReturn(GerritConfiguration.DEFAULT_QUERY_ISSUE);
+        List<GerritServer> servers = Collections.singletonList(gerrit.getServer(connectionType));
+        when(configuration.getServers()).thenReturn(servers);
+        when(configuration.getServersForProject(anyString())).thenReturn(servers);
+        when(issueManager.getAllIssueKeys(anyLong())).thenAnswer(invocation -> Collections.singleton(corpus.getProjectKey() + "-"
+                + invocation.getArguments()[0]));
+
+        for (String key : corpus.getIssueKeys()) {
+            MockIssue issue = new MockIssue(Long.parseLong(key.substring(key.indexOf('-') + 1)));
+            issue.setKey(key);
+            issues.add(issue);
+        }
+
+        reviewsManager = new IssueReviewsImpl(configuration, issueManager);
+        panelCondition = new ShowReviewsWebPanelCondition(reviewsManager, configuration);
+        sidePanel = new GerritReviewsIssueSidePanel(reviewsManager);
+        noOpenReviews = new NoOpenReviews(reviewsManager);
+    }
+
+    /**
+     * Renders the Gerrit parts of one issue view.
+     */
+    @SuppressWarnings("unchecked")
+    void viewIssue(Issue issue) {
+        long start = System.nanoTime();
+        Map<String, Object> context = Collections.singletonMap("issue", issue);
+        boolean failed;
+
+        if (panelCondition.shouldDisplay(context)) {
+            failed = sidePanel.getContextMap(null, new JiraHelper(null, null, context)).containsKey("error");
+        } else {
+            failed = false;
+        }
+
+        try {
+            noOpenReviews.passesCondition(context, Collections.emptyMap(), null);
+        } catch (WorkflowException e) {
+            failed = true;
+        }
+
+        viewTime.recordSince(start);
+
+        if (failed) {
+            failedViews.incrementAndGet();
+        }
+    }
+
+    /**
+     * Views issues from all threads for the given time.
+     */
+    void run(int threads, long millis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + millis;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        viewIssue(issues.get(ThreadLocalRandom.current().nextInt(issues.size())));
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "issue-view-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        done.await();
+    }
+
+    void reset() {
+        viewTime.reset();
+        failedViews.set(0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String connectionType = System.getProperty("connectionType", GerritEventKeys.CONNECTION_TYPE_SSH);
+        int threads = Integer.getInteger("threads", 16);
+        int issues = Integer.getInteger("issues", 2000);
+        long latencyMillis = Long.getLong("latencyMillis", 20);
+        double errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+        long warmupSeconds = Long.getLong("warmupSeconds", 5);
+        long seconds = Long.getLong("seconds", 30);
+
+        try (FakeGerrit gerrit = new FakeGerrit(new ChangeCorpus("LOAD", issues, 4, 1))) {
+            gerrit.start();
+            gerrit.setLatency(latencyMillis);
+            gerrit.setErrorRate(errorRate);
+
+            IssueViewLoadHarness harness = new IssueViewLoadHarness(gerrit, connectionType);
+            harness.run(threads, TimeUnit.SECONDS.toMillis(warmupSeconds));
+            harness.reset();
+
+            long queries = gerrit.getQueryCount();
+            harness.run(threads, TimeUnit.SECONDS.toMillis(seconds));
+            queries = gerrit.getQueryCount() - queries;
+
+            long views = harness.viewTime.getCount();
+            System.out.printf("%s, %d threads, %d issues, %d ms Gerrit latency, %.1f%% Gerrit errors%n", connectionType, threads,
+                    issues, latencyMillis, errorRate * 100);
+            System.out.printf("Issue views: %d (%.1f/s), %d failed%n", views, views / (double) seconds, harness.failedViews.get());
+            System.out.printf("View time (ms): mean %.1f, p50 %d, p95 %d, p99 %d, max %d%n", harness.viewTime.getMeanMillis(),
+                    harness.viewTime.get50thPercentileMillis(), harness.viewTime.get95thPercentileMillis(),
+                    harness.viewTime.get99thPercentileMillis(), harness.viewTime.getMaxMillis());
+            System.out.printf("Gerrit queries: %d (%.2f per view)%n", queries, views == 0 ? 0 : queries / (double) views);
+        }
+    }
+}
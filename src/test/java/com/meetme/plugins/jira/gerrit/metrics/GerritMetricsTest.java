@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+
+public class GerritMetricsTest {
+
+    @Test
+    public void testRegisterAndUnregister() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName metrics = new ObjectName(GerritMetrics.JMX_DOMAIN + ":type=Metrics");
+        ObjectName reviewsCache = new ObjectName(GerritMetrics.JMX_DOMAIN + ":type=Cache,name=ReviewsCache");
+
+        GerritMetrics.getInstance().register(server);
+        assertTrue(server.isRegistered(metrics));
+        assertTrue(server.isRegistered(reviewsCache));
+
+        // Nothing is left behind to pin the plugin's class loader
+        GerritMetrics.getInstance().unregister(server);
+        assertTrue(server.queryNames(new ObjectName(GerritMetrics.JMX_DOMAIN + ":*"), null).isEmpty());
+    }
+
+    @Test
+    public void testRegisterReplacesStaleMBeans() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName metrics = new ObjectName(GerritMetrics.JMX_DOMAIN + ":type=Metrics");
+
+        GerritMetrics.getInstance().register(server);
+        GerritMetrics.getInstance().register(server);
+        assertTrue(server.isRegistered(metrics));
+
+        GerritMetrics.getInstance().unregister(server);
+        assertFalse(server.isRegistered(metrics));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMillis(), 0);
+        assertEquals(0, histogram.get99thPercentileMillis());
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 90; i++) {
+            histogram.record(millis(15));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            histogram.record(millis(700));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(83.5, histogram.getMeanMillis(), 0.01);
+        assertEquals(20, histogram.get50thPercentileMillis());
+        assertEquals(700, histogram.get95thPercentileMillis());
+        assertEquals(700, histogram.getMaxMillis());
+    }
+
+    @Test
+    public void testSlowerThanLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(millis(45000));
+
+        assertEquals(45000, histogram.get50thPercentileMillis());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMillis());
+    }
+
+    @Test
+    public void testCacheHitRatio() {
+        CacheStats stats = new CacheStats();
+        assertEquals(0, stats.getHitRatio(), 0);
+
+        stats.recordHit();
+        stats.recordHit();
+        stats.recordMiss();
+
+        assertEquals(0.667, stats.getHitRatio(), 0);
+    }
+}
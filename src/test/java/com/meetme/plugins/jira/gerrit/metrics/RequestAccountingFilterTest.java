@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.metrics;
+
+import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class RequestAccountingFilterTest {
+    @Mock
+    private GerritConfiguration configuration;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    private RequestAccountingFilter filter;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        GerritMetrics.getInstance().getRequestOffenders().reset();
+
+        when(configuration.getRequestQueryThreshold()).thenReturn(2);
+        when(request.getRequestURI()).thenReturn("/browse/ABC-123");
+
+        filter = new RequestAccountingFilter(configuration);
+    }
+
+    @After
+    public void tearDown() {
+        GerritMetrics.getInstance().getRequestOffenders().reset();
+    }
+
+    private static FilterChain gerritCalls(final int count) {
+        return new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                GerritMetrics metrics = GerritMetrics.getInstance();
+                RequestAccounting.recordReviewLookup();
+
+                for (int i = 0; i < count; i++) {
+                    metrics.endQuery(false, metrics.startCall(), true);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testUnderThreshold() throws Exception {
+        filter.doFilter(request, response, gerritCalls(2));
+
+        assertTrue(GerritMetrics.getInstance().getRequestOffenders().getTop(10).isEmpty());
+        assertNull(RequestAccounting.current());
+    }
+
+    @Test
+    public void testOverThreshold() throws Exception {
+        filter.doFilter(request, response, gerritCalls(5));
+        filter.doFilter(request, response, gerritCalls(3));
+
+        List<RequestOffenders.Offender> top = GerritMetrics.getInstance().getRequestOffenders().getTop(10);
+        assertEquals(1, top.size());
+        assertEquals("/browse/{issue}", top.get(0).getUrl());
+        assertEquals(2, top.get(0).getRequests());
+        assertEquals(5, top.get(0).getMaxRoundTrips());
+        assertEquals(1, top.get(0).getMaxReviewLookups());
+    }
+
+    @Test
+    public void testNoAccountingOutsideOfRequests() {
+        GerritMetrics metrics = GerritMetrics.getInstance();
+        metrics.endQuery(false, metrics.startCall(), true);
+
+        assertNull(RequestAccounting.current());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("/rest/api/2/issue/{id}/comment", RequestAccountingFilter.normalize("/rest/api/2/issue/10000/comment"));
+        assertEquals("/browse/{issue}", RequestAccountingFilter.normalize("/browse/ABC-1"));
+        assertEquals("/secure/_script_", RequestAccountingFilter.normalize("/secure/<script>"));
+    }
+}
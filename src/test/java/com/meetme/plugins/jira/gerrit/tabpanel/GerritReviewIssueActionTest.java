@@ -180,6 +180,14 @@ public class GerritReviewIssueActionTest {
         assertEquals(expected, velocityParams);
     }
 
+    @Test
+    public void testPopulateVelocityParamsWithCommitMessage() {
+        HashMap<String, Object> velocityParams = new HashMap<>();
+        action = new GerritReviewIssueAction(descriptor, change, "Fix <b>bold</b> text\n\nChange-Id: I123\n", dateTimeFormatter, BASE_URL);
+        action.populateVelocityParams(velocityParams);
+        assertEquals("Fix &lt;b&gt;bold&lt;/b&gt; text\n\nChange-Id: I123", velocityParams.get("commitMessage"));
+    }
+
     @SuppressWarnings("unchecked")
     private Map<String, Object> setUpExpectedVelocityParams() {
         return ImmutableMap.of("change", change,
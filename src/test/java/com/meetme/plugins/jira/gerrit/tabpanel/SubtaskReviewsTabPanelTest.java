@@ -71,6 +71,7 @@ public class SubtaskReviewsTabPanelTest {
         File file = mock(File.class);
         when(configuration.getSshPrivateKey()).thenReturn(file);
         when(file.exists()).thenReturn(true);
+        when(configuration.isSshValid()).thenReturn(true);
     }
 
     private List<Issue> setUpSubtasks() {
@@ -186,20 +187,8 @@ public class SubtaskReviewsTabPanelTest {
         // Now setup the normal mock configuration
         obj = new SubtaskReviewsTabPanel(configuration, null);
 
-        // SSH file not exist
-        when(configuration.getSshPrivateKey().exists()).thenReturn(false);
-        assertFalse(obj.showPanel(issue, user));
-
-        // SSH file is null
-        when(configuration.getSshPrivateKey()).thenReturn(null);
-        assertFalse(obj.showPanel(issue, user));
-
-        // Username is null
-        when(configuration.getSshUsername()).thenReturn(null);
-        assertFalse(obj.showPanel(issue, user));
-
-        // Hostname is null
-        when(configuration.getSshHostname()).thenReturn(null);
+        // SSH file not exist, or missing hostname/username
+        when(configuration.isSshValid()).thenReturn(false);
         assertFalse(obj.showPanel(issue, user));
     }
 
@@ -4,11 +4,9 @@ import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.project.MockProject;
 import com.atlassian.jira.project.Project;
 import com.atlassian.jira.project.ProjectManager;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.meetme.plugins.jira.gerrit.data.GerritConfiguration;
 import com.meetme.plugins.jira.gerrit.data.IssueReviewsManager;
-import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
 import com.sonymobile.tools.gerrit.gerritevents.GerritQueryException;
 import org.hamcrest.core.Is;
 import org.junit.Assert;
@@ -17,13 +15,12 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
-import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -63,9 +60,8 @@ public class ShowReviewsWebPanelConditionTest {
     @Test
     public void shouldDisplayWithAlwaysFlag() throws GerritQueryException {
         when(gerritConfiguration.getShowsEmptyPanel()).thenReturn(true);
-        when(issueReviewsManager.getReviewsForIssue(any(Issue.class))).thenReturn(Lists.newArrayList());
-        when(gerritConfiguration.getIdsOfKnownGerritProjects()).thenReturn(projects.stream().map(p -> p.getId()
-                .toString()).collect(Collectors.toList()));
+        when(issueReviewsManager.hasReviews(any(Issue.class), anyBoolean())).thenReturn(false);
+        when(gerritConfiguration.isGerritProject(1L)).thenReturn(true);
 
         assertTrue(showReviewsWebPanelCondition.shouldDisplay(singletonMap("issue", issue)));
     }
@@ -87,7 +83,7 @@ public class ShowReviewsWebPanelConditionTest {
     @Test
     public void shouldDisplayEmptyWhiteList(){
         when(gerritConfiguration.getShowsEmptyPanel()).thenReturn(false);
-        when(gerritConfiguration.getIdsOfKnownGerritProjects()).thenReturn(Lists.newArrayList());
+        when(gerritConfiguration.isGerritProject(1L)).thenReturn(false);
 
         assertFalse(showReviewsWebPanelCondition.shouldDisplay(singletonMap("issue", issue)));
     }
@@ -95,17 +91,15 @@ public class ShowReviewsWebPanelConditionTest {
     @Test
     public void shouldDisplayProjectIsOnWhiteList() throws Exception {
         when(gerritConfiguration.getShowsEmptyPanel()).thenReturn(false);
-        when(issueReviewsManager.getReviewsForIssue(any(Issue.class))).thenReturn(singletonList(new GerritChange()));
-        when(gerritConfiguration.getIdsOfKnownGerritProjects()).thenReturn(projects.stream().map(p -> p.getId()
-                .toString()).collect(Collectors.toList()));
+        when(issueReviewsManager.hasReviews(any(Issue.class), anyBoolean())).thenReturn(true);
+        when(gerritConfiguration.isGerritProject(1L)).thenReturn(true);
         assertTrue(showReviewsWebPanelCondition.shouldDisplay(singletonMap("issue", issue)));
     }
 
     @Test
     public void shouldDisplayProjectIsNotOnWhiteList() {
         when(gerritConfiguration.getShowsEmptyPanel()).thenReturn(false);
-        when(gerritConfiguration.getIdsOfKnownGerritProjects()).thenReturn(projects.stream().filter(project -> ! project
-                .getId().equals(1L)).map(project -> project.getId().toString()).collect(Collectors.toList()));
+        when(gerritConfiguration.isGerritProject(1L)).thenReturn(false);
         assertFalse(showReviewsWebPanelCondition.shouldDisplay(singletonMap("issue", issue)));
     }
 
@@ -113,9 +107,8 @@ public class ShowReviewsWebPanelConditionTest {
     public void shouldDisplayNoConnectionToGerrit() throws GerritQueryException {
 
 
-        when(gerritConfiguration.getIdsOfKnownGerritProjects()).thenReturn(projects.stream().map(p -> p.getId()
-                .toString()).collect(Collectors.toList()));
-        when(issueReviewsManager.getReviewsForIssue(any(Issue.class))).thenThrow(new GerritQueryException());
+        when(gerritConfiguration.isGerritProject(1L)).thenReturn(true);
+        when(issueReviewsManager.hasReviews(any(Issue.class), anyBoolean())).thenThrow(new GerritQueryException());
 
         when(gerritConfiguration.getShowsEmptyPanel()).thenReturn(true);
         assertTrue(showReviewsWebPanelCondition.shouldDisplay(singletonMap("issue", issue)));
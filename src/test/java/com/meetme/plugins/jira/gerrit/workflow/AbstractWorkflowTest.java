@@ -62,6 +62,7 @@ public abstract class AbstractWorkflowTest {
         File file = mock(File.class);
         when(configuration.getSshPrivateKey()).thenReturn(file);
         when(file.exists()).thenReturn(true);
+        when(configuration.isSshValid()).thenReturn(true);
     }
 
     protected void setUpUser() {
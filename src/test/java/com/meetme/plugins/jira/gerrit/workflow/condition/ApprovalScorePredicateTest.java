@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 MeetMe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.meetme.plugins.jira.gerrit.workflow.condition;
+
+import com.google.common.collect.Lists;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritApproval;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritChange;
+import com.meetme.plugins.jira.gerrit.data.dto.GerritPatchSet;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ApprovalScorePredicateTest {
+
+    private static Map<String, String> createArgs(boolean negative, String label, ApprovalScore.ComparisonOperator op, int target) {
+        Map<String, String> args = new HashMap<>();
+        args.put(ApprovalScore.KEY_NEGATIVE, Boolean.toString(negative));
+        args.put(ApprovalScore.KEY_LABEL, label);
+        args.put(ApprovalScore.KEY_COMPARISON, op.name());
+        args.put(ApprovalScore.KEY_TARGET, Integer.toString(target));
+        return args;
+    }
+
+    private static GerritChange createChange(String label, int... scores) {
+        List<GerritApproval> approvals = new ArrayList<>();
+
+        for (int score : scores) {
+            approvals.add(new GerritApproval(new JSONObject().element("type", label).element("value", Integer.toString(score))));
+        }
+
+        GerritPatchSet patchSet = new GerritPatchSet();
+        patchSet.setApprovals(approvals);
+
+        GerritChange change = new GerritChange();
+        change.setPatchSet(patchSet);
+        return change;
+    }
+
+    private static boolean test(Map<String, String> args, GerritChange... changes) {
+        return ApprovalScore.getPredicate(args).test(Lists.newArrayList(changes));
+    }
+
+    @Test
+    public void testComparisons() {
+        GerritChange change = createChange("Code-Review", -1, 1);
+
+        assertTrue(test(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.LESS_THAN, 0), change));
+        assertTrue(test(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.LESS_OR_EQUAL, -1), change));
+        assertTrue(test(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.EQUAL_TO, 1), change));
+        assertFalse(test(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.EQUAL_TO, 0), change));
+        assertTrue(test(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.GREATER_OR_EQUAL, 1), change));
+        assertFalse(test(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.GREATER_THAN, 1), change));
+        assertFalse(test(createArgs(false, "Verified", ApprovalScore.ComparisonOperator.LESS_OR_EQUAL, 0), change));
+    }
+
+    @Test
+    public void testEveryChangeMustMatch() {
+        Map<String, String> args = createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.GREATER_OR_EQUAL, 2);
+        Map<String, String> negated = createArgs(true, "Code-Review", ApprovalScore.ComparisonOperator.GREATER_OR_EQUAL, 2);
+
+        assertTrue(test(args, createChange("Code-Review", 2), createChange("Code-Review", 1, 2)));
+        assertFalse(test(args, createChange("Code-Review", 2), createChange("Code-Review", 1)));
+        assertFalse(test(args));
+        assertTrue(test(negated, createChange("Code-Review", 2), createChange("Code-Review", 1)));
+    }
+
+    @Test
+    public void testCachedByArgs() {
+        Map<String, String> args = createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.EQUAL_TO, 2);
+        ApprovalScorePredicate predicate = ApprovalScore.getPredicate(args);
+
+        assertSame(predicate, ApprovalScore.getPredicate(args));
+        assertNotSame(predicate, ApprovalScore.getPredicate(new HashMap<>(args)));
+
+        // Editing the descriptor in place recompiles it
+        args.put(ApprovalScore.KEY_TARGET, "1");
+        assertNotSame(predicate, ApprovalScore.getPredicate(args));
+        assertTrue(test(args, createChange("Code-Review", 1)));
+        assertFalse(test(args, createChange("Code-Review", 2)));
+    }
+
+    @Test
+    public void testNoApprovals() {
+        GerritChange change = new GerritChange();
+        change.setPatchSet(new GerritPatchSet());
+
+        assertFalse(ApprovalScore.getPredicate(createArgs(false, "Code-Review", ApprovalScore.ComparisonOperator.LESS_THAN, 1))
+                .test(Collections.singletonList(change)));
+    }
+}